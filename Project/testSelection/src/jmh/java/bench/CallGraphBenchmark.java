@@ -0,0 +1,156 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用图构建（WALA 0-CFA）与调用关系提取的基准
+ * 指定 -p target=target文件夹路径 时使用真实项目；否则把合成图生成为Java源文件并编译成一个target文件夹。
+ * WALA的运行时由wala.properties指定，需要在能找到rt.jar的目录下运行
+ *
+ * @author csh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class CallGraphBenchmark {
+
+    @Param({""})
+    public String target;
+
+    @Param({"WIDE", "HUB"})
+    public String shape;
+
+    @Param({"1000", "10000"})
+    public int edges;
+
+    private ArrayList<File> classFiles;
+    private Object callGraph;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        String targetPath = target.isEmpty() ? compile(SyntheticGraph.generate(SyntheticGraph.Shape.valueOf(shape), edges)).toString() : target;
+        classFiles = Pipeline.classFiles(targetPath);
+        callGraph = Pipeline.makeCallGraph(classFiles);
+    }
+
+    @Benchmark
+    public Object makeCallGraph() throws Throwable {
+        return Pipeline.makeCallGraph(classFiles);
+    }
+
+    @Benchmark
+    public Object extractEdges() throws Throwable {
+        return Pipeline.extract(callGraph, new HashSet<>());
+    }
+
+    /**
+     * 把合成图生成为Java源文件：每条边是调用者方法体中的一次调用，测试方法带@Test注解
+     *
+     * @param graph 合成图
+     * @return 编译得到的target文件夹
+     * @throws IOException
+     */
+    private static Path compile(SyntheticGraph graph) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("CallGraphBenchmark needs a JDK to compile the synthetic project, or -p target=<path>");
+        }
+        // 类名 -> 方法名 -> 方法体
+        Map<String, Map<String, StringBuilder>> classes = new LinkedHashMap<>();
+        for (String[] edge : graph.edges) {
+            String[] callee = edge[0].split(", ");
+            String[] caller = edge[1].split(", ");
+            method(classes, callee[0], callee[1]);
+            method(classes, caller[0], caller[1])
+                    .append("        new ").append(javaName(callee[0])).append("().")
+                    .append(callee[1], 0, callee[1].indexOf('(')).append("();\n");
+        }
+
+        Path root = Files.createTempDirectory("callgraph-bench");
+        Path sources = root.resolve("src");
+        ArrayList<String> production = new ArrayList<>();
+        ArrayList<String> tests = new ArrayList<>();
+        for (Map.Entry<String, Map<String, StringBuilder>> cls : classes.entrySet()) {
+            String name = javaName(cls.getKey());
+            boolean isTest = name.endsWith("Test");
+            StringBuilder source = new StringBuilder();
+            source.append("package ").append(name, 0, name.lastIndexOf('.')).append(";\n\n");
+            source.append("public class ").append(name.substring(name.lastIndexOf('.') + 1)).append(" {\n");
+            for (Map.Entry<String, StringBuilder> method : cls.getValue().entrySet()) {
+                if (isTest) {
+                    source.append("    @org.junit.Test\n");
+                }
+                source.append("    public void ").append(method.getKey(), 0, method.getKey().indexOf('('))
+                        .append("() {\n").append(method.getValue()).append("    }\n");
+            }
+            source.append("}\n");
+            Path file = sources.resolve(name.replace('.', File.separatorChar) + ".java");
+            Files.createDirectories(file.getParent());
+            Files.write(file, source.toString().getBytes(StandardCharsets.UTF_8));
+            (isTest ? tests : production).add(file.toString());
+        }
+
+        Path classesDirectory = Files.createDirectories(root.resolve("target").resolve("classes"));
+        Path testClassesDirectory = Files.createDirectories(root.resolve("target").resolve("test-classes"));
+        run(compiler, classesDirectory, System.getProperty("java.class.path"), production);
+        run(compiler, testClassesDirectory, classesDirectory + File.pathSeparator + System.getProperty("java.class.path"), tests);
+        return root.resolve("target");
+    }
+
+    private static void run(JavaCompiler compiler, Path output, String classPath, ArrayList<String> files) {
+        ArrayList<String> args = new ArrayList<>();
+        // WALA 1.5.5只能读取Java 8的class文件
+        args.add("-source");
+        args.add("8");
+        args.add("-target");
+        args.add("8");
+        args.add("-nowarn");
+        args.add("-cp");
+        args.add(classPath);
+        args.add("-d");
+        args.add(output.toString());
+        args.addAll(files);
+        if (compiler.run(null, null, null, args.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("failed to compile the synthetic project");
+        }
+    }
+
+    private static StringBuilder method(Map<String, Map<String, StringBuilder>> classes, String className, String selector) {
+        return classes.computeIfAbsent(className, k -> new LinkedHashMap<>()).computeIfAbsent(selector, k -> new StringBuilder());
+    }
+
+    /**
+     * @param className 类名，如"Lbench/p3/C12"
+     * @return Java源码中的类名，如"bench.p3.C12"
+     */
+    private static String javaName(String className) {
+        return className.substring(1).replace('/', '.');
+    }
+}
@@ -0,0 +1,165 @@
+package bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 被测的各个阶段
+ * JMH要求基准类不能位于默认包，而被测的类都在默认包中无法import，因此通过MethodHandle调用，
+ * 默认包中的类型（如CallGraphIndex）在这里统一用Object表示
+ *
+ * @author csh
+ */
+final class Pipeline {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> CALL_GRAPH_INDEX = load("CallGraphIndex");
+    private static final Class<?> REACHABILITY_INDEX = load("ReachabilityIndex");
+    private static final Class<?> TEST_CLASS_INDEX = load("TestClassIndex");
+
+    private static final MethodHandle INITIAL_EDGES = findStatic("DotUtil", "initialEdges", HashSet.class, ArrayList.class);
+    private static final MethodHandle BUILD_CLASS_DOT = findStatic("DotUtil", "buildClassDot", HashSet.class, HashSet.class);
+    private static final MethodHandle BUILD_METHOD_DOT = findStatic("DotUtil", "buildMethodDot", HashSet.class, HashSet.class);
+    private static final MethodHandle FIND_CLOSURE_DOT = findStatic("DotUtil", "findClosure", HashSet.class, ArrayList.class, ArrayList.class, String.class);
+    private static final MethodHandle FIND_CLOSURE = findStatic("DotUtil", "findClosure", HashSet.class, CALL_GRAPH_INDEX, ArrayList.class, String.class);
+    private static final MethodHandle BUILD_CLASS_INDEX = findStatic("DotUtil", "buildClassIndex", CALL_GRAPH_INDEX, CALL_GRAPH_INDEX);
+    private static final MethodHandle BUILD_METHOD_INDEX = findStatic("DotUtil", "buildMethodIndex", CALL_GRAPH_INDEX, CALL_GRAPH_INDEX);
+    private static final MethodHandle FROM_DOT_GRAPH = findStatic("CallGraphIndex", "fromDotGraph", CALL_GRAPH_INDEX, List.class, String.class);
+    private static final MethodHandle SELECT_TESTS = findStatic("Analyzer", "selectTests", HashSet.class,
+            String.class, CALL_GRAPH_INDEX, CALL_GRAPH_INDEX, ArrayList.class, TEST_CLASS_INDEX, HashSet.class);
+    private static final MethodHandle FOR_GRAIN = findStatic("ReachabilityIndex", "forGrain", REACHABILITY_INDEX,
+            String.class, CALL_GRAPH_INDEX, CALL_GRAPH_INDEX, TEST_CLASS_INDEX, HashSet.class);
+    private static final MethodHandle BUILD_TEST_CLASS_INDEX = findStatic("TestClassIndex", "build", TEST_CLASS_INDEX,
+            Set.class, Set.class, CALL_GRAPH_INDEX);
+    private static final MethodHandle QUERY = findVirtual(REACHABILITY_INDEX, "query", HashSet.class, List.class);
+    private static final MethodHandle CLOSURE_SEEDS = findStatic("DotUtil", "closureSeeds", List.class, List.class, String.class);
+    private static final MethodHandle NEW_INDEX = findConstructor(CALL_GRAPH_INDEX);
+    private static final MethodHandle ADD_EDGE = findVirtual(CALL_GRAPH_INDEX, "addEdge", void.class, String.class, String.class);
+    private static final MethodHandle MAKE_CALL_GRAPH = findStatic("CallGraphFactory", "makeCallGraph", load("com.ibm.wala.ipa.callgraph.CallGraph"), ArrayList.class);
+    private static final MethodHandle EXTRACT = findStatic("EdgeExtractor", "extract", CALL_GRAPH_INDEX, load("com.ibm.wala.ipa.callgraph.CallGraph"), HashSet.class);
+    private static final MethodHandle SCAN = findStatic("ClassInventory", "scan", load("ClassInventory"), String.class);
+    private static final MethodHandle GET_CLASS_FILES = findVirtual(load("ClassInventory"), "getClassFiles", ArrayList.class);
+
+    private Pipeline() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static HashSet<HashMap<String, String>> initialEdges(ArrayList<String> nodes) throws Throwable {
+        return (HashSet<HashMap<String, String>>) INITIAL_EDGES.invoke(nodes);
+    }
+
+    @SuppressWarnings("unchecked")
+    static HashSet<String> buildClassDot(HashSet<HashMap<String, String>> edges) throws Throwable {
+        return (HashSet<String>) BUILD_CLASS_DOT.invoke(edges);
+    }
+
+    @SuppressWarnings("unchecked")
+    static HashSet<String> buildMethodDot(HashSet<HashMap<String, String>> edges) throws Throwable {
+        return (HashSet<String>) BUILD_METHOD_DOT.invoke(edges);
+    }
+
+    @SuppressWarnings("unchecked")
+    static HashSet<String> findClosure(ArrayList<String> dotGraph, ArrayList<String> changeInfos, String grain) throws Throwable {
+        return (HashSet<String>) FIND_CLOSURE_DOT.invoke(dotGraph, changeInfos, grain);
+    }
+
+    @SuppressWarnings("unchecked")
+    static HashSet<String> findClosure(Object index, ArrayList<String> changeInfos, String grain) throws Throwable {
+        return (HashSet<String>) FIND_CLOSURE.invoke(index, changeInfos, grain);
+    }
+
+    static Object buildClassIndex(Object edges) throws Throwable {
+        return BUILD_CLASS_INDEX.invoke(edges);
+    }
+
+    static Object buildMethodIndex(Object edges) throws Throwable {
+        return BUILD_METHOD_INDEX.invoke(edges);
+    }
+
+    static Object fromDotGraph(List<String> dotGraph, String grain) throws Throwable {
+        return FROM_DOT_GRAPH.invoke(dotGraph, grain);
+    }
+
+    @SuppressWarnings("unchecked")
+    static HashSet<String> selectTests(String grain, Object classIndex, Object methodIndex, ArrayList<String> changeInfos, Object testClasses, HashSet<String> testMethods) throws Throwable {
+        return (HashSet<String>) SELECT_TESTS.invoke(grain, classIndex, methodIndex, changeInfos, testClasses, testMethods);
+    }
+
+    static Object reachabilityIndex(String grain, Object classIndex, Object methodIndex, Object testClasses, HashSet<String> testMethods) throws Throwable {
+        return FOR_GRAIN.invoke(grain, classIndex, methodIndex, testClasses, testMethods);
+    }
+
+    static Object testClassIndex(Set<String> testClassNames, Set<String> testMethods, Object methodIndex) throws Throwable {
+        return BUILD_TEST_CLASS_INDEX.invoke(testClassNames, testMethods, methodIndex);
+    }
+
+    @SuppressWarnings("unchecked")
+    static HashSet<String> query(Object reachability, List<String> changeInfos, String grain) throws Throwable {
+        return (HashSet<String>) QUERY.invoke(reachability, (List<String>) CLOSURE_SEEDS.invoke(changeInfos, grain));
+    }
+
+    /**
+     * @param edges 调用关系，每一项为 {被调用者, 调用者}
+     * @return 由这些边构成的CallGraphIndex
+     */
+    static Object callGraphIndex(List<String[]> edges) throws Throwable {
+        Object index = NEW_INDEX.invoke();
+        for (String[] edge : edges) {
+            ADD_EDGE.invoke(index, edge[0], edge[1]);
+        }
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    static ArrayList<File> classFiles(String targetPath) throws Throwable {
+        return (ArrayList<File>) GET_CLASS_FILES.invoke(SCAN.invoke(targetPath));
+    }
+
+    static Object makeCallGraph(ArrayList<File> classFiles) throws Throwable {
+        return MAKE_CALL_GRAPH.invoke(classFiles);
+    }
+
+    static Object extract(Object callGraph, HashSet<String> testMethods) throws Throwable {
+        return EXTRACT.invoke(callGraph, testMethods);
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findStatic(String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findStatic(load(owner), name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findVirtual(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> owner) {
+        try {
+            return LOOKUP.findConstructor(owner, MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测试选择各个阶段在合成图上的基准
+ * 运行全部：java -cp target/AutomatedTesting2020-1.0-SNAPSHOT-jar-with-dependencies.jar org.openjdk.jmh.Main SelectionBenchmark
+ * 只跑一部分：追加 -p shape=HUB -p edges=100000
+ *
+ * @author csh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class SelectionBenchmark {
+
+    @Param({"WIDE", "DEEP", "CYCLIC", "HUB"})
+    public String shape;
+
+    @Param({"10000", "100000", "1000000"})
+    public int edges;
+
+    private SyntheticGraph graph;
+    private ArrayList<String> nodes;
+    private HashSet<HashMap<String, String>> dotEdges;
+    private ArrayList<String> classDot;
+    private ArrayList<String> methodDot;
+    private Object edgeIndex;
+    private Object classIndex;
+    private Object methodIndex;
+    private Object testClasses;
+    private Object classReachability;
+    private Object methodReachability;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        graph = SyntheticGraph.generate(SyntheticGraph.Shape.valueOf(shape), edges);
+        nodes = graph.nodeStrings();
+        dotEdges = Pipeline.initialEdges(nodes);
+        classDot = new ArrayList<>(Pipeline.buildClassDot(dotEdges));
+        methodDot = new ArrayList<>(Pipeline.buildMethodDot(dotEdges));
+        Collections.sort(classDot);
+        Collections.sort(methodDot);
+        edgeIndex = Pipeline.callGraphIndex(graph.edges);
+        classIndex = Pipeline.buildClassIndex(edgeIndex);
+        methodIndex = Pipeline.buildMethodIndex(edgeIndex);
+        testClasses = Pipeline.testClassIndex(graph.testClassNames, graph.testMethods, methodIndex);
+        classReachability = Pipeline.reachabilityIndex("class", classIndex, methodIndex, testClasses, graph.testMethods);
+        methodReachability = Pipeline.reachabilityIndex("method", classIndex, methodIndex, testClasses, graph.testMethods);
+    }
+
+    @Benchmark
+    public Object initialEdges() throws Throwable {
+        return Pipeline.initialEdges(nodes);
+    }
+
+    @Benchmark
+    public Object buildClassDot() throws Throwable {
+        return Pipeline.buildClassDot(dotEdges);
+    }
+
+    @Benchmark
+    public Object buildMethodDot() throws Throwable {
+        return Pipeline.buildMethodDot(dotEdges);
+    }
+
+    @Benchmark
+    public Object buildClassIndex() throws Throwable {
+        return Pipeline.buildClassIndex(edgeIndex);
+    }
+
+    @Benchmark
+    public Object buildMethodIndex() throws Throwable {
+        return Pipeline.buildMethodIndex(edgeIndex);
+    }
+
+    @Benchmark
+    public Object findClosureClassDot() throws Throwable {
+        return Pipeline.findClosure(classDot, graph.changeInfos, "class");
+    }
+
+    @Benchmark
+    public Object findClosureMethodDot() throws Throwable {
+        return Pipeline.findClosure(methodDot, graph.changeInfos, "method");
+    }
+
+    @Benchmark
+    public Object findClosureClass() throws Throwable {
+        return Pipeline.findClosure(classIndex, graph.changeInfos, "class");
+    }
+
+    @Benchmark
+    public Object findClosureMethod() throws Throwable {
+        return Pipeline.findClosure(methodIndex, graph.changeInfos, "method");
+    }
+
+    @Benchmark
+    public Object selectByClass() throws Throwable {
+        return Pipeline.selectTests("class", classIndex, methodIndex, graph.changeInfos, testClasses, graph.testMethods);
+    }
+
+    @Benchmark
+    public Object selectByMethod() throws Throwable {
+        return Pipeline.selectTests("method", classIndex, methodIndex, graph.changeInfos, testClasses, graph.testMethods);
+    }
+
+    @Benchmark
+    public Object queryReachabilityClass() throws Throwable {
+        return Pipeline.query(classReachability, graph.changeInfos, "class");
+    }
+
+    @Benchmark
+    public Object queryReachabilityMethod() throws Throwable {
+        return Pipeline.query(methodReachability, graph.changeInfos, "method");
+    }
+
+    @Benchmark
+    public Object buildReachabilityMethod() throws Throwable {
+        return Pipeline.reachabilityIndex("method", classIndex, methodIndex, testClasses, graph.testMethods);
+    }
+}
@@ -0,0 +1,186 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 合成的方法调用图，用于在没有真实项目的情况下按规模与形状测量各个阶段
+ * 每个生产类有 METHODS_PER_CLASS 个方法；约 1/TEST_RATIO 的方法是测试方法，位于以Test结尾的测试类中，
+ * 测试方法只作为调用者出现。随机数种子固定，同样的参数每次生成同样的图
+ *
+ * @author csh
+ */
+final class SyntheticGraph {
+
+    /**
+     * 图的形状
+     */
+    enum Shape {
+        /**
+         * 层数少、每层很宽：测试调用大量的入口方法，入口方法再调用大量的底层方法
+         */
+        WIDE,
+        /**
+         * 很长的调用链：每个方法只调用链上紧随其后的几个方法
+         */
+        DEEP,
+        /**
+         * 任意方向的随机调用，形成大的强连通分量
+         */
+        CYCLIC,
+        /**
+         * 少数工具方法被几乎所有方法调用，被调用次数呈幂律分布
+         */
+        HUB
+    }
+
+    private static final int METHODS_PER_CLASS = 10;
+    private static final int TEST_RATIO = 10;
+    private static final int EDGES_PER_METHOD = 5;
+    private static final int CHANGED_METHODS = 10;
+
+    /**
+     * 调用关系，每一项为 {被调用者, 调用者}，端点格式与EdgeExtractor一致，如"Lbench/p3/C12, m4()V"
+     */
+    final ArrayList<String[]> edges = new ArrayList<>();
+    /**
+     * 方法粒度节点名称格式的测试方法
+     */
+    final HashSet<String> testMethods = new HashSet<>();
+    /**
+     * 测试类的完整类名
+     */
+    final HashSet<String> testClassNames = new HashSet<>();
+    /**
+     * 方法粒度节点名称格式的变更信息
+     */
+    final ArrayList<String> changeInfos = new ArrayList<>();
+
+    private SyntheticGraph() {
+    }
+
+    /**
+     * 生成一张合成的调用图
+     *
+     * @param shape     形状
+     * @param edgeCount 边的数量（近似值，去重前）
+     * @return 合成图
+     */
+    static SyntheticGraph generate(Shape shape, int edgeCount) {
+        SyntheticGraph graph = new SyntheticGraph();
+        Random random = new Random(42);
+        int methodCount = Math.max(edgeCount / EDGES_PER_METHOD, METHODS_PER_CLASS * TEST_RATIO);
+        int testCount = methodCount / TEST_RATIO;
+        int productionCount = methodCount - testCount;
+
+        // 测试方法：每个测试调用若干生产方法
+        int testEdges = edgeCount / TEST_RATIO;
+        for (int t = 0; t < testCount; t++) {
+            String test = testNode(t);
+            graph.testMethods.add(methodNode(test));
+            for (int k = 0; k < Math.max(1, testEdges / testCount); k++) {
+                int callee;
+                if (shape == Shape.DEEP) {
+                    // 测试调用链的起点附近，调用链的深度才能体现出来
+                    callee = random.nextInt(Math.max(1, productionCount / 100));
+                } else if (shape == Shape.WIDE) {
+                    callee = random.nextInt(Math.max(1, productionCount / 10));
+                } else {
+                    callee = random.nextInt(productionCount);
+                }
+                graph.edges.add(new String[]{productionNode(callee), test});
+            }
+        }
+        for (int t = 0; t < testCount / METHODS_PER_CLASS; t++) {
+            graph.testClassNames.add("Lbench/t/C" + t + "Test");
+        }
+
+        // 生产方法之间的调用
+        int productionEdges = edgeCount - graph.edges.size();
+        int perMethod = Math.max(1, productionEdges / productionCount);
+        // WIDE中只有上面两层有调用，扇出相应放大
+        int fanOut = shape == Shape.WIDE ? perMethod * 10 / 4 : perMethod;
+        for (int caller = 0; caller < productionCount; caller++) {
+            for (int k = 0; k < fanOut; k++) {
+                int callee = callee(shape, random, caller, k, productionCount);
+                if (callee >= 0) {
+                    graph.edges.add(new String[]{productionNode(callee), productionNode(caller)});
+                }
+            }
+        }
+
+        for (int i = 0; i < CHANGED_METHODS; i++) {
+            graph.changeInfos.add(methodNode(productionNode(random.nextInt(productionCount))));
+        }
+        return graph;
+    }
+
+    /**
+     * @return 调用者 -> 调用点的目标，格式与BasicCallGraph.nodeToString一致，作为DotUtil.initialEdges的输入
+     */
+    ArrayList<String> nodeStrings() {
+        Map<String, StringBuilder> nodes = new LinkedHashMap<>();
+        for (String[] edge : edges) {
+            StringBuilder node = nodes.get(edge[1]);
+            if (node == null) {
+                node = new StringBuilder("Node: < Application, ").append(edge[1]).append(" > Context: Everywhere\n");
+                nodes.put(edge[1], node);
+            }
+            node.append(" - invokevirtual < Application, ").append(edge[0]).append(" >@0\n");
+        }
+        ArrayList<String> result = new ArrayList<>(nodes.size());
+        for (StringBuilder node : nodes.values()) {
+            result.add(node.toString());
+        }
+        return result;
+    }
+
+    private static int callee(Shape shape, Random random, int caller, int k, int productionCount) {
+        switch (shape) {
+            case WIDE: {
+                // 三层：前10%调用中间30%，中间30%调用其余的60%
+                int top = productionCount / 10;
+                int middle = productionCount * 4 / 10;
+                if (caller < top) {
+                    return top + random.nextInt(middle - top);
+                }
+                if (caller < middle) {
+                    return middle + random.nextInt(productionCount - middle);
+                }
+                return -1;
+            }
+            case DEEP: {
+                int callee = caller + k + 1;
+                return callee < productionCount ? callee : -1;
+            }
+            case CYCLIC:
+                return random.nextInt(productionCount);
+            case HUB:
+            default: {
+                // 越靠前的方法被调用的概率越大
+                double r = random.nextDouble();
+                return (int) (productionCount * r * r * r);
+            }
+        }
+    }
+
+    private static String productionNode(int method) {
+        int cls = method / METHODS_PER_CLASS;
+        return "Lbench/p" + (cls % 10) + "/C" + cls + ", m" + (method % METHODS_PER_CLASS) + "()V";
+    }
+
+    private static String testNode(int method) {
+        return "Lbench/t/C" + (method / METHODS_PER_CLASS) + "Test, test" + (method % METHODS_PER_CLASS) + "()V";
+    }
+
+    /**
+     * 与DotUtil.methodNode一致
+     */
+    private static String methodNode(String edgeNode) {
+        String[] split = edgeNode.split(", ");
+        return split[0] + " " + split[0].replace("/", ".").substring(1) + "." + split[1];
+    }
+}
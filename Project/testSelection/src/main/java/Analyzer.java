@@ -1,15 +1,4 @@
-import com.ibm.wala.classLoader.Language;
-import com.ibm.wala.classLoader.ShrikeBTMethod;
 import com.ibm.wala.ipa.callgraph.*;
-import com.ibm.wala.ipa.callgraph.impl.AllApplicationEntrypoints;
-import com.ibm.wala.ipa.callgraph.impl.BasicCallGraph;
-import com.ibm.wala.ipa.callgraph.impl.Util;
-import com.ibm.wala.ipa.callgraph.propagation.SSAPropagationCallGraphBuilder;
-import com.ibm.wala.ipa.cha.ClassHierarchy;
-import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
-import com.ibm.wala.types.ClassLoaderReference;
-import com.ibm.wala.types.annotations.Annotation;
-import com.ibm.wala.util.config.AnalysisScopeReader;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -24,84 +13,141 @@ import java.util.*;
  */
 public class Analyzer {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        //常驻服务模式
+        if (args.length > 0 && "-server".equals(args[0])) {
+            SelectionServer.main(args);
+            return;
+        }
+        AnalyzerOptions options = AnalyzerOptions.parse(args);
+        if (options.metricsPath != null) {
+            PhaseMetrics.enable();
+            PhaseMetrics.attribute("grain", options.grain);
+            PhaseMetrics.attribute("target", options.targetPath);
+        }
+        //多模块模式：所有模块共享同一张调用图
+        if (options.reactor) {
+            try {
+                ReactorAnalyzer.run(options);
+            } catch (Exception e) {
+                System.out.println("Exception");
+                e.printStackTrace();
+            } finally {
+                if (options.metricsPath != null) {
+                    PhaseMetrics.write(new File(options.metricsPath));
+                }
+            }
+            return;
+        }
         //粒度
-        String grain;
-        if ("-c".equals(args[0])) {
-            grain = "class";
-        } else {
-            grain = "method";
+        String grain = options.grain;
+        //扫描一次target文件夹，得到所有classFile，包括生产类和测试类
+        ClassInventory inventory;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("scan")) {
+            inventory = ClassInventory.scan(options.targetPath);
         }
-        //所有classFile，包括生产类和测试类
-        ArrayList<File> classFiles = FileUtil.getClassFiles(args[1]);
+        ArrayList<File> classFiles = inventory.getClassFiles();
+        PhaseMetrics.count("classFiles", classFiles.size());
         //change_info文件
-        File change_info = new File(args[2]);
+        File change_info = new File(options.changeInfoPath);
         //用于记录callGraph中的所有测试方法，根据@Test注解来判断
         HashSet<String> testMethods = new HashSet<>();
-        //构建CallGraph
         try {
-            AnalysisScope scope = AnalysisScopeReader.readJavaScope("scope.txt", new File("exclusion.txt"), Analyzer.class.getClassLoader());
-            for (File f : classFiles) {
-                scope.addClassFileToScope(ClassLoaderReference.Application, f);
-            }
-
-            //生成类层次关系对象
-            ClassHierarchy cha = ClassHierarchyFactory.makeWithRoot(scope);
-
-            //生成进入点
-            AllApplicationEntrypoints entryPoints = new AllApplicationEntrypoints(scope, cha);
-            AnalysisOptions option = new AnalysisOptions(scope, entryPoints);
-            SSAPropagationCallGraphBuilder builder = Util.makeZeroCFABuilder(
-                    Language.JAVA, option, new AnalysisCacheImpl(), cha, scope
-            );
-
-
-            //利用0-CFA算法构建调用图
-            CallGraph cg = builder.makeCallGraph(option, null);
-
-            //用于保存node信息
-            ArrayList<String> nodes = new ArrayList<>();
-
-            //遍历cg中所有的节点
-            for (CGNode node : cg) {
-                // node中包含了很多信息，包括类加载器、方法信息等，这里只筛选出需要的信息
-                if (node.getMethod() instanceof ShrikeBTMethod) {
-                    //node.getMethod()返回一个比较泛化的IMethod实例，不能获取到我们想要的信息
-                    //一般地，本项目中所有和业务逻辑相关的方法都是ShrikeBTMethod对象
-                    ShrikeBTMethod method = (ShrikeBTMethod) node.getMethod();
-                    //使用Primordial类加载器加载的类都属于Java原生类，我们一般不关心。
-                    if ("Application".equals(method.getDeclaringClass().getClassLoader().toString())) {
-                        //添加节点信息
-                        nodes.add(BasicCallGraph.nodeToString(cg, node));
-                        //如果方法的注解是@Test,则加入testMethods中
-                        //注意此处的Annotation类是wala中的
-                        Collection<Annotation> annotations = method.getAnnotations();
-                        for (Annotation annotation : annotations) {
-                            if (annotation.toString().contains("Lorg/junit/Test")) {
-                                String signature = method.getSignature();
-                                String innerClass = method.getDeclaringClass().getName().toString();
-                                testMethods.add(innerClass + " " + signature);
-                            }
-                        }
-                    }
+            //调用图的进入点，为null时以所有应用方法为进入点
+            Collection<String> roots = null;
+            if (TestEntrypoints.TESTS.equals(options.entry)) {
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("discoverEntrypoints")) {
+                    roots = TestEntrypoints.discover(inventory.getTestClassFiles());
                 }
+                PhaseMetrics.count("roots", roots.size());
             }
+            //比较不同精度的调用图
+            if (options.compare) {
+                TierComparison.compare(options, inventory, roots);
+                return;
+            }
+            //记录用于构建.dot文件的调用关系，里面的每一条是被调用者->调用者，注意名称
+            CallGraphIndex classIndex;
+            CallGraphIndex methodIndex;
+            if (options.legacy) {
+                //旧的方式：先把每个节点转换为字符串，再从字符串中解析出调用关系
+                CallGraph cg = CallGraphFactory.makeCallGraph(classFiles, new ArrayList<>(), options.analysis, roots, options.primordialCache());
+                ArrayList<String> nodes;
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("nodeToString")) {
+                    nodes = EdgeExtractor.extractNodeStrings(cg, testMethods);
+                } finally {
+                    CallGraphFactory.close(cg);
+                }
+                HashSet<HashMap<String, String>> edges;
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("initialEdges")) {
+                    edges = DotUtil.initialEdges(nodes);
+                }
+                PhaseMetrics.count("methodEdges", edges.size());
 
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("buildIndex")) {
+                    //构建.dot图
+                    HashSet<String> dotGraph_class = DotUtil.buildDot(edges, "class");
+                    HashSet<String> dotGraph_method = DotUtil.buildDot(edges, "method");
+                    ArrayList<String> result_class = new ArrayList<String>(dotGraph_class);
+                    ArrayList<String> result_method = new ArrayList<String>(dotGraph_method);
+                    Collections.sort(result_class);
+                    Collections.sort(result_method);
 
-            //记录用于构建.dot文件的调用关系，里面的每一条是被调用者->调用者，注意名称
-            HashSet<HashMap<String, String>> edges = DotUtil.initialEdges(nodes);
+                    classIndex = CallGraphIndex.fromDotGraph(result_class, "class");
+                    methodIndex = CallGraphIndex.fromDotGraph(result_method, "method");
+                }
+            } else {
+                CallGraphIndex edges = buildEdges(options, classFiles, roots, testMethods);
+                PhaseMetrics.count("methodEdges", edges.edgeCount());
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("buildIndex")) {
+                    classIndex = DotUtil.buildClassIndex(edges);
+                    methodIndex = DotUtil.buildMethodIndex(edges);
+                }
+            }
+            //导出调用图
+            if (options.dotPath != null || options.edgesPath != null) {
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("export")) {
+                    exportGraphs(options, classIndex, methodIndex);
+                }
+            }
+
+            //测试类 -> 测试方法
+            TestClassIndex testClasses = TestClassIndex.build(inventory.getTestClassNames(), testMethods, methodIndex);
+            PhaseMetrics.count("testMethods", testMethods.size());
+            PhaseMetrics.count("testClasses", testClasses.size());
+            PhaseMetrics.count("classGraphNodes", classIndex.nodeCount());
+            PhaseMetrics.count("classGraphEdges", classIndex.edgeCount());
+            PhaseMetrics.count("methodGraphNodes", methodIndex.nodeCount());
+            PhaseMetrics.count("methodGraphEdges", methodIndex.edgeCount());
 
-            //构建.dot图
-            HashSet<String> dotGraph_class = DotUtil.buildDot(edges, "class");
-            HashSet<String> dotGraph_method = DotUtil.buildDot(edges, "method");
-            ArrayList<String> result_class = new ArrayList<String>(dotGraph_class);
-            ArrayList<String> result_method = new ArrayList<String>(dotGraph_method);
-            Collections.sort(result_class);
-            Collections.sort(result_method);
+            //预先计算可达性索引
+            ReachabilityIndex reachability = null;
+            if (options.index) {
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("reachabilityIndex")) {
+                    reachability = ReachabilityIndex.forGrain(grain, classIndex, methodIndex, testClasses, testMethods);
+                }
+                PhaseMetrics.count("reachabilityComponents", reachability.componentCount());
+                PhaseMetrics.count("reachabilityBytes", reachability.bitmapBytes());
+            }
 
-            //.dot写入文件
-            //DotUtil.writeToFile(args[1], "class", result_class);
-            //DotUtil.writeToFile(args[1], "method", result_method);
+            //批量模式：多个变更集共享同一张调用图
+            if (options.batch) {
+                BatchSelector batch = new BatchSelector(grain, classIndex, methodIndex, testClasses, testMethods, reachability);
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("batchSelect")) {
+                    batch.run(BatchSelector.listChangeFiles(options.changeInfoPath), new File(options.outputPath));
+                }
+                return;
+            }
+
+            //比较字节码，生成change_info
+            if (options.baselinePath != null) {
+                ArrayList<String> changes;
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("diff")) {
+                    changes = BytecodeDiffer.diff(options.baselinePath, options.targetPath);
+                }
+                PhaseMetrics.count("changedMethods", changes.size());
+                FileUtil.resultToFile(changes, change_info);
+            }
 
             //读取change_info
             ArrayList<String> changeInfos = new ArrayList<>();
@@ -110,85 +156,256 @@ public class Analyzer {
             while ((change_info_line = bf.readLine()) != null) {
                 changeInfos.add(change_info_line);
             }
+            PhaseMetrics.count("changeInfos", changeInfos.size());
 
             //按照不同粒度完成测试选择
-            makeTestSelection(grain, result_class, result_method, changeInfos, args[1], testMethods);
+            HashSet<String> result;
+            if (reachability != null) {
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("select")) {
+                    result = selectTests(grain, reachability, changeInfos, testClasses, testMethods);
+                }
+            } else {
+                result = selectTests(grain, classIndex, methodIndex, changeInfos, testClasses, testMethods, options.budget);
+            }
+            //有覆盖记录的测试按实际执行过的方法重新选择
+            if (options.coveragePath != null) {
+                CoverageData coverage;
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("coverage")) {
+                    coverage = CoverageData.read(new File(options.coveragePath));
+                    result = coverage.select(grain, changeInfos, result, testMethods, testClasses);
+                }
+                PhaseMetrics.count("coveredTests", coverage.testCount());
+            }
+            PhaseMetrics.count("selectedTests", result.size());
+            //只有不使用可达性索引时预算才生效
+            String stopReason = reachability == null && options.budget != null ? options.budget.stopReason() : null;
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("write")) {
+                writeSelection(options, "class".equals(grain) ? classIndex : methodIndex, changeInfos, result, stopReason);
+            }
 
         } catch (Exception e) {
             System.out.println("Exception");
             e.printStackTrace();
+        } finally {
+            if (options.metricsPath != null) {
+                PhaseMetrics.write(new File(options.metricsPath));
+            }
         }
     }
 
     /**
-     * 测试选择
+     * 获取方法之间的调用关系
+     * 指定了缓存文件时，如果所有.class文件的哈希都没有变化，直接读取缓存而不再调用WALA；
+     * 如果开启了增量模式，则在缓存的基础上只重新分析变更的类
+     *
+     * @param options     命令行参数
+     * @param classFiles  所有classFile
+     * @param roots       调用图的进入点，为null时以所有应用方法为进入点
+     * @param testMethods 用于记录所有的测试方法
+     * @return 方法之间的调用关系
+     * @throws Exception
+     */
+    private static CallGraphIndex buildEdges(AnalyzerOptions options, ArrayList<File> classFiles, Collection<String> roots, HashSet<String> testMethods) throws Exception {
+        if (options.cachePath == null) {
+            //直接遍历cg中的节点与调用点，提取调用关系
+            return extract(classFiles, options.analysis, roots, testMethods, options.lowMemory, options.primordialCache());
+        }
+        File cacheFile = new File(options.cachePath);
+        TreeMap<String, String> fileHashes;
+        //增量更新需要比较类的形状，其余情况不记录
+        TreeMap<String, String> classShapes = new TreeMap<>();
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("hash")) {
+            fileHashes = FileUtil.hashClassFiles(options.targetPath, classFiles);
+            if (options.incremental) {
+                classShapes = IncrementalUpdater.shapeClassFiles(options.targetPath, classFiles);
+            }
+        }
+        GraphCache.Snapshot snapshot;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("cacheRead")) {
+            snapshot = GraphCache.read(cacheFile, options.analysis, options.entry, options.lowMemory);
+        }
+        if (snapshot != null && snapshot.isHit(fileHashes)) {
+            PhaseMetrics.count("cacheHit", 1);
+            testMethods.addAll(snapshot.testMethods);
+            return snapshot.edges;
+        }
+        PhaseMetrics.count("cacheHit", 0);
+        CallGraphIndex edges = null;
+        if (options.incremental && snapshot != null) {
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("incrementalUpdate")) {
+                edges = IncrementalUpdater.update(snapshot, fileHashes, classShapes, classFiles, testMethods, options.primordialCache());
+            }
+        }
+        if (edges != null) {
+            if (options.verify) {
+                HashSet<String> fullTestMethods = new HashSet<>();
+                CallGraphIndex full = extract(classFiles, options.analysis, roots, fullTestMethods, options.lowMemory, options.primordialCache());
+                // 结果不一致时以完整重建为准
+                if (!IncrementalUpdater.verify(edges, full) || !fullTestMethods.equals(testMethods)) {
+                    edges = full;
+                    testMethods.clear();
+                    testMethods.addAll(fullTestMethods);
+                }
+            }
+        } else {
+            testMethods.clear();
+            edges = extract(classFiles, options.analysis, roots, testMethods, options.lowMemory, options.primordialCache());
+        }
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("cacheWrite")) {
+            GraphCache.save(cacheFile, options.analysis, options.entry, fileHashes, classShapes, edges, testMethods);
+        }
+        return edges;
+    }
+
+    /**
+     * 按两种粒度导出调用图，文件名为 粒度-项目名.dot 或 粒度-项目名.edges
+     *
+     * @param options     命令行参数
+     * @param classIndex  class粒度的反向调用图
+     * @param methodIndex method粒度的反向调用图
+     * @throws IOException
+     */
+    private static void exportGraphs(AnalyzerOptions options, CallGraphIndex classIndex, CallGraphIndex methodIndex) throws IOException {
+        String name = DotUtil.graphName(options.targetPath);
+        for (String grain : new String[]{"class", "method"}) {
+            CallGraphIndex index = "class".equals(grain) ? classIndex : methodIndex;
+            if (options.dotPath != null) {
+                File directory = FileUtil.ensureDirectory(options.dotPath);
+                GraphExporter.writeDot(index, grain, name.toLowerCase() + "_" + grain, new File(directory, grain + "-" + name + ".dot"));
+            }
+            if (options.edgesPath != null) {
+                File directory = FileUtil.ensureDirectory(options.edgesPath);
+                GraphExporter.writeBinary(index, new File(directory, grain + "-" + name + ".edges"));
+            }
+        }
+    }
+
+    /**
+     * 构建调用图并提取方法之间的调用关系
+     *
+     * @param classFiles      所有classFile
+     * @param analysis        调用图的精度
+     * @param roots           调用图的进入点，为null时以所有应用方法为进入点
+     * @param testMethods     用于记录所有的测试方法
+     * @param lowMemory       是否使用低内存模式
+     * @param primordialCache Java原生类快照所在的文件夹，为null时不使用快照
+     * @return 方法之间的调用关系
+     * @throws Exception
+     */
+    private static CallGraphIndex extract(ArrayList<File> classFiles, String analysis, Collection<String> roots, HashSet<String> testMethods, boolean lowMemory, File primordialCache) throws Exception {
+        CallGraph cg = CallGraphFactory.makeCallGraph(classFiles, new ArrayList<>(), analysis, roots, primordialCache);
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("extractEdges")) {
+            return EdgeExtractor.extract(cg, testMethods, lowMemory);
+        } finally {
+            CallGraphFactory.close(cg);
+        }
+    }
+
+    /**
+     * 写出选择结果，需要时先排序，再按分片分别写出
+     * 闭包计算提前停止的原因写入 ./selection-粒度.stop，对所有分片都适用
+     *
+     * @param options     命令行参数
+     * @param index       对应粒度的反向调用图
+     * @param changeInfos 变更信息
+     * @param result      被选择的测试方法
+     * @param stopReason  闭包计算提前停止的原因，没有停止时为null
+     * @throws IOException
+     */
+    private static void writeSelection(AnalyzerOptions options, CallGraphIndex index, ArrayList<String> changeInfos, HashSet<String> result, String stopReason) throws IOException {
+        FileUtil.stopReasonToFile(stopReason, new File("./selection-" + options.grain + ".txt"));
+        if (!options.prioritize && options.shards == 0) {
+            FileUtil.resultToFile(result, options.grain);
+            return;
+        }
+        ArrayList<String> ranked = TestPrioritizer.rank(result, options.grain, index, changeInfos);
+        FileUtil.resultToFile(ranked, options.grain);
+        if (options.shards > 0) {
+            Map<String, Long> durations = options.durationsPath == null
+                    ? Collections.emptyMap() : TestPrioritizer.readDurations(new File(options.durationsPath));
+            ArrayList<ArrayList<String>> shards = TestPrioritizer.shard(ranked, options.shards, durations);
+            for (int i = 0; i < shards.size(); i++) {
+                FileUtil.resultToFile(shards.get(i), new File("./selection-" + options.grain + "-" + (i + 1) + ".txt"));
+            }
+        }
+    }
+
+    /**
+     * 测试选择，只计算结果而不写入文件
+     *
+     * @param grain          粒度
+     * @param classIndex     class粒度的反向调用图
+     * @param methodIndex    method粒度的反向调用图
+     * @param changeInfos    变更信息
+     * @param testClasses    测试类 -> 测试方法
+     * @param testMethods    所有测试方法的集合
+     * @return 被选择的测试方法
+     */
+    public static HashSet<String> selectTests(String grain, CallGraphIndex classIndex, CallGraphIndex methodIndex, ArrayList<String> changeInfos, TestClassIndex testClasses, HashSet<String> testMethods) {
+        return selectTests(grain, classIndex, methodIndex, changeInfos, testClasses, testMethods, null);
+    }
+
+    /**
+     * 带预算的测试选择，所有测试都已到达或超出预算时直接选择所有测试
      *
      * @param grain          粒度
-     * @param dotGraphClass  class粒度的dotGraph
-     * @param dotGraphMethod method粒度的dotGraph
+     * @param classIndex     class粒度的反向调用图
+     * @param methodIndex    method粒度的反向调用图
      * @param changeInfos    变更信息
-     * @param path           target文件夹路径
+     * @param testClasses    测试类 -> 测试方法
      * @param testMethods    所有测试方法的集合
+     * @param budget         预算，为null时不限制
+     * @return 被选择的测试方法
      */
-    private static void makeTestSelection(String grain, ArrayList<String> dotGraphClass, ArrayList<String> dotGraphMethod, ArrayList<String> changeInfos, String path, HashSet<String> testMethods) {
+    public static HashSet<String> selectTests(String grain, CallGraphIndex classIndex, CallGraphIndex methodIndex, ArrayList<String> changeInfos, TestClassIndex testClasses, HashSet<String> testMethods, SelectionBudget budget) {
         //以类为粒度的选择
         if ("class".equals(grain)) {
-            makeTestSelectionByClass(dotGraphClass, dotGraphMethod, changeInfos, path, testMethods);
+            return makeTestSelectionByClass(classIndex, changeInfos, testClasses, budget);
         }
         //以方法为粒度的选择
         else {
-            makeTestSelectionByMethod(dotGraphMethod, changeInfos, testMethods);
+            return makeTestSelectionByMethod(methodIndex, changeInfos, testMethods, budget);
         }
     }
 
+    /**
+     * 测试选择，使用预先计算的可达性索引代替闭包计算
+     *
+     * @param grain          粒度
+     * @param reachability   对应粒度的可达性索引
+     * @param changeInfos    变更信息
+     * @param testClasses    测试类 -> 测试方法
+     * @param testMethods    所有测试方法的集合
+     * @return 被选择的测试方法
+     */
+    public static HashSet<String> selectTests(String grain, ReachabilityIndex reachability, List<String> changeInfos, TestClassIndex testClasses, HashSet<String> testMethods) {
+        HashSet<String> closure = reachability.query(DotUtil.closureSeeds(changeInfos, grain));
+        return selectFromClosure(grain, closure, testClasses, testMethods);
+    }
+
     /**
      * 类粒度
      * 测试选择
      *
-     * @param dotGraphClass  class粒度的dotGraph
-     * @param dotGraphMethod method粒度的dotGraph
+     * @param classIndex     class粒度的反向调用图
      * @param changeInfos    变更信息
-     * @param path           target文件夹路径
-     * @param testMethods    所有测试方法的集合
+     * @param testClasses    测试类 -> 测试方法
+     * @param budget         预算，为null时不限制
+     * @return 被选择的测试方法
      */
-    private static void makeTestSelectionByClass(ArrayList<String> dotGraphClass, ArrayList<String> dotGraphMethod, ArrayList<String> changeInfos, String path, HashSet<String> testMethods) {
-        //获取所有测试类的名称
-        ArrayList<String> testFileNames = FileUtil.getTestFileNames(path);
+    private static HashSet<String> makeTestSelectionByClass(CallGraphIndex classIndex, ArrayList<String> changeInfos, TestClassIndex testClasses, SelectionBudget budget) {
         //在以类为粒度的图上计算变更类的闭包
-        HashSet<String> classClosure = DotUtil.findClosure(dotGraphClass, changeInfos, "class");
-        //最终被选择的类应该是上面两者的交集
-        HashSet<String> resultClass = new HashSet<>();
-        //这里的testFileNames只是测试文件名 不含包名，而classClosure是包含包名的
-        for (String s : classClosure) {
-            for (String t : testFileNames) {
-                if (s.contains(t)) {
-                    resultClass.add(s);
-                }
-            }
+        HashSet<String> classClosure;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("closure")) {
+            classClosure = budget == null ? DotUtil.findClosure(classIndex, changeInfos, "class")
+                    : DotUtil.findClosure(classIndex, changeInfos, "class", testClasses.classNames(), budget);
         }
-
-        // 存储最终结果
-        HashSet<String> result = new HashSet<>();
-        // 遍历整张类粒度的dotGraph
-        for (String line : dotGraphMethod) {
-            // 被调用者的类名
-            String calledNode = line.split(" -> ")[0];
-            String calledNodeClass = calledNode.split(" ")[0];
-            // 调用者的类名
-            String callNode = line.split(" -> ")[1];
-            String callNodeClass = callNode.split(" ")[0];
-            //如果一个node的类名属于测试类又属于受影响的类，且这个node的方法是测试方法，那么其就要被添加到结果中去
-            if (resultClass.contains(calledNodeClass) && testMethods.contains(calledNode)) {
-                result.add(calledNode);
-            }
-            if (resultClass.contains(callNodeClass) && testMethods.contains(callNode)) {
-                result.add(callNode);
-            }
+        if (classClosure == null) {
+            return selectAll(budget, testClasses.select(testClasses.classNames()));
         }
-        try {
-            FileUtil.resultToFile(result, "class");
-        } catch (IOException e) {
-            e.printStackTrace();
+        PhaseMetrics.count("closureSize", classClosure.size());
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("select")) {
+            return selectFromClosure("class", classClosure, testClasses, null);
         }
     }
 
@@ -197,24 +414,71 @@ public class Analyzer {
      * 方法粒度
      * 测试选择
      *
-     * @param dotGraphMethod method粒度的dotGraph
+     * @param methodIndex    method粒度的反向调用图
      * @param changeInfos    变更信息
      * @param testMethods    所有测试方法的集合
+     * @param budget         预算，为null时不限制
+     * @return 被选择的测试方法
      */
-    private static void makeTestSelectionByMethod(ArrayList<String> dotGraphMethod, ArrayList<String> changeInfos, HashSet<String> testMethods) {
-        HashSet<String> result = new HashSet<>();
+    private static HashSet<String> makeTestSelectionByMethod(CallGraphIndex methodIndex, ArrayList<String> changeInfos, HashSet<String> testMethods, SelectionBudget budget) {
         //在以方法为粒度的图上计算变更方法的闭包
-        HashSet<String> closure = DotUtil.findClosure(dotGraphMethod, changeInfos, "method");
-        //只筛选出那些测试方法
-        for (String c : closure) {
-            if (testMethods.contains(c)) {
-                result.add(c);
+        HashSet<String> closure;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("closure")) {
+            closure = budget == null ? DotUtil.findClosure(methodIndex, changeInfos, "method")
+                    : DotUtil.findClosure(methodIndex, changeInfos, "method", testMethods, budget);
+        }
+        if (closure == null) {
+            //与闭包中的测试方法一致，只有图中的测试方法才会被选择
+            HashSet<String> all = new HashSet<>();
+            for (String testMethod : testMethods) {
+                if (methodIndex.id(testMethod) >= 0) {
+                    all.add(testMethod);
+                }
             }
+            return selectAll(budget, all);
         }
-        try {
-            FileUtil.resultToFile(result, "method");
-        } catch (IOException e) {
-            e.printStackTrace();
+        PhaseMetrics.count("closureSize", closure.size());
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("select")) {
+            return selectFromClosure("method", closure, null, testMethods);
+        }
+    }
+
+    /**
+     * 闭包计算提前停止时选择所有测试，并记录停止的原因
+     *
+     * @param budget 记录了停止原因的预算
+     * @param all    所有测试方法
+     * @return 所有测试方法
+     */
+    private static HashSet<String> selectAll(SelectionBudget budget, HashSet<String> all) {
+        PhaseMetrics.attribute("selectionStop", budget.stopReason());
+        System.out.println("closure stopped early (" + budget.stopReason() + "), selecting all " + all.size() + " tests");
+        return all;
+    }
+
+    /**
+     * 根据已经算好的闭包完成测试选择
+     *
+     * @param grain          粒度
+     * @param closure        闭包，class粒度下为类名，method粒度下为方法
+     * @param testClasses    测试类 -> 测试方法，method粒度下不需要
+     * @param testMethods    所有测试方法的集合，class粒度下不需要
+     * @return 被选择的测试方法
+     */
+    public static HashSet<String> selectFromClosure(String grain, HashSet<String> closure, TestClassIndex testClasses, HashSet<String> testMethods) {
+        // 存储最终结果
+        HashSet<String> result = new HashSet<>();
+        if ("class".equals(grain)) {
+            //闭包中每个测试类的测试方法，按完整类名查表
+            result.addAll(testClasses.select(closure));
+        } else {
+            //只筛选出那些测试方法
+            for (String c : closure) {
+                if (testMethods.contains(c)) {
+                    result.add(c);
+                }
+            }
         }
+        return result;
     }
 }
@@ -0,0 +1,239 @@
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * 命令行参数
+ * 格式为 -c|-m target文件夹路径 change_info文件 [选项...]
+ * 常驻服务模式 -server [端口] 由SelectionServer单独处理
+ *
+ * @author csh
+ */
+public class AnalyzerOptions {
+
+    /**
+     * 粒度 分为class和method
+     */
+    public String grain;
+    /**
+     * target文件夹路径
+     */
+    public String targetPath;
+    /**
+     * change_info文件路径
+     */
+    public String changeInfoPath;
+    /**
+     * -legacy：使用旧的字符串解析方式提取调用关系，仅用于调试
+     */
+    public boolean legacy = false;
+    /**
+     * -cache 文件：调用关系缓存文件，为null时不使用缓存
+     */
+    public String cachePath;
+    /**
+     * -incremental：缓存未命中时，在缓存的基础上只重新分析变更的类，需要同时指定-cache；
+     * 只支持cha精度与all进入点，未指定-analysis时精度默认为cha，指定其他精度或进入点时报错；
+     * 只有方法体发生变化时才能增量更新，其他情况仍完整重建
+     */
+    public boolean incremental = false;
+    /**
+     * -verify：增量更新后再做一次完整重建并比较结果，不一致时以完整重建为准
+     */
+    public boolean verify = false;
+    /**
+     * -batch：change_info参数是一个变更集文件夹（或每行一个变更集路径的列表文件），共享一张调用图并行完成所有选择
+     */
+    public boolean batch = false;
+    /**
+     * -out 文件夹：批量模式下结果的输出文件夹
+     */
+    public String outputPath = ".";
+    /**
+     * -index：预先计算每个节点能到达的测试，之后每次选择只做位图的并集，适合一张图上的大量查询
+     */
+    public boolean index = false;
+    /**
+     * -metrics 文件：记录各阶段的耗时与内存，以JSON格式写入该文件，为null时不记录
+     */
+    public String metricsPath;
+    /**
+     * -dot 文件夹：把两种粒度的调用图以.dot格式写入该文件夹
+     */
+    public String dotPath;
+    /**
+     * -edges 文件夹：把两种粒度的调用图以二进制边表格式写入该文件夹，可由GraphExporter读取或转换为.dot
+     */
+    public String edgesPath;
+    /**
+     * -analysis cha|rta|0cfa：调用图的精度，默认为0cfa，使用-incremental时默认为cha
+     */
+    public String analysis = CallGraphFactory.ZERO_CFA;
+    /**
+     * -compare：依次用每种精度完成选择，报告各自的构建耗时、边数与选中的测试数，以0cfa的结果为基准计算召回率
+     */
+    public boolean compare = false;
+    /**
+     * -entry all|tests：调用图的进入点，all为所有应用方法，tests只包括测试类中带测试相关注解的方法，默认为all
+     */
+    public String entry = TestEntrypoints.ALL;
+    /**
+     * -lowmem：低内存模式，节点名称保存在去重的字符串池中，边只保留CSR形式，适合非常大的项目
+     */
+    public boolean lowMemory = false;
+    /**
+     * -prioritize：按与变更之间的距离对选择结果排序后再写入文件
+     */
+    public boolean prioritize = false;
+    /**
+     * -baseline 文件夹：变更前的target文件夹，比较字节码后把方法粒度的变更信息写入change_info文件再做选择
+     */
+    public String baselinePath;
+    /**
+     * -shards N：另外把排序后的选择结果分成N份，写入 ./selection-粒度-分片序号.txt，序号从1开始
+     */
+    public int shards = 0;
+    /**
+     * -durations 文件：各测试方法的历史耗时，用于均衡分片，为null时每个测试算作相同的耗时
+     */
+    public String durationsPath;
+    /**
+     * -reactor：多模块模式，target参数为包含各模块的根文件夹或每行一个target文件夹的列表文件，
+     * 所有模块共享同一张调用图，结果按模块写入-out文件夹
+     */
+    public boolean reactor = false;
+    /**
+     * -libs 路径：多模块模式下依赖的jar，可以是文件夹或用路径分隔符隔开的多个jar与文件夹，为null时不加载依赖
+     */
+    public String librariesPath;
+    /**
+     * -jdkcache 文件夹：Java原生类快照所在的文件夹，快照不存在时自动生成，为null时不使用快照
+     */
+    public String primordialCachePath;
+    /**
+     * -coverage 文件：CoverageAgent记录的覆盖信息，有记录的测试按实际执行过的方法选择，为null时只使用静态调用图
+     */
+    public String coveragePath;
+    /**
+     * -budget time=毫秒,nodes=节点数,fraction=比例：闭包计算的预算，所有测试都已到达或超出预算时直接选择所有测试，
+     * 停止的原因写入选择结果旁的 selection-粒度.stop；为null时不限制；使用可达性索引或批量模式时不生效
+     */
+    public SelectionBudget budget;
+
+    /**
+     * 解析命令行参数
+     *
+     * @param args 命令行参数
+     * @return 解析结果
+     */
+    public static AnalyzerOptions parse(String[] args) {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("usage: Analyzer -c|-m <target> <change_info> [options]"
+                    + " (-incremental requires -cache and only supports -analysis cha, the default with -incremental)");
+        }
+        AnalyzerOptions options = new AnalyzerOptions();
+        //粒度
+        if ("-c".equals(args[0])) {
+            options.grain = "class";
+        } else {
+            options.grain = "method";
+        }
+        options.targetPath = args[1];
+        options.changeInfoPath = args[2];
+        boolean analysisGiven = false;
+        for (int i = 3; i < args.length; i++) {
+            if ("-legacy".equals(args[i])) {
+                options.legacy = true;
+            } else if ("-cache".equals(args[i])) {
+                options.cachePath = value(args, ++i);
+            } else if ("-incremental".equals(args[i])) {
+                options.incremental = true;
+            } else if ("-verify".equals(args[i])) {
+                options.verify = true;
+            } else if ("-batch".equals(args[i])) {
+                options.batch = true;
+            } else if ("-out".equals(args[i])) {
+                options.outputPath = value(args, ++i);
+            } else if ("-index".equals(args[i])) {
+                options.index = true;
+            } else if ("-metrics".equals(args[i])) {
+                options.metricsPath = value(args, ++i);
+            } else if ("-dot".equals(args[i])) {
+                options.dotPath = value(args, ++i);
+            } else if ("-edges".equals(args[i])) {
+                options.edgesPath = value(args, ++i);
+            } else if ("-analysis".equals(args[i])) {
+                options.analysis = value(args, ++i);
+                analysisGiven = true;
+                if (!Arrays.asList(CallGraphFactory.ANALYSES).contains(options.analysis)) {
+                    throw new IllegalArgumentException("unknown analysis: " + options.analysis);
+                }
+            } else if ("-compare".equals(args[i])) {
+                options.compare = true;
+            } else if ("-baseline".equals(args[i])) {
+                options.baselinePath = value(args, ++i);
+            } else if ("-prioritize".equals(args[i])) {
+                options.prioritize = true;
+            } else if ("-shards".equals(args[i])) {
+                options.shards = Integer.parseInt(value(args, ++i));
+                if (options.shards < 1) {
+                    throw new IllegalArgumentException("shards must be positive: " + options.shards);
+                }
+            } else if ("-durations".equals(args[i])) {
+                options.durationsPath = value(args, ++i);
+            } else if ("-lowmem".equals(args[i])) {
+                options.lowMemory = true;
+            } else if ("-reactor".equals(args[i])) {
+                options.reactor = true;
+            } else if ("-libs".equals(args[i])) {
+                options.librariesPath = value(args, ++i);
+            } else if ("-jdkcache".equals(args[i])) {
+                options.primordialCachePath = value(args, ++i);
+            } else if ("-coverage".equals(args[i])) {
+                options.coveragePath = value(args, ++i);
+            } else if ("-budget".equals(args[i])) {
+                options.budget = SelectionBudget.parse(value(args, ++i));
+            } else if ("-entry".equals(args[i])) {
+                options.entry = value(args, ++i);
+                if (!TestEntrypoints.ALL.equals(options.entry) && !TestEntrypoints.TESTS.equals(options.entry)) {
+                    throw new IllegalArgumentException("unknown entry: " + options.entry);
+                }
+            } else {
+                throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+        if (options.incremental) {
+            //其他精度或进入点下增量更新总是退回完整重建，不能悄悄地付出额外的代价
+            if (!analysisGiven) {
+                options.analysis = CallGraphFactory.CHA;
+            }
+            if (!CallGraphFactory.CHA.equals(options.analysis) || !TestEntrypoints.ALL.equals(options.entry)) {
+                throw new IllegalArgumentException("-incremental only supports -analysis " + CallGraphFactory.CHA + " with -entry " + TestEntrypoints.ALL);
+            }
+            if (options.cachePath == null) {
+                throw new IllegalArgumentException("-incremental needs -cache <file>");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * @return Java原生类快照所在的文件夹，未指定-jdkcache时为null
+     */
+    public File primordialCache() {
+        return primordialCachePath == null ? null : new File(primordialCachePath);
+    }
+
+    /**
+     * 读取选项的值
+     *
+     * @param args 命令行参数
+     * @param i    值所在的位置
+     * @return 选项的值
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("missing value for option: " + args[i - 1]);
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 批量测试选择：多个变更集共享同一张调用图
+ * 每个变更集的所有起点一起做一次多源遍历；给定可达性索引时，每个节点可达的测试已经预先计算，变更集之间重叠的部分不再重复遍历
+ *
+ * @author csh
+ */
+public class BatchSelector {
+
+    private final String grain;
+    private final CallGraphIndex classIndex;
+    private final CallGraphIndex methodIndex;
+    private final TestClassIndex testClasses;
+    private final HashSet<String> testMethods;
+    /**
+     * 可达性索引，为null时对每个变更集遍历一次调用图
+     */
+    private final ReachabilityIndex reachability;
+
+    public BatchSelector(String grain, CallGraphIndex classIndex, CallGraphIndex methodIndex, TestClassIndex testClasses, HashSet<String> testMethods) {
+        this(grain, classIndex, methodIndex, testClasses, testMethods, null);
+    }
+
+    public BatchSelector(String grain, CallGraphIndex classIndex, CallGraphIndex methodIndex, TestClassIndex testClasses, HashSet<String> testMethods, ReachabilityIndex reachability) {
+        this.grain = grain;
+        this.classIndex = classIndex;
+        this.methodIndex = methodIndex;
+        this.testClasses = testClasses;
+        this.testMethods = testMethods;
+        this.reachability = reachability;
+    }
+
+    /**
+     * 对每个变更集并行完成测试选择，结果写入 outputDirectory/selection-粒度-序号-变更集文件名，
+     * 序号是变更集在列表中的位置，从0开始，不同文件夹中的同名变更集不会互相覆盖
+     *
+     * @param changeFiles     所有变更集文件
+     * @param outputDirectory 输出文件夹
+     */
+    public void run(List<File> changeFiles, File outputDirectory) {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new UncheckedIOException(new IOException("cannot create " + outputDirectory));
+        }
+        IntStream.range(0, changeFiles.size()).parallel().forEach(i -> {
+            File changeFile = changeFiles.get(i);
+            try {
+                HashSet<String> result = select(readLines(changeFile));
+                FileUtil.resultToFile(result, new File(outputDirectory, "selection-" + grain + "-" + i + "-" + changeFile.getName()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * 对一个变更集完成测试选择
+     *
+     * @param changeInfos 变更信息
+     * @return 被选择的测试方法
+     */
+    public HashSet<String> select(List<String> changeInfos) {
+        if (reachability != null) {
+            return Analyzer.selectTests(grain, reachability, changeInfos, testClasses, testMethods);
+        }
+        CallGraphIndex index = "class".equals(grain) ? classIndex : methodIndex;
+        ArrayList<Integer> seeds = new ArrayList<>();
+        for (String seed : DotUtil.closureSeeds(changeInfos, grain)) {
+            int id = index.id(seed);
+            if (id >= 0) {
+                seeds.add(id);
+            }
+        }
+        BitSet visited = index.reach(seeds);
+        HashSet<String> closure = new HashSet<>();
+        for (int i = visited.nextSetBit(0); i >= 0; i = visited.nextSetBit(i + 1)) {
+            closure.add(index.name(i));
+        }
+        return Analyzer.selectFromClosure(grain, closure, testClasses, testMethods);
+    }
+
+    /**
+     * 获取所有变更集文件
+     *
+     * @param path 文件夹时取其中所有的文件；否则每一行是一个变更集文件的路径
+     * @return 变更集文件
+     * @throws IOException
+     */
+    public static ArrayList<File> listChangeFiles(String path) throws IOException {
+        File file = new File(path);
+        ArrayList<File> result = new ArrayList<>();
+        if (file.isDirectory()) {
+            File[] files = file.listFiles(File::isFile);
+            if (files != null) {
+                Collections.addAll(result, files);
+            }
+            Collections.sort(result);
+        } else {
+            for (String line : readLines(file)) {
+                if (!line.trim().isEmpty()) {
+                    result.add(new File(line.trim()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param file 文件
+     * @return 文件的所有行
+     * @throws IOException
+     */
+    static ArrayList<String> readLines(File file) throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader bf = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = bf.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
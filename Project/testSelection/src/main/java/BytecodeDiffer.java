@@ -0,0 +1,382 @@
+import com.ibm.wala.shrikeBT.Decoder;
+import com.ibm.wala.shrikeBT.ExceptionHandler;
+import com.ibm.wala.shrikeBT.IInstruction;
+import com.ibm.wala.shrikeBT.InvokeDynamicInstruction;
+import com.ibm.wala.shrikeBT.shrikeCT.CTDecoder;
+import com.ibm.wala.shrikeCT.AnnotationsReader;
+import com.ibm.wala.shrikeCT.BootstrapMethodsReader;
+import com.ibm.wala.shrikeCT.ClassConstants;
+import com.ibm.wala.shrikeCT.ClassReader;
+import com.ibm.wala.shrikeCT.CodeReader;
+import com.ibm.wala.shrikeCT.ConstantPoolParser;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * 比较两个target文件夹中的字节码，生成方法粒度的变更信息
+ * 每个方法的哈希由访问标志、运行时可见的注解、解码后的指令与异常处理表计算：指令中的常量池引用（包括invokedynamic引导方法的参数）
+ * 被还原为类名、方法名等符号，跳转目标是指令序号而不是字节偏移，行号表等调试信息不参与计算，
+ * 因此只改动空白、注释或其他方法时，该方法的哈希保持不变。
+ * <p>
+ * 以下方法被认为发生了变更：新增或哈希变化的方法；新增的类、父类或接口发生变化的类及其所有子类中的所有方法，
+ * 以及这些类从target中的父类型继承的方法（通过该类调用时派发的目标可能改变）；
+ * 删除了一个方法时，原先的调用会被分派到父类中的同名方法，因此父类链上第一个声明了该方法的类中的方法也算作变更。
+ * jar不参与比较。
+ * <p>
+ * 也可单独运行：BytecodeDiffer 旧的target文件夹 新的target文件夹 输出的change_info文件
+ *
+ * @author csh
+ */
+public class BytecodeDiffer {
+
+    private static final String RUNTIME_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("usage: BytecodeDiffer <baseline target> <current target> <change_info>");
+        }
+        FileUtil.resultToFile(diff(args[0], args[1]), new File(args[2]));
+    }
+
+    /**
+     * 比较两个target文件夹
+     *
+     * @param baselinePath 变更前的target文件夹
+     * @param currentPath  变更后的target文件夹
+     * @return 变更信息，格式与change_info文件一致，如"Lnet/mooctest/CMD net.mooctest.CMD.run()V"，按名称排序
+     * @throws IOException
+     */
+    public static ArrayList<String> diff(String baselinePath, String currentPath) throws IOException {
+        HashMap<String, ClassSummary> baseline = summarize(baselinePath);
+        HashMap<String, ClassSummary> current = summarize(currentPath);
+        HashSet<String> moved = new HashSet<>();
+        for (ClassSummary summary : current.values()) {
+            ClassSummary previous = baseline.get(summary.name);
+            if (previous != null && !previous.hierarchy.equals(summary.hierarchy)) {
+                moved.add(summary.name);
+            }
+        }
+        TreeSet<String> changes = new TreeSet<>();
+        for (ClassSummary summary : current.values()) {
+            ClassSummary previous = baseline.get(summary.name);
+            boolean inherited = extendsAny(summary.name, moved, current, new HashSet<>());
+            boolean all = previous == null || inherited;
+            for (Map.Entry<String, String> method : summary.methods.entrySet()) {
+                if (all || !method.getValue().equals(previous.methods.get(method.getKey()))) {
+                    changes.add(changeInfo(summary.name, method.getKey()));
+                }
+            }
+            if (previous == null) {
+                continue;
+            }
+            if (inherited) {
+                // 通过该类调用的继承方法可能被分派到新的父类型中的方法
+                TreeSet<String> selectors = new TreeSet<>();
+                addInheritedSelectors(summary.name, baseline, selectors, new HashSet<>());
+                addInheritedSelectors(summary.name, current, selectors, new HashSet<>());
+                for (String selector : selectors) {
+                    if (!summary.methods.containsKey(selector)) {
+                        changes.add(changeInfo(summary.name, selector));
+                    }
+                }
+            }
+            for (String selector : previous.methods.keySet()) {
+                if (summary.methods.containsKey(selector)) {
+                    continue;
+                }
+                // 被删除的方法：调用会落到父类链上第一个声明了同名方法的类
+                for (ClassSummary parent = current.get(summary.superName); parent != null; parent = current.get(parent.superName)) {
+                    if (parent.methods.containsKey(selector)) {
+                        changes.add(changeInfo(parent.name, selector));
+                        break;
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(changes);
+    }
+
+    /**
+     * @param name    类名
+     * @param targets 父类或接口发生了变化的类
+     * @param classes 类名 -> 摘要
+     * @param visited 已经检查过的类
+     * @return 该类本身或它在target中的某个父类型是否属于targets
+     */
+    private static boolean extendsAny(String name, Set<String> targets, HashMap<String, ClassSummary> classes, Set<String> visited) {
+        if (!visited.add(name)) {
+            return false;
+        }
+        if (targets.contains(name)) {
+            return true;
+        }
+        ClassSummary summary = classes.get(name);
+        if (summary == null) {
+            return false;
+        }
+        if (summary.superName != null && extendsAny(summary.superName, targets, classes, visited)) {
+            return true;
+        }
+        for (String parent : summary.interfaces) {
+            if (extendsAny(parent, targets, classes, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 收集一个类从target中的父类与接口继承的方法，构造方法与静态初始化方法不会被继承
+     *
+     * @param name      类名
+     * @param classes   类名 -> 摘要
+     * @param selectors 用于记录方法名与描述符
+     * @param visited   已经访问过的类
+     */
+    private static void addInheritedSelectors(String name, HashMap<String, ClassSummary> classes, Set<String> selectors, Set<String> visited) {
+        ClassSummary summary = classes.get(name);
+        if (summary == null || !visited.add(name)) {
+            return;
+        }
+        ArrayList<String> parents = new ArrayList<>(Arrays.asList(summary.interfaces));
+        if (summary.superName != null) {
+            parents.add(summary.superName);
+        }
+        for (String parent : parents) {
+            ClassSummary parentSummary = classes.get(parent);
+            if (parentSummary == null) {
+                continue;
+            }
+            for (String selector : parentSummary.methods.keySet()) {
+                if (!selector.startsWith("<")) {
+                    selectors.add(selector);
+                }
+            }
+            addInheritedSelectors(parent, classes, selectors, visited);
+        }
+    }
+
+    /**
+     * 并行计算一个target文件夹中所有类的摘要
+     *
+     * @param path target文件夹
+     * @return 类名 -> 摘要
+     * @throws IOException
+     */
+    private static HashMap<String, ClassSummary> summarize(String path) throws IOException {
+        ArrayList<File> classFiles = new ArrayList<>();
+        for (File file : ClassInventory.scan(path).getClassFiles()) {
+            if (ClassInventory.isClassFile(file.toPath())) {
+                classFiles.add(file);
+            }
+        }
+        try {
+            return classFiles.parallelStream().map(file -> {
+                try {
+                    return summarize(Files.readAllBytes(file.toPath()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InvalidClassFileException e) {
+                    throw new UncheckedIOException(new IOException("invalid class file: " + file, e));
+                }
+            }).collect(Collectors.toMap(summary -> summary.name, summary -> summary, (a, b) -> a, HashMap::new));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 计算一个类的摘要
+     *
+     * @param bytes .class文件的内容
+     * @return 摘要
+     * @throws InvalidClassFileException
+     */
+    static ClassSummary summarize(byte[] bytes) throws InvalidClassFileException {
+        ClassReader reader = new ClassReader(bytes);
+        ClassSummary summary = new ClassSummary();
+        summary.name = "L" + reader.getName();
+        summary.superName = reader.getSuperName() == null ? null : "L" + reader.getSuperName();
+        String[] interfaces = reader.getInterfaceNames();
+        summary.interfaces = new String[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            summary.interfaces[i] = "L" + interfaces[i];
+        }
+        summary.hierarchy = summary.superName + " " + Arrays.toString(summary.interfaces);
+        ClassReader.AttrIterator attributes = new ClassReader.AttrIterator();
+        for (int i = 0; i < reader.getMethodCount(); i++) {
+            StringBuilder normalized = new StringBuilder();
+            normalized.append(reader.getMethodAccessFlags(i)).append('\n');
+            reader.initMethodAttributeIterator(i, attributes);
+            for (; attributes.isValid(); attributes.advance()) {
+                String attribute = attributes.getName();
+                if ("Code".equals(attribute)) {
+                    appendCode(new CodeReader(attributes), normalized);
+                } else if (RUNTIME_ANNOTATIONS.equals(attribute)) {
+                    appendAnnotations(new AnnotationsReader(attributes, attribute), normalized);
+                }
+            }
+            summary.methods.put(reader.getMethodName(i) + reader.getMethodType(i), sha1(normalized.toString()));
+        }
+        return summary;
+    }
+
+    /**
+     * 把方法体解码为与常量池布局无关的文本
+     *
+     * @param code       Code属性
+     * @param normalized 用于输出
+     * @throws InvalidClassFileException
+     */
+    private static void appendCode(CodeReader code, StringBuilder normalized) throws InvalidClassFileException {
+        CTDecoder decoder = new CTDecoder(code);
+        try {
+            decoder.decode();
+        } catch (Decoder.InvalidBytecodeException e) {
+            // 无法解码时退回到原始字节，只是对常量池的变化更敏感
+            normalized.append(Arrays.toString(code.getBytecode()));
+            return;
+        }
+        IInstruction[] instructions = decoder.getInstructions();
+        ExceptionHandler[][] handlers = decoder.getHandlers();
+        for (int i = 0; i < instructions.length; i++) {
+            if (instructions[i] instanceof InvokeDynamicInstruction) {
+                appendInvokeDynamic((InvokeDynamicInstruction) instructions[i], normalized);
+            } else {
+                normalized.append(instructions[i]);
+            }
+            for (ExceptionHandler handler : handlers[i]) {
+                normalized.append(" catch ").append(handler.getCatchClass()).append(" -> ").append(handler.getHandler());
+            }
+            normalized.append('\n');
+        }
+    }
+
+    /**
+     * invokedynamic指令的toString不含引导方法的参数，而lambda与方法引用的目标方法就在参数中，
+     * 因此逐个还原引导方法的参数
+     *
+     * @param instruction invokedynamic指令
+     * @param normalized  用于输出
+     * @throws InvalidClassFileException
+     */
+    private static void appendInvokeDynamic(InvokeDynamicInstruction instruction, StringBuilder normalized) throws InvalidClassFileException {
+        BootstrapMethodsReader.BootstrapMethod bootstrap = instruction.getBootstrap();
+        normalized.append("InvokeDynamic ").append(bootstrap.methodClass()).append('.').append(bootstrap.methodName())
+                .append(bootstrap.methodType()).append(' ').append(instruction.getMethodName()).append(instruction.getMethodSignature());
+        ConstantPoolParser cp = bootstrap.getCP();
+        for (int k = 0; k < bootstrap.callArgumentCount(); k++) {
+            int index = bootstrap.callArgumentIndex(k);
+            normalized.append(' ');
+            switch (cp.getItemType(index)) {
+                case ClassConstants.CONSTANT_MethodHandle:
+                    normalized.append(cp.getCPHandleKind(index)).append(':').append(cp.getCPHandleClass(index))
+                            .append('.').append(cp.getCPHandleName(index)).append(cp.getCPHandleType(index));
+                    break;
+                case ClassConstants.CONSTANT_MethodType:
+                    normalized.append(cp.getCPMethodType(index));
+                    break;
+                case ClassConstants.CONSTANT_Class:
+                    normalized.append(cp.getCPClass(index));
+                    break;
+                case ClassConstants.CONSTANT_String:
+                    normalized.append('"').append(cp.getCPString(index)).append('"');
+                    break;
+                case ClassConstants.CONSTANT_Integer:
+                    normalized.append(cp.getCPInt(index));
+                    break;
+                case ClassConstants.CONSTANT_Float:
+                    normalized.append(cp.getCPFloat(index)).append('F');
+                    break;
+                case ClassConstants.CONSTANT_Long:
+                    normalized.append(cp.getCPLong(index)).append('L');
+                    break;
+                case ClassConstants.CONSTANT_Double:
+                    normalized.append(cp.getCPDouble(index)).append('D');
+                    break;
+                default:
+                    // 其他常量只能按常量池下标区分，只是对常量池的变化更敏感
+                    normalized.append('#').append(index);
+            }
+        }
+    }
+
+    /**
+     * 方法上运行时可见的注解决定了它是否是测试方法或生命周期方法（如@Test、@Before），也参与哈希
+     *
+     * @param annotations RuntimeVisibleAnnotations属性
+     * @param normalized  用于输出
+     * @throws InvalidClassFileException
+     */
+    private static void appendAnnotations(AnnotationsReader annotations, StringBuilder normalized) throws InvalidClassFileException {
+        for (AnnotationsReader.AnnotationAttribute annotation : annotations.getAllAnnotations()) {
+            normalized.append('@').append(annotation.type).append(new TreeMap<>(annotation.elementValues)).append('\n');
+        }
+    }
+
+    /**
+     * @param className 类名，如"Lnet/mooctest/CMD"
+     * @param selector  方法名与描述符，如"run()V"
+     * @return 变更信息，如"Lnet/mooctest/CMD net.mooctest.CMD.run()V"
+     */
+    private static String changeInfo(String className, String selector) {
+        return DotUtil.methodNode(className + ", " + selector);
+    }
+
+    private static String sha1(String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(text.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 一个类的摘要
+     */
+    static class ClassSummary {
+        /**
+         * 类名，如"Lnet/mooctest/CMD"
+         */
+        String name;
+        /**
+         * 父类名，没有父类时为null
+         */
+        String superName;
+        /**
+         * 接口名，如"Ljava/lang/Runnable"
+         */
+        String[] interfaces;
+        /**
+         * 父类与接口
+         */
+        String hierarchy;
+        /**
+         * 方法名与描述符 -> 方法的哈希
+         */
+        final LinkedHashMap<String, String> methods = new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,328 @@
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Language;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.ipa.callgraph.AnalysisCacheImpl;
+import com.ibm.wala.ipa.callgraph.AnalysisOptions;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.CallGraphBuilderCancelException;
+import com.ibm.wala.ipa.callgraph.Entrypoint;
+import com.ibm.wala.ipa.callgraph.impl.AllApplicationEntrypoints;
+import com.ibm.wala.ipa.callgraph.cha.CHACallGraph;
+import com.ibm.wala.ipa.callgraph.impl.Util;
+import com.ibm.wala.ipa.callgraph.propagation.SSAPropagationCallGraphBuilder;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.config.AnalysisScopeReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.jar.JarFile;
+
+/**
+ * 构建WALA分析范围、类层次关系与调用图的方法类
+ *
+ * @author csh
+ */
+public class CallGraphFactory {
+
+    /**
+     * 类层次分析：调用点的目标为声明类型所有子类中的实现，不需要指针分析，最快但最不精确
+     */
+    public static final String CHA = "cha";
+    /**
+     * 快速类型分析：只考虑已经被实例化过的类，精度与开销介于CHA与0-CFA之间
+     */
+    public static final String RTA = "rta";
+    /**
+     * 上下文无关的指针分析，默认的精度
+     */
+    public static final String ZERO_CFA = "0cfa";
+    /**
+     * 所有精度，从快到慢
+     */
+    public static final String[] ANALYSES = {CHA, RTA, ZERO_CFA};
+
+    /**
+     * 以所有应用方法为进入点，利用0-CFA算法构建调用图
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @return 调用图
+     * @throws IOException
+     * @throws InvalidClassFileException
+     * @throws ClassHierarchyException
+     * @throws CancelException
+     */
+    public static CallGraph makeCallGraph(ArrayList<File> classFiles) throws IOException, InvalidClassFileException, ClassHierarchyException, CancelException {
+        return makeCallGraph(classFiles, ZERO_CFA);
+    }
+
+    /**
+     * 以所有应用方法为进入点，按指定的精度构建调用图
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @param analysis   调用图的精度，cha、rta或0cfa
+     * @return 调用图
+     * @throws IOException
+     * @throws InvalidClassFileException
+     * @throws ClassHierarchyException
+     * @throws CancelException
+     */
+    public static CallGraph makeCallGraph(ArrayList<File> classFiles, String analysis) throws IOException, InvalidClassFileException, ClassHierarchyException, CancelException {
+        return makeCallGraph(classFiles, analysis, null);
+    }
+
+    /**
+     * 按指定的精度与进入点构建调用图
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @param analysis   调用图的精度，cha、rta或0cfa
+     * @param roots      进入点的节点名称（见TestEntrypoints），为null时以所有应用方法为进入点
+     * @return 调用图
+     * @throws IOException
+     * @throws InvalidClassFileException
+     * @throws ClassHierarchyException
+     * @throws CancelException
+     */
+    public static CallGraph makeCallGraph(ArrayList<File> classFiles, String analysis, Collection<String> roots) throws IOException, InvalidClassFileException, ClassHierarchyException, CancelException {
+        return makeCallGraph(classFiles, new ArrayList<>(), analysis, roots);
+    }
+
+    /**
+     * 按指定的精度与进入点构建调用图，依赖的jar只参与类层次关系，不作为应用代码分析。
+     * 提取完调用关系后需要调用close关闭其中打开的jar
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @param libraries  依赖的jar
+     * @param analysis   调用图的精度，cha、rta或0cfa
+     * @param roots      进入点的节点名称（见TestEntrypoints），为null时以所有应用方法为进入点
+     * @return 调用图
+     * @throws IOException
+     * @throws InvalidClassFileException
+     * @throws ClassHierarchyException
+     * @throws CancelException
+     */
+    public static CallGraph makeCallGraph(ArrayList<File> classFiles, ArrayList<File> libraries, String analysis, Collection<String> roots) throws IOException, InvalidClassFileException, ClassHierarchyException, CancelException {
+        return makeCallGraph(classFiles, libraries, analysis, roots, null);
+    }
+
+    /**
+     * 按指定的精度与进入点构建调用图，Java原生类可以从快照中读取
+     *
+     * @param classFiles      所有classFile，包括生产类和测试类
+     * @param libraries       依赖的jar
+     * @param analysis        调用图的精度，cha、rta或0cfa
+     * @param roots           进入点的节点名称（见TestEntrypoints），为null时以所有应用方法为进入点
+     * @param primordialCache Java原生类快照所在的文件夹，为null时从scope.txt读取原生类
+     * @return 调用图
+     * @throws IOException
+     * @throws InvalidClassFileException
+     * @throws ClassHierarchyException
+     * @throws CancelException
+     */
+    public static CallGraph makeCallGraph(ArrayList<File> classFiles, ArrayList<File> libraries, String analysis, Collection<String> roots, File primordialCache) throws IOException, InvalidClassFileException, ClassHierarchyException, CancelException {
+        AnalysisScope scope;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("scope")) {
+            scope = makeScope(classFiles, libraries, primordialCache);
+        }
+        try {
+            ClassHierarchy cha;
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("classHierarchy")) {
+                cha = makeHierarchy(scope);
+            }
+            PhaseMetrics.count("classes", cha.getNumberOfClasses());
+            CallGraph cg;
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("callGraph")) {
+                //生成进入点
+                cg = makeCallGraph(scope, cha, entryPoints(scope, cha, roots), analysis);
+            }
+            PhaseMetrics.count("callGraphNodes", cg.getNumberOfNodes());
+            return cg;
+        } catch (ClassHierarchyException | CancelException | RuntimeException e) {
+            close(scope);
+            throw e;
+        }
+    }
+
+    /**
+     * 生成进入点
+     *
+     * @param scope 分析范围
+     * @param cha   类层次关系
+     * @param roots 进入点的节点名称，为null时以所有应用方法为进入点
+     * @return 进入点
+     */
+    public static Iterable<Entrypoint> entryPoints(AnalysisScope scope, ClassHierarchy cha, Collection<String> roots) {
+        if (roots == null) {
+            return new AllApplicationEntrypoints(scope, cha);
+        }
+        ArrayList<Entrypoint> entryPoints = TestEntrypoints.make(cha, roots);
+        PhaseMetrics.count("entryPoints", entryPoints.size());
+        return entryPoints;
+    }
+
+    /**
+     * 生成分析范围：scope.txt中的Java原生类加上所有classFile与jar
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @return 分析范围
+     * @throws IOException
+     * @throws InvalidClassFileException
+     */
+    public static AnalysisScope makeScope(ArrayList<File> classFiles) throws IOException, InvalidClassFileException {
+        return makeScope(classFiles, new ArrayList<>());
+    }
+
+    /**
+     * 生成分析范围：scope.txt中的Java原生类，依赖的jar由Extension类加载器加载，
+     * 所有classFile与target中的jar由Application类加载器加载
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @param libraries  依赖的jar
+     * @return 分析范围
+     * @throws IOException
+     * @throws InvalidClassFileException
+     */
+    public static AnalysisScope makeScope(ArrayList<File> classFiles, ArrayList<File> libraries) throws IOException, InvalidClassFileException {
+        return makeScope(classFiles, libraries, null);
+    }
+
+    /**
+     * 生成分析范围，Java原生类可以从快照中读取
+     *
+     * @param classFiles      所有classFile，包括生产类和测试类
+     * @param libraries       依赖的jar
+     * @param primordialCache Java原生类快照所在的文件夹，为null时从scope.txt读取原生类
+     * @return 分析范围
+     * @throws IOException
+     * @throws InvalidClassFileException
+     */
+    public static AnalysisScope makeScope(ArrayList<File> classFiles, ArrayList<File> libraries, File primordialCache) throws IOException, InvalidClassFileException {
+        AnalysisScope scope = makePrimordialScope(primordialCache);
+        addToScope(scope, classFiles, libraries);
+        return scope;
+    }
+
+    /**
+     * 生成只含有scope.txt中Java原生类的分析范围，指定了快照文件夹时使用快照
+     *
+     * @param primordialCache 保存快照的文件夹，快照不存在时自动生成，为null时不使用快照
+     * @return 分析范围
+     * @throws IOException
+     */
+    public static AnalysisScope makePrimordialScope(File primordialCache) throws IOException {
+        return primordialCache == null
+                ? AnalysisScopeReader.readJavaScope("scope.txt", new File("exclusion.txt"), Analyzer.class.getClassLoader())
+                : PrimordialSnapshot.makeScope(primordialCache);
+    }
+
+    /**
+     * 把依赖的jar加入Extension类加载器，所有classFile与target中的jar加入Application类加载器
+     *
+     * @param scope      分析范围
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @param libraries  依赖的jar
+     * @throws IOException
+     * @throws InvalidClassFileException
+     */
+    public static void addToScope(AnalysisScope scope, ArrayList<File> classFiles, ArrayList<File> libraries) throws IOException, InvalidClassFileException {
+        for (File f : libraries) {
+            scope.addToScope(ClassLoaderReference.Extension, new JarFile(f));
+        }
+        for (File f : classFiles) {
+            if (f.getName().endsWith(".jar")) {
+                scope.addToScope(ClassLoaderReference.Application, new JarFile(f));
+            } else {
+                scope.addClassFileToScope(ClassLoaderReference.Application, f);
+            }
+        }
+    }
+
+    /**
+     * 关闭addToScope为应用与依赖打开的jar，调用图中的方法在这之后不能再读取字节码，
+     * 需要在提取完调用关系之后调用。Java原生类的jar可能被常驻的分析范围共用，不在这里关闭
+     *
+     * @param scope 分析范围
+     * @throws IOException
+     */
+    public static void close(AnalysisScope scope) throws IOException {
+        for (ClassLoaderReference loader : new ClassLoaderReference[]{ClassLoaderReference.Extension, ClassLoaderReference.Application}) {
+            for (Module module : scope.getModules(loader)) {
+                if (module instanceof JarFileModule) {
+                    ((JarFileModule) module).getJarFile().close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 关闭构建调用图时打开的jar
+     *
+     * @param cg 调用图
+     * @throws IOException
+     */
+    public static void close(CallGraph cg) throws IOException {
+        close(cg.getClassHierarchy().getScope());
+    }
+
+    /**
+     * 生成类层次关系对象
+     *
+     * @param scope 分析范围
+     * @return 类层次关系
+     * @throws ClassHierarchyException
+     */
+    public static ClassHierarchy makeHierarchy(AnalysisScope scope) throws ClassHierarchyException {
+        return ClassHierarchyFactory.makeWithRoot(scope);
+    }
+
+    /**
+     * 从给定的进入点出发，利用0-CFA算法构建调用图
+     *
+     * @param scope       分析范围
+     * @param cha         类层次关系
+     * @param entryPoints 进入点
+     * @return 调用图
+     * @throws CallGraphBuilderCancelException
+     */
+    public static CallGraph makeCallGraph(AnalysisScope scope, ClassHierarchy cha, Iterable<Entrypoint> entryPoints) throws CallGraphBuilderCancelException {
+        AnalysisOptions option = new AnalysisOptions(scope, entryPoints);
+        SSAPropagationCallGraphBuilder builder = Util.makeZeroCFABuilder(
+                Language.JAVA, option, new AnalysisCacheImpl(), cha, scope
+        );
+        return builder.makeCallGraph(option, null);
+    }
+
+    /**
+     * 从给定的进入点出发，按指定的精度构建调用图
+     *
+     * @param scope       分析范围
+     * @param cha         类层次关系
+     * @param entryPoints 进入点
+     * @param analysis    调用图的精度，cha、rta或0cfa
+     * @return 调用图
+     * @throws CancelException
+     */
+    public static CallGraph makeCallGraph(AnalysisScope scope, ClassHierarchy cha, Iterable<Entrypoint> entryPoints, String analysis) throws CancelException {
+        if (CHA.equals(analysis)) {
+            //只展开应用中的方法，库方法中的调用关系最终也不会被提取
+            CHACallGraph cg = new CHACallGraph(cha, true);
+            cg.init(entryPoints);
+            return cg;
+        }
+        if (RTA.equals(analysis)) {
+            AnalysisOptions option = new AnalysisOptions(scope, entryPoints);
+            return Util.makeRTABuilder(option, new AnalysisCacheImpl(), cha, scope).makeCallGraph(option, null);
+        }
+        if (ZERO_CFA.equals(analysis)) {
+            return makeCallGraph(scope, cha, entryPoints);
+        }
+        throw new IllegalArgumentException("unknown analysis: " + analysis);
+    }
+}
@@ -0,0 +1,508 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 反向调用图索引，每一条边都是 被调用者 -> 调用者
+ * 节点名称被映射为从0开始的整数ID，边先以两个int数组追加保存，
+ * 第一次查询时再按被调用者整理为CSR（压缩邻接表）形式，之后的闭包只需要一次BFS
+ * <p>
+ * 低内存模式下（构造时指定）节点名称保存在StringPool中，整理为CSR后也不再保留追加用的两个数组
+ *
+ * @author csh
+ */
+public class CallGraphIndex {
+
+    /**
+     * 节点数不少于这个值时并行计算闭包，较小的图上并行的开销比收益更大
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * 节点名称 -> 节点ID，低内存模式下为null
+     */
+    private final HashMap<String, Integer> ids;
+    /**
+     * 节点ID -> 节点名称，低内存模式下为null
+     */
+    private final ArrayList<String> names;
+    /**
+     * 低内存模式下的节点名称，否则为null
+     */
+    private final StringPool pool;
+
+    /**
+     * 追加保存的边，calledEdges[i] -> callEdges[i]
+     */
+    private int[] calledEdges = new int[16];
+    private int[] callEdges = new int[16];
+    private int edgeCount = 0;
+
+    /**
+     * CSR形式的反向邻接表：节点i的所有调用者为 callers[offsets[i]] ~ callers[offsets[i + 1] - 1]
+     * 为null时表示有新的边加入，需要重新整理；整理完成后可以被多个线程同时读取
+     */
+    private volatile int[] offsets;
+    private int[] callers;
+
+    public CallGraphIndex() {
+        this(false);
+    }
+
+    /**
+     * @param lowMemory 是否使用低内存模式
+     */
+    public CallGraphIndex(boolean lowMemory) {
+        if (lowMemory) {
+            ids = null;
+            names = null;
+            pool = new StringPool();
+        } else {
+            ids = new HashMap<>();
+            names = new ArrayList<>();
+            pool = null;
+        }
+    }
+
+    /**
+     * @return 是否使用低内存模式，由这个索引派生的索引使用相同的模式
+     */
+    public boolean isLowMemory() {
+        return pool != null;
+    }
+
+    /**
+     * 根据.dot图构建索引
+     *
+     * @param dotGraph .dot图，每一行的格式是 被调用者 -> 调用者
+     * @param grain    粒度 分为class和method，class粒度下只取每个端点的类名
+     * @return 索引
+     */
+    public static CallGraphIndex fromDotGraph(List<String> dotGraph, String grain) {
+        CallGraphIndex index = new CallGraphIndex();
+        for (String line : dotGraph) {
+            int split = line.indexOf(" -> ");
+            String calledNode = line.substring(0, split);
+            String callNode = line.substring(split + 4);
+            if ("class".equals(grain)) {
+                calledNode = nodeClass(calledNode);
+                callNode = nodeClass(callNode);
+            }
+            index.addEdge(calledNode, callNode);
+        }
+        return index;
+    }
+
+    /**
+     * 获取节点所在的类名，即第一个空格之前的部分
+     *
+     * @param node 节点名称
+     * @return 类名
+     */
+    static String nodeClass(String node) {
+        int space = node.indexOf(' ');
+        return space < 0 ? node : node.substring(0, space);
+    }
+
+    /**
+     * 获取节点ID，不存在时新建
+     *
+     * @param name 节点名称
+     * @return 节点ID
+     */
+    public int intern(String name) {
+        if (pool != null) {
+            return pool.intern(name);
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * 查询节点ID
+     *
+     * @param name 节点名称
+     * @return 节点ID，不存在时返回-1
+     */
+    public int id(String name) {
+        if (pool != null) {
+            return pool.id(name);
+        }
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id 节点ID
+     * @return 节点名称
+     */
+    public String name(int id) {
+        return pool != null ? pool.get(id) : names.get(id);
+    }
+
+    /**
+     * @return 节点数量
+     */
+    public int nodeCount() {
+        return pool != null ? pool.size() : names.size();
+    }
+
+    /**
+     * @return 边的数量（去重后）
+     */
+    public int edgeCount() {
+        ensureIndexed();
+        return callers.length;
+    }
+
+    /**
+     * 添加一条边
+     *
+     * @param calledNode 被调用者
+     * @param callNode   调用者
+     */
+    public void addEdge(String calledNode, String callNode) {
+        addEdge(intern(calledNode), intern(callNode));
+    }
+
+    /**
+     * 添加一条边
+     *
+     * @param called 被调用者ID
+     * @param call   调用者ID
+     */
+    public void addEdge(int called, int call) {
+        if (calledEdges == null) {
+            restoreEdges();
+        }
+        if (edgeCount == calledEdges.length) {
+            calledEdges = Arrays.copyOf(calledEdges, edgeCount * 2);
+            callEdges = Arrays.copyOf(callEdges, edgeCount * 2);
+        }
+        calledEdges[edgeCount] = called;
+        callEdges[edgeCount] = call;
+        edgeCount++;
+        offsets = null;
+    }
+
+    /**
+     * 按被调用者对边做计数排序，生成CSR形式的反向邻接表，同时去掉重复的边
+     */
+    private void ensureIndexed() {
+        if (offsets != null) {
+            return;
+        }
+        synchronized (this) {
+            if (offsets == null) {
+                index();
+            }
+        }
+    }
+
+    private void index() {
+        int n = nodeCount();
+        int[] start = new int[n + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            start[calledEdges[i] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] fill = Arrays.copyOf(start, n);
+        int[] sorted = new int[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            sorted[fill[calledEdges[i]]++] = callEdges[i];
+        }
+        // 每个节点的调用者排序去重后紧凑存放
+        int[] newOffsets = new int[n + 1];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            Arrays.sort(sorted, start[i], start[i + 1]);
+            newOffsets[i] = size;
+            for (int j = start[i]; j < start[i + 1]; j++) {
+                if (size == newOffsets[i] || sorted[j] != sorted[size - 1]) {
+                    sorted[size++] = sorted[j];
+                }
+            }
+        }
+        newOffsets[n] = size;
+        callers = Arrays.copyOf(sorted, size);
+        if (pool != null) {
+            // 之后再加入新的边时从CSR中恢复
+            calledEdges = null;
+            callEdges = null;
+            edgeCount = 0;
+        }
+        offsets = newOffsets;
+    }
+
+    /**
+     * 低内存模式下，把已经整理为CSR的边恢复为追加形式
+     */
+    private void restoreEdges() {
+        int[] offsets = this.offsets;
+        int capacity = Math.max(16, callers.length * 2);
+        calledEdges = new int[capacity];
+        callEdges = new int[capacity];
+        for (int called = 0; called < offsets.length - 1; called++) {
+            for (int i = offsets[called]; i < offsets[called + 1]; i++) {
+                calledEdges[edgeCount] = called;
+                callEdges[edgeCount] = callers[i];
+                edgeCount++;
+            }
+        }
+    }
+
+    /**
+     * 遍历所有（去重后的）边
+     *
+     * @param consumer 对每条边的处理
+     */
+    public void forEachEdge(EdgeConsumer consumer) {
+        ensureIndexed();
+        int[] offsets = this.offsets;
+        int[] callers = this.callers;
+        for (int called = 0; called < offsets.length - 1; called++) {
+            for (int i = offsets[called]; i < offsets[called + 1]; i++) {
+                consumer.accept(called, callers[i]);
+            }
+        }
+    }
+
+    /**
+     * @param id 节点ID
+     * @return 该节点的调用者数量
+     */
+    public int callerCount(int id) {
+        ensureIndexed();
+        return offsets[id + 1] - offsets[id];
+    }
+
+    /**
+     * @param id 节点ID
+     * @param k  第几个调用者，从0开始
+     * @return 调用者ID
+     */
+    public int caller(int id, int k) {
+        return callers[offsets[id] + k];
+    }
+
+    /**
+     * 判断节点是否作为被调用者出现在某条边上
+     *
+     * @param id 节点ID
+     * @return 是否有调用者
+     */
+    public boolean hasCallers(int id) {
+        ensureIndexed();
+        return offsets[id + 1] > offsets[id];
+    }
+
+    /**
+     * 从给定的节点出发，沿 被调用者 -> 调用者 方向计算可达的节点
+     * 节点数较多且有多个CPU时使用ParallelReach并行计算，结果与顺序计算相同
+     *
+     * @param seeds 起点ID
+     * @return 闭包中的节点ID
+     */
+    public BitSet reach(Collection<Integer> seeds) {
+        if (nodeCount() >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            ensureIndexed();
+            return ParallelReach.reach(this, seeds);
+        }
+        return reachSequential(seeds);
+    }
+
+    /**
+     * 从给定的节点出发，沿 被调用者 -> 调用者 方向做BFS
+     * 与原先的迭代算法保持一致：只有作为被调用者出现过的起点才会进入闭包
+     *
+     * @param seeds 起点ID
+     * @return 闭包中的节点ID
+     */
+    public BitSet reachSequential(Collection<Integer> seeds) {
+        ensureIndexed();
+        BitSet visited = new BitSet(nodeCount());
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int seed : seeds) {
+            if (seed >= 0 && !visited.get(seed) && hasCallers(seed)) {
+                visited.set(seed);
+                queue.add(seed);
+            }
+        }
+        int[] offsets = this.offsets;
+        int[] callers = this.callers;
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int call = callers[i];
+                if (!visited.get(call)) {
+                    visited.set(call);
+                    queue.add(call);
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * 带预算的BFS，起点的规则与reach一致
+     * 同时记录到达了多少个测试节点，所有测试节点都已到达或超出预算时立即停止，原因记录在budget中
+     *
+     * @param seeds  起点ID
+     * @param tests  测试节点ID
+     * @param budget 预算
+     * @return 闭包中的节点ID，提前停止时返回null
+     */
+    public BitSet reachWithin(Collection<Integer> seeds, BitSet tests, SelectionBudget budget) {
+        ensureIndexed();
+        budget.start(nodeCount());
+        int remaining = tests.cardinality();
+        BitSet visited = new BitSet(nodeCount());
+        int visitedCount = 0;
+        int[] queue = new int[nodeCount()];
+        int head = 0;
+        int tail = 0;
+        for (int seed : seeds) {
+            if (seed >= 0 && !visited.get(seed) && hasCallers(seed)) {
+                visited.set(seed);
+                queue[tail++] = seed;
+                visitedCount++;
+                if (tests.get(seed)) {
+                    remaining--;
+                }
+            }
+        }
+        int[] offsets = this.offsets;
+        int[] callers = this.callers;
+        while (head < tail) {
+            if (remaining == 0) {
+                budget.allTestsReached();
+                return null;
+            }
+            if (budget.exceeded(visitedCount)) {
+                return null;
+            }
+            int node = queue[head++];
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int call = callers[i];
+                if (!visited.get(call)) {
+                    visited.set(call);
+                    queue[tail++] = call;
+                    visitedCount++;
+                    if (tests.get(call)) {
+                        remaining--;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * 从给定的节点出发，沿 被调用者 -> 调用者 方向计算每个节点与最近的起点之间的距离（经过的边数）
+     * 起点的规则与reach一致，闭包中的节点的距离都不小于0
+     *
+     * @param seeds 起点ID
+     * @return 节点ID -> 距离，不可达的节点为-1
+     */
+    public int[] distances(Collection<Integer> seeds) {
+        ensureIndexed();
+        int[] distance = new int[nodeCount()];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[distance.length];
+        int head = 0;
+        int tail = 0;
+        for (int seed : seeds) {
+            if (seed >= 0 && distance[seed] < 0 && hasCallers(seed)) {
+                distance[seed] = 0;
+                queue[tail++] = seed;
+            }
+        }
+        int[] offsets = this.offsets;
+        int[] callers = this.callers;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                int call = callers[i];
+                if (distance[call] < 0) {
+                    distance[call] = distance[node] + 1;
+                    queue[tail++] = call;
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * 计算一组节点的闭包
+     *
+     * @param seeds 起点名称
+     * @return 闭包中的节点名称
+     */
+    public HashSet<String> closure(Collection<String> seeds) {
+        ArrayList<Integer> seedIds = new ArrayList<>();
+        for (String seed : seeds) {
+            seedIds.add(id(seed));
+        }
+        BitSet visited = reach(seedIds);
+        HashSet<String> closure = new HashSet<>();
+        for (int i = visited.nextSetBit(0); i >= 0; i = visited.nextSetBit(i + 1)) {
+            closure.add(name(i));
+        }
+        return closure;
+    }
+
+    /**
+     * 在预算内计算一组节点的闭包
+     *
+     * @param seeds  起点名称
+     * @param tests  测试节点名称，不在图中的会被忽略
+     * @param budget 预算
+     * @return 闭包中的节点名称，提前停止时返回null，原因记录在budget中
+     */
+    public HashSet<String> closureWithin(Collection<String> seeds, Collection<String> tests, SelectionBudget budget) {
+        ArrayList<Integer> seedIds = new ArrayList<>();
+        for (String seed : seeds) {
+            seedIds.add(id(seed));
+        }
+        BitSet testIds = new BitSet(nodeCount());
+        for (String test : tests) {
+            int id = id(test);
+            if (id >= 0) {
+                testIds.set(id);
+            }
+        }
+        BitSet visited = reachWithin(seedIds, testIds, budget);
+        if (visited == null) {
+            return null;
+        }
+        HashSet<String> closure = new HashSet<>();
+        for (int i = visited.nextSetBit(0); i >= 0; i = visited.nextSetBit(i + 1)) {
+            closure.add(name(i));
+        }
+        return closure;
+    }
+
+    /**
+     * 边的处理
+     */
+    public interface EdgeConsumer {
+        /**
+         * @param called 被调用者ID
+         * @param call   调用者ID
+         */
+        void accept(int called, int call);
+    }
+}
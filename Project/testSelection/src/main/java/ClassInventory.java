@@ -0,0 +1,179 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * target文件夹下所有输入文件的清单
+ * classes与test-classes只扫描一次，子目录并行扫描，只保留.class与.jar文件
+ *
+ * @author csh
+ */
+public class ClassInventory {
+
+    /**
+     * target文件夹的路径
+     */
+    private final String path;
+    /**
+     * classes下的.class与.jar文件
+     */
+    private final ArrayList<File> productionFiles;
+    /**
+     * test-classes下的.class与.jar文件
+     */
+    private final ArrayList<File> testFiles;
+
+    private ClassInventory(String path, ArrayList<File> productionFiles, ArrayList<File> testFiles) {
+        this.path = path;
+        this.productionFiles = productionFiles;
+        this.testFiles = testFiles;
+    }
+
+    /**
+     * 扫描target文件夹
+     *
+     * @param path target文件夹的路径
+     * @return 文件清单
+     */
+    public static ClassInventory scan(String path) {
+        Path classesDirectory = Paths.get(path, "classes");
+        Path testClassesDirectory = Paths.get(path, "test-classes");
+        ConcurrentLinkedQueue<Path> classes = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Path> testClasses = new ConcurrentLinkedQueue<>();
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(new DirectoryScan(classesDirectory, classes), new DirectoryScan(testClassesDirectory, testClasses));
+            }
+        });
+        return new ClassInventory(path, sorted(classes), sorted(testClasses));
+    }
+
+    /**
+     * @return 所有输入文件，生产类在前，测试类在后
+     */
+    public ArrayList<File> getClassFiles() {
+        ArrayList<File> result = new ArrayList<>(productionFiles.size() + testFiles.size());
+        result.addAll(productionFiles);
+        result.addAll(testFiles);
+        return result;
+    }
+
+    /**
+     * @return test-classes下的所有输入文件
+     */
+    public ArrayList<File> getTestClassFiles() {
+        return testFiles;
+    }
+
+    /**
+     * 获取所有测试类的名称
+     *
+     * @return 去掉后缀的文件名，不含包名
+     */
+    public ArrayList<String> getTestFileNames() {
+        ArrayList<String> result = new ArrayList<>();
+        for (File file : testFiles) {
+            if (isClassFile(file.toPath())) {
+                result.add(file.getName().split("\\.")[0]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取所有测试类的完整类名
+     *
+     * @return 完整类名，如"Lnet/mooctest/CMDTest"
+     */
+    public HashSet<String> getTestClassNames() {
+        HashSet<String> result = new HashSet<>();
+        for (File file : testFiles) {
+            String className = FileUtil.classNameOf(FileUtil.relativePath(path, file));
+            if (className != null) {
+                result.add(className);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param file 文件
+     * @return 是否是.class文件
+     */
+    static boolean isClassFile(Path file) {
+        return file.getFileName().toString().endsWith(".class");
+    }
+
+    /**
+     * @param file 文件
+     * @return 是否是.jar文件
+     */
+    static boolean isJarFile(Path file) {
+        return file.getFileName().toString().endsWith(".jar");
+    }
+
+    /**
+     * 按路径排序，保证每次扫描的结果顺序一致
+     *
+     * @param paths 扫描结果
+     * @return 排序后的文件列表
+     */
+    private static ArrayList<File> sorted(Collection<Path> paths) {
+        ArrayList<Path> list = new ArrayList<>(paths);
+        Collections.sort(list);
+        ArrayList<File> result = new ArrayList<>(list.size());
+        for (Path p : list) {
+            result.add(p.toFile());
+        }
+        return result;
+    }
+
+    /**
+     * 扫描一个目录，子目录作为新的任务并行扫描
+     */
+    private static class DirectoryScan extends RecursiveAction {
+
+        private final Path directory;
+        private final ConcurrentLinkedQueue<Path> result;
+
+        DirectoryScan(Path directory, ConcurrentLinkedQueue<Path> result) {
+            this.directory = directory;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (!Files.isDirectory(directory)) {
+                return;
+            }
+            ArrayList<DirectoryScan> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    if (attributes.isDirectory()) {
+                        subTasks.add(new DirectoryScan(entry, result));
+                    } else if (isClassFile(entry) || isJarFile(entry)) {
+                        result.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ForkJoinTask.invokeAll(subTasks);
+        }
+    }
+}
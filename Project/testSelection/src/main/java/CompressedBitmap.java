@@ -0,0 +1,141 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 只读的压缩位图，与Roaring位图的分块方式相同：
+ * 按高16位把位分成若干块，每块中的位不超过4096个时保存为有序的低16位数组（每位2字节），否则保存为65536位的位图（8KB），
+ * 全空的块不保存。占用的空间不超过 min(2 × 位数, 8KB × 非空块数) 再加上每块的少量开销，
+ * 稀疏时远小于按最大编号分配的BitSet
+ *
+ * @author csh
+ */
+public class CompressedBitmap {
+
+    public static final CompressedBitmap EMPTY = new CompressedBitmap(new char[0], new Object[0], 0);
+
+    /**
+     * 数组块中最多的位数，超过时位图块更小
+     */
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int CHUNK_WORDS = 1 << 10;
+
+    /**
+     * 每块的高16位，升序
+     */
+    private final char[] keys;
+    /**
+     * 每块的内容：char[]为有序的低16位，long[]为65536位的位图
+     */
+    private final Object[] chunks;
+    private final int cardinality;
+
+    private CompressedBitmap(char[] keys, Object[] chunks, int cardinality) {
+        this.keys = keys;
+        this.chunks = chunks;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * 压缩一个位图
+     *
+     * @param bits 位图，不会被修改
+     * @return 压缩后的位图
+     */
+    public static CompressedBitmap of(BitSet bits) {
+        if (bits.isEmpty()) {
+            return EMPTY;
+        }
+        long[] words = bits.toLongArray();
+        int chunkCount = (words.length + CHUNK_WORDS - 1) / CHUNK_WORDS;
+        char[] keys = new char[chunkCount];
+        Object[] chunks = new Object[chunkCount];
+        int size = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int from = chunk * CHUNK_WORDS;
+            int to = Math.min(from + CHUNK_WORDS, words.length);
+            int count = 0;
+            for (int w = from; w < to; w++) {
+                count += Long.bitCount(words[w]);
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (count > ARRAY_LIMIT) {
+                chunks[size] = Arrays.copyOf(Arrays.copyOfRange(words, from, to), CHUNK_WORDS);
+            } else {
+                char[] lows = new char[count];
+                int k = 0;
+                for (int w = from; w < to; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        lows[k++] = (char) (((w - from) << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+                chunks[size] = lows;
+            }
+            keys[size++] = (char) chunk;
+        }
+        return new CompressedBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(chunks, size), bits.cardinality());
+    }
+
+    /**
+     * 把所有位并入target
+     *
+     * @param target 目标位图
+     */
+    public void orInto(BitSet target) {
+        for (int i = 0; i < keys.length; i++) {
+            int base = keys[i] << 16;
+            if (chunks[i] instanceof char[]) {
+                for (char low : (char[]) chunks[i]) {
+                    target.set(base + low);
+                }
+            } else {
+                long[] words = (long[]) chunks[i];
+                for (int w = 0; w < words.length; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        target.set(base + (w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param bit 位的编号
+     * @return 该位是否为1
+     */
+    public boolean get(int bit) {
+        int i = Arrays.binarySearch(keys, (char) (bit >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        int low = bit & 0xFFFF;
+        if (chunks[i] instanceof char[]) {
+            return Arrays.binarySearch((char[]) chunks[i], (char) low) >= 0;
+        }
+        return (((long[]) chunks[i])[low >>> 6] & (1L << low)) != 0;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return 块内容占用的字节数的估计
+     */
+    public long sizeInBytes() {
+        long size = 2L * keys.length;
+        for (Object chunk : chunks) {
+            size += chunk instanceof char[] ? 2L * ((char[]) chunk).length : 8L * CHUNK_WORDS;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,373 @@
+import com.ibm.wala.shrikeBT.Constants;
+import com.ibm.wala.shrikeCT.ClassReader;
+import com.ibm.wala.shrikeCT.ClassWriter;
+import com.ibm.wala.shrikeCT.CodeReader;
+import com.ibm.wala.shrikeCT.CodeWriter;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * 覆盖模式的Java agent：在target文件夹中每个类的每个方法开头插入 CoverageRecorder.hit(方法ID)，
+ * 每个方法只在第一次执行时进入同步的慢路径，JVM退出时把每个测试执行过的方法写入覆盖信息文件
+ * <p>
+ * 参数：-javaagent:jar包=target=target文件夹路径,out=覆盖信息文件
+ * 也可以直接运行target中的所有JUnit 4测试：
+ * java -javaagent:jar包=target=路径,out=文件 -cp jar包 CoverageAgent target文件夹路径
+ * 在Maven中运行时需要把CoverageListener注册为surefire的listener
+ *
+ * @author csh
+ */
+public class CoverageAgent implements ClassFileTransformer {
+
+    /**
+     * 插入的代码的长度：sipush或ldc_w（3字节）、invokestatic（3字节），再用nop补齐到4的倍数，
+     * 这样tableswitch与lookupswitch的对齐不变，相对跳转也不受影响，只需要平移以绝对偏移记录的位置
+     */
+    private static final int PREFIX = 8;
+
+    /**
+     * 需要插桩的类，如"net/mooctest/CMD"
+     */
+    private final HashSet<String> classNames;
+
+    private CoverageAgent(HashSet<String> classNames) {
+        this.classNames = classNames;
+    }
+
+    public static void premain(String args, Instrumentation instrumentation) {
+        String target = null;
+        String out = "coverage.bin";
+        for (String option : (args == null ? "" : args).split(",")) {
+            if (option.startsWith("target=")) {
+                target = option.substring("target=".length());
+            } else if (option.startsWith("out=")) {
+                out = option.substring("out=".length());
+            } else if (!option.isEmpty()) {
+                throw new IllegalArgumentException("unknown agent option: " + option);
+            }
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("usage: -javaagent:<jar>=target=<target>,out=<coverage file>");
+        }
+        instrumentation.addTransformer(new CoverageAgent(classNames(target)));
+        File file = new File(out);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                CoverageRecorder.write(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+    }
+
+    /**
+     * 运行target文件夹中的所有JUnit 4测试，需要同时以agent方式加载
+     *
+     * @param args target文件夹路径
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("usage: CoverageAgent <target>");
+        }
+        ClassInventory inventory = ClassInventory.scan(args[0]);
+        ArrayList<URL> urls = new ArrayList<>();
+        urls.add(new File(args[0], "classes").toURI().toURL());
+        urls.add(new File(args[0], "test-classes").toURI().toURL());
+        for (File file : inventory.getClassFiles()) {
+            if (file.getName().endsWith(".jar")) {
+                urls.add(file.toURI().toURL());
+            }
+        }
+        URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), CoverageAgent.class.getClassLoader());
+        ArrayList<String> testClassNames = new ArrayList<>(inventory.getTestClassNames());
+        Collections.sort(testClassNames);
+        ArrayList<Class<?>> testClasses = new ArrayList<>();
+        for (String name : testClassNames) {
+            Class<?> c = Class.forName(name.substring(1).replace('/', '.'), false, loader);
+            if (isTestClass(c)) {
+                testClasses.add(c);
+            }
+        }
+        JUnitCore junit = new JUnitCore();
+        junit.addListener(new CoverageListener());
+        Result result = junit.run(testClasses.toArray(new Class<?>[0]));
+        System.out.println("tests: " + result.getRunCount() + ", failures: " + result.getFailureCount());
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (className == null || classBeingRedefined != null || !classNames.contains(className)) {
+            return null;
+        }
+        try {
+            return instrument(classfileBuffer);
+        } catch (Exception | LinkageError e) {
+            // JVM会忽略transformer抛出的异常，这里打印出来，这个类保持原样
+            System.err.println("cannot instrument " + className + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * 在每个有方法体的方法开头插入 CoverageRecorder.hit(方法ID)
+     * 直接修改原有的字节码而不经过Shrike的重新编译，StackMapTable只需要平移偏移，不必重新计算
+     *
+     * @param bytes 类文件
+     * @return 插桩后的类文件，没有可插桩的方法时返回null
+     * @throws InvalidClassFileException
+     */
+    static byte[] instrument(byte[] bytes) throws InvalidClassFileException {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter();
+        writer.setMajorVersion(reader.getMajorVersion());
+        writer.setMinorVersion(reader.getMinorVersion());
+        writer.setRawCP(reader.getCP(), false);
+        writer.setAccessFlags(reader.getAccessFlags());
+        writer.setNameIndex(reader.getNameIndex());
+        writer.setSuperNameIndex(reader.getSuperNameIndex());
+        writer.setInterfaceNameIndices(reader.getInterfaceNameIndices());
+        for (int f = 0; f < reader.getFieldCount(); f++) {
+            writer.addRawField(new ClassWriter.RawElement(bytes, reader.getFieldRawOffset(f), reader.getFieldRawSize(f)));
+        }
+        int hit = writer.addCPMethodRef("CoverageRecorder", "hit", "(I)V");
+        boolean changed = false;
+        ClassReader.AttrIterator iterator = new ClassReader.AttrIterator();
+        for (int m = 0; m < reader.getMethodCount(); m++) {
+            reader.initMethodAttributeIterator(m, iterator);
+            ClassWriter.Element[] attributes = new ClassWriter.Element[iterator.getRemainingAttributesCount()];
+            boolean instrumented = false;
+            for (int a = 0; iterator.isValid(); a++, iterator.advance()) {
+                CodeReader code = "Code".equals(iterator.getName()) ? new CodeReader(iterator) : null;
+                if (code != null && code.getBytecodeLength() + PREFIX < 65536) {
+                    String method = DotUtil.methodNode("L" + reader.getName() + ", " + reader.getMethodName(m) + reader.getMethodType(m));
+                    attributes[a] = instrumentCode(writer, code, prefix(writer, CoverageRecorder.register(method), hit));
+                    instrumented = true;
+                } else {
+                    attributes[a] = new ClassWriter.RawElement(bytes, iterator.getRawOffset(), iterator.getRawSize());
+                }
+            }
+            if (instrumented) {
+                writer.addMethod(reader.getMethodAccessFlags(m), reader.getMethodNameIndex(m), reader.getMethodTypeIndex(m), attributes);
+                changed = true;
+            } else {
+                writer.addRawMethod(new ClassWriter.RawElement(bytes, reader.getMethodRawOffset(m), reader.getMethodRawSize(m)));
+            }
+        }
+        reader.initClassAttributeIterator(iterator);
+        for (; iterator.isValid(); iterator.advance()) {
+            writer.addClassAttribute(new ClassWriter.RawElement(bytes, iterator.getRawOffset(), iterator.getRawSize()));
+        }
+        return changed ? writer.makeBytes() : null;
+    }
+
+    /**
+     * @param writer 类文件的输出
+     * @param id     方法ID
+     * @param hit    CoverageRecorder.hit在常量池中的位置
+     * @return 插入到方法开头的字节码
+     */
+    private static byte[] prefix(ClassWriter writer, int id, int hit) {
+        byte[] prefix = new byte[PREFIX];
+        if (id <= Short.MAX_VALUE) {
+            prefix[0] = (byte) Constants.OP_sipush;
+            ClassWriter.setUShort(prefix, 1, id);
+        } else {
+            prefix[0] = (byte) Constants.OP_ldc_w;
+            ClassWriter.setUShort(prefix, 1, writer.addCPInt(id));
+        }
+        prefix[3] = (byte) Constants.OP_invokestatic;
+        ClassWriter.setUShort(prefix, 4, hit);
+        prefix[6] = (byte) Constants.OP_nop;
+        prefix[7] = (byte) Constants.OP_nop;
+        return prefix;
+    }
+
+    /**
+     * 在方法体前插入代码，并平移异常处理表与Code中各属性记录的偏移
+     *
+     * @param writer 类文件的输出
+     * @param code   原有的方法体
+     * @param prefix 插入的字节码
+     * @return 新的Code属性
+     * @throws InvalidClassFileException
+     */
+    private static CodeWriter instrumentCode(ClassWriter writer, CodeReader code, byte[] prefix) throws InvalidClassFileException {
+        byte[] original = code.getBytecode();
+        byte[] bytecode = new byte[PREFIX + original.length];
+        System.arraycopy(prefix, 0, bytecode, 0, PREFIX);
+        System.arraycopy(original, 0, bytecode, PREFIX, original.length);
+        CodeWriter result = new CodeWriter(writer);
+        result.setCode(bytecode);
+        result.setMaxStack(Math.max(1, code.getMaxStack()));
+        result.setMaxLocals(code.getMaxLocals());
+        // 每个异常处理为 起点、终点、处理代码、异常类型
+        int[] handlers = code.getRawHandlers().clone();
+        for (int i = 0; i < handlers.length; i += 4) {
+            handlers[i] += PREFIX;
+            handlers[i + 1] += PREFIX;
+            handlers[i + 2] += PREFIX;
+        }
+        result.setRawHandlers(handlers);
+
+        byte[] bytes = code.getClassReader().getBytes();
+        ArrayList<ClassWriter.Element> attributes = new ArrayList<>();
+        ClassReader.AttrIterator iterator = new ClassReader.AttrIterator();
+        code.initAttributeIterator(iterator);
+        for (; iterator.isValid(); iterator.advance()) {
+            String name = iterator.getName();
+            byte[] attribute = Arrays.copyOfRange(bytes, iterator.getRawOffset(), iterator.getRawOffset() + iterator.getRawSize());
+            if ("LineNumberTable".equals(name)) {
+                for (int p = 8; p < attribute.length; p += 4) {
+                    ClassWriter.setUShort(attribute, p, u2(attribute, p) + PREFIX);
+                }
+            } else if ("LocalVariableTable".equals(name) || "LocalVariableTypeTable".equals(name)) {
+                //从0开始的变量（this与参数）延长到覆盖插入的代码，其他变量整体平移
+                for (int p = 8; p < attribute.length; p += 10) {
+                    int field = u2(attribute, p) == 0 ? p + 2 : p;
+                    ClassWriter.setUShort(attribute, field, u2(attribute, field) + PREFIX);
+                }
+            } else if ("StackMapTable".equals(name)) {
+                attribute = shiftStackMap(attribute);
+            } else if (name.endsWith("TypeAnnotations")) {
+                //方法体中的类型注解同样以偏移记录，运行时不需要，直接丢弃
+                continue;
+            }
+            attributes.add(new ClassWriter.RawElement(attribute, 0, attribute.length));
+        }
+        result.setAttributes(attributes.toArray(new ClassWriter.Element[0]));
+        return result;
+    }
+
+    /**
+     * StackMapTable中只有第一帧的偏移是绝对的，之后的帧都相对于前一帧，因此只需平移第一帧；
+     * 此外Uninitialized类型记录的是new指令的绝对偏移，每一帧中的都要平移
+     *
+     * @param attribute 完整的StackMapTable属性，包括名称与长度
+     * @return 平移后的属性
+     */
+    private static byte[] shiftStackMap(byte[] attribute) {
+        int frames = attribute.length < 8 ? 0 : u2(attribute, 6);
+        if (frames == 0) {
+            return attribute;
+        }
+        int p = 8;
+        for (int i = 0; i < frames; i++) {
+            int type = attribute[p++] & 0xFF;
+            if (type < 64) {
+                continue;
+            } else if (type < 128) {
+                p = shiftVerificationTypes(attribute, p, 1);
+            } else if (type == 247) {
+                p = shiftVerificationTypes(attribute, p + 2, 1);
+            } else if (type == 255) {
+                p = shiftVerificationTypes(attribute, p + 4, u2(attribute, p + 2));
+                p = shiftVerificationTypes(attribute, p + 2, u2(attribute, p));
+            } else if (type > 251) {
+                p = shiftVerificationTypes(attribute, p + 2, type - 251);
+            } else if (type >= 248) {
+                p += 2;
+            }
+        }
+
+        int type = attribute[8] & 0xFF;
+        byte[] replacement;
+        if (type < 64) {
+            // same_frame，偏移超出范围时改为same_frame_extended
+            int delta = type + PREFIX;
+            replacement = delta < 64 ? new byte[]{(byte) delta} : new byte[]{(byte) 251, (byte) (delta >>> 8), (byte) delta};
+        } else if (type < 128) {
+            // same_locals_1_stack_item_frame，偏移超出范围时改为对应的extended形式
+            int delta = type - 64 + PREFIX;
+            replacement = delta < 64 ? new byte[]{(byte) (64 + delta)} : new byte[]{(byte) 247, (byte) (delta >>> 8), (byte) delta};
+        } else {
+            if (type >= 247) {
+                ClassWriter.setUShort(attribute, 9, u2(attribute, 9) + PREFIX);
+            }
+            return attribute;
+        }
+        byte[] result = new byte[attribute.length - 1 + replacement.length];
+        System.arraycopy(attribute, 0, result, 0, 8);
+        System.arraycopy(replacement, 0, result, 8, replacement.length);
+        System.arraycopy(attribute, 9, result, 8 + replacement.length, attribute.length - 9);
+        ClassWriter.setInt(result, 2, result.length - 6);
+        return result;
+    }
+
+    /**
+     * 平移若干个verification_type_info中Uninitialized记录的偏移
+     *
+     * @param attribute StackMapTable属性
+     * @param p         第一个类型的位置
+     * @param count     类型的个数
+     * @return 这些类型之后的位置
+     */
+    private static int shiftVerificationTypes(byte[] attribute, int p, int count) {
+        for (int i = 0; i < count; i++) {
+            int tag = attribute[p++];
+            if (tag == 8) {
+                ClassWriter.setUShort(attribute, p, u2(attribute, p) + PREFIX);
+            }
+            // Object与Uninitialized之后有两个字节
+            if (tag == 7 || tag == 8) {
+                p += 2;
+            }
+        }
+        return p;
+    }
+
+    private static int u2(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    /**
+     * @param target target文件夹路径
+     * @return classes与test-classes中的所有类
+     */
+    private static HashSet<String> classNames(String target) {
+        HashSet<String> result = new HashSet<>();
+        for (File file : ClassInventory.scan(target).getClassFiles()) {
+            String className = FileUtil.classNameOf(FileUtil.relativePath(target, file));
+            if (className != null) {
+                result.add(className.substring(1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param c 测试类
+     * @return 是否是可以由JUnit 4运行的测试类
+     */
+    private static boolean isTestClass(Class<?> c) {
+        if (Modifier.isAbstract(c.getModifiers()) || !Modifier.isPublic(c.getModifiers())) {
+            return false;
+        }
+        if (c.isAnnotationPresent(RunWith.class)) {
+            return true;
+        }
+        for (Method method : c.getMethods()) {
+            if (method.isAnnotationPresent(Test.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
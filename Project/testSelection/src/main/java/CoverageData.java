@@ -0,0 +1,291 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * 覆盖模式记录的依赖：每个测试方法实际执行过的应用方法，以方法ID上的位图表示
+ * 选择时，有记录的测试只看记录的方法是否与变更相交，没有记录的测试仍以静态调用图的选择结果为准
+ * <p>
+ * 文件格式（DataOutputStream）：
+ * MAGIC, VERSION, 方法数, 方法名称..., 测试数, (测试方法名称, 位图的long个数, long...)...
+ *
+ * @author csh
+ */
+public class CoverageData {
+
+    private static final int MAGIC = 0x54534356;
+    private static final int VERSION = 1;
+
+    /**
+     * 方法ID -> 方法名称，格式与调用图中的节点一致
+     */
+    private final ArrayList<String> methods = new ArrayList<>();
+    private final HashMap<String, Integer> methodIds = new HashMap<>();
+    /**
+     * 测试方法 -> 执行过的方法，按名称排序以保证输出稳定
+     */
+    private final TreeMap<String, long[]> tests = new TreeMap<>();
+
+    /**
+     * @param method 方法名称
+     * @return 方法ID，不存在时新分配一个
+     */
+    int methodId(String method) {
+        Integer id = methodIds.get(method);
+        if (id == null) {
+            id = methods.size();
+            methods.add(method);
+            methodIds.put(method, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return 方法数
+     */
+    int methodCount() {
+        return methods.size();
+    }
+
+    /**
+     * @return 有记录的测试数
+     */
+    public int testCount() {
+        return tests.size();
+    }
+
+    /**
+     * 记录一个测试执行过的方法，已有记录时取并集
+     *
+     * @param test 测试方法名称
+     * @param bits 执行过的方法ID的位图
+     */
+    void add(String test, long[] bits) {
+        int length = bits.length;
+        while (length > 0 && bits[length - 1] == 0) {
+            length--;
+        }
+        long[] previous = tests.get(test);
+        long[] result = Arrays.copyOf(bits, Math.max(length, previous == null ? 0 : previous.length));
+        if (previous != null) {
+            for (int i = 0; i < previous.length; i++) {
+                result[i] |= previous[i];
+            }
+        }
+        tests.put(test, result);
+    }
+
+    /**
+     * @return 同样内容的另一份记录
+     */
+    CoverageData copy() {
+        CoverageData copy = new CoverageData();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * 把一组方法并入某个测试类中所有有记录的测试
+     *
+     * @param testClass 测试类，如"Lnet/mooctest/CMDTest"
+     * @param bits      方法ID的位图
+     */
+    void addToClass(String testClass, long[] bits) {
+        for (String test : new ArrayList<>(tests.subMap(testClass + " ", testClass + "!").keySet())) {
+            add(test, bits);
+        }
+    }
+
+    /**
+     * 把一组方法并入所有有记录的测试
+     *
+     * @param bits 方法ID的位图
+     */
+    void addToAll(long[] bits) {
+        for (String test : new ArrayList<>(tests.keySet())) {
+            add(test, bits);
+        }
+    }
+
+    /**
+     * @return 所有测试执行过的静态初始化方法
+     */
+    long[] staticInits() {
+        long[] bits = new long[(methods.size() >>> 6) + 1];
+        for (long[] covered : tests.values()) {
+            forEachBit(covered, id -> {
+                if (methods.get(id).endsWith(".<clinit>()V")) {
+                    bits[id >>> 6] |= 1L << id;
+                }
+            });
+        }
+        return bits;
+    }
+
+    /**
+     * 合并另一份记录，方法ID按名称重新映射
+     *
+     * @param other 另一份记录
+     */
+    void merge(CoverageData other) {
+        int[] ids = new int[other.methods.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = methodId(other.methods.get(i));
+        }
+        for (Map.Entry<String, long[]> entry : other.tests.entrySet()) {
+            long[] bits = new long[(methods.size() >>> 6) + 1];
+            forEachBit(entry.getValue(), id -> bits[ids[id] >>> 6] |= 1L << ids[id]);
+            add(entry.getKey(), bits);
+        }
+    }
+
+    /**
+     * 结合覆盖记录完成测试选择
+     * method粒度下，有记录的测试当且仅当执行过变更的方法时被选择；
+     * class粒度下，有记录的测试类当且仅当其中某个测试执行过变更的类中的方法时，整个测试类被选择；
+     * 没有记录的测试（类）沿用静态调用图的选择结果。
+     * 变更中有记录里从未出现过的方法（或类）时，例如抽象方法，无法从记录判断，静态调用图的选择结果全部保留
+     *
+     * @param grain        粒度
+     * @param changeInfos  变更信息
+     * @param staticResult 静态调用图的选择结果
+     * @param testMethods  调用图中的所有测试方法，已经不存在的测试的记录会被忽略
+     * @param testClasses  测试类 -> 测试方法，method粒度下不需要
+     * @return 被选择的测试方法
+     */
+    public HashSet<String> select(String grain, List<String> changeInfos, HashSet<String> staticResult, HashSet<String> testMethods, TestClassIndex testClasses) {
+        boolean byClass = "class".equals(grain);
+        HashSet<String> seeds = new HashSet<>(DotUtil.closureSeeds(changeInfos, grain));
+        long[] changed = new long[(methods.size() >>> 6) + 1];
+        HashSet<String> known = new HashSet<>();
+        for (int id = 0; id < methods.size(); id++) {
+            String method = methods.get(id);
+            String key = byClass ? method.substring(0, method.indexOf(' ')) : method;
+            if (seeds.contains(key)) {
+                changed[id >>> 6] |= 1L << id;
+                known.add(key);
+            }
+        }
+        boolean keepStatic = known.size() < seeds.size();
+        PhaseMetrics.count("coverageFallback", keepStatic ? 1 : 0);
+        //有记录的测试（类）中被选择的部分
+        HashSet<String> covered = new HashSet<>();
+        HashSet<String> selected = new HashSet<>();
+        for (Map.Entry<String, long[]> entry : tests.entrySet()) {
+            String test = entry.getKey();
+            if (!testMethods.contains(test)) {
+                continue;
+            }
+            String key = byClass ? test.substring(0, test.indexOf(' ')) : test;
+            covered.add(key);
+            if (intersects(entry.getValue(), changed)) {
+                selected.add(key);
+            }
+        }
+        HashSet<String> result = new HashSet<>(byClass ? testClasses.select(selected) : selected);
+        for (String test : staticResult) {
+            if (keepStatic || !covered.contains(byClass ? test.substring(0, test.indexOf(' ')) : test)) {
+                result.add(test);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取覆盖记录
+     *
+     * @param file 覆盖信息文件
+     * @return 覆盖记录
+     * @throws IOException
+     */
+    public static CoverageData read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a coverage file: " + file);
+            }
+            CoverageData data = new CoverageData();
+            int methodCount = in.readInt();
+            for (int i = 0; i < methodCount; i++) {
+                data.methodId(in.readUTF());
+            }
+            int testCount = in.readInt();
+            for (int i = 0; i < testCount; i++) {
+                String test = in.readUTF();
+                long[] bits = new long[in.readInt()];
+                for (int k = 0; k < bits.length; k++) {
+                    bits[k] = in.readLong();
+                }
+                data.tests.put(test, bits);
+            }
+            return data;
+        }
+    }
+
+    /**
+     * 写出覆盖记录
+     *
+     * @param file 覆盖信息文件
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        // 先写临时文件再替换，避免中断时留下不完整的文件；每个进程使用各自的临时文件
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(methods.size());
+            for (String method : methods) {
+                out.writeUTF(method);
+            }
+            out.writeInt(tests.size());
+            for (Map.Entry<String, long[]> entry : tests.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                for (long word : entry.getValue()) {
+                    out.writeLong(word);
+                }
+            }
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+    }
+
+    private static boolean intersects(long[] a, long[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if ((a[i] & b[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void forEachBit(long[] bits, IntConsumer action) {
+        for (int word = 0; word < bits.length; word++) {
+            long w = bits[word];
+            while (w != 0) {
+                action.accept((word << 6) + Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * 覆盖模式下的JUnit 4监听器，在每个测试开始与结束时通知CoverageRecorder
+ * 由CoverageAgent.main自动注册；在Maven中运行时可通过surefire的listener属性注册
+ *
+ * @author csh
+ */
+public class CoverageListener extends RunListener {
+
+    @Override
+    public void testStarted(Description description) {
+        CoverageRecorder.testStarted(testName(description));
+    }
+
+    @Override
+    public void testFinished(Description description) {
+        CoverageRecorder.testFinished();
+    }
+
+    /**
+     * JUnit 4的测试方法都没有参数，参数化测试的方法名后带有"[序号]"
+     *
+     * @param description 测试的描述
+     * @return 与调用图节点格式一致的测试方法名称，如"Lnet/mooctest/CMDTest net.mooctest.CMDTest.test()V"
+     */
+    static String testName(Description description) {
+        String className = description.getClassName();
+        String methodName = description.getMethodName();
+        if (methodName == null) {
+            methodName = "";
+        }
+        int bracket = methodName.indexOf('[');
+        if (bracket >= 0) {
+            methodName = methodName.substring(0, bracket);
+        }
+        return "L" + className.replace('.', '/') + " " + className + "." + methodName + "()V";
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 覆盖模式在被测JVM中的记录器
+ * CoverageAgent在每个应用方法的开头插入 CoverageRecorder.hit(方法ID)，
+ * CoverageListener在每个测试开始与结束时切换当前的测试，测试期间执行过的方法记录在位图中。
+ * <p>
+ * 不在任何测试期间执行的方法（@BeforeClass、@AfterClass、@Parameters以及测试类的加载）记在两个测试之间的间隙中，
+ * 归入间隙前后两个测试所在的测试类的所有测试；
+ * 类的静态初始化在整个JVM中只执行一次，之后的测试不会再执行它却依赖它的结果，因此执行过的&lt;clinit&gt;归入所有测试
+ *
+ * @author csh
+ */
+public class CoverageRecorder {
+
+    /**
+     * 当前测试（或两个测试之间的间隙）执行过的方法，第i位对应ID为i的方法
+     */
+    private static volatile long[] hits = new long[16];
+    /**
+     * 当前的测试，不在测试中时为null
+     */
+    private static String current;
+    /**
+     * 所有方法的ID，以及已经结束的测试执行过的方法
+     */
+    private static final CoverageData data = new CoverageData();
+    /**
+     * 测试类 -> 不在测试期间执行、归入该类所有测试的方法
+     */
+    private static final HashMap<String, long[]> classHits = new HashMap<>();
+    /**
+     * 上一个结束的测试所在的测试类
+     */
+    private static String lastClass;
+
+    /**
+     * 被插入到每个应用方法的开头，已经记录过时只做一次读取
+     *
+     * @param id 方法ID
+     */
+    public static void hit(int id) {
+        long[] bits = hits;
+        int word = id >>> 6;
+        if (word < bits.length && (bits[word] & (1L << id)) != 0) {
+            return;
+        }
+        mark(id);
+    }
+
+    private static synchronized void mark(int id) {
+        int word = id >>> 6;
+        if (word >= hits.length) {
+            hits = Arrays.copyOf(hits, Math.max(word + 1, hits.length * 2));
+        }
+        hits[word] |= 1L << id;
+    }
+
+    /**
+     * 为方法分配ID，同一个方法被多个类加载器加载时共用一个ID
+     *
+     * @param method 方法名称，如"Lnet/mooctest/CMD net.mooctest.CMD.run()V"
+     * @return 方法ID
+     */
+    static synchronized int register(String method) {
+        return data.methodId(method);
+    }
+
+    /**
+     * 开始记录一个测试，之前执行过的方法不计入这个测试，而是归入前后两个测试类
+     *
+     * @param test 测试方法名称
+     */
+    public static synchronized void testStarted(String test) {
+        String testClass = testClass(test);
+        addClassHits(testClass, hits);
+        if (lastClass != null && !lastClass.equals(testClass)) {
+            addClassHits(lastClass, hits);
+        }
+        current = test;
+        hits = new long[(data.methodCount() >>> 6) + 1];
+    }
+
+    /**
+     * 结束当前的测试，同一个测试运行多次时取并集
+     */
+    public static synchronized void testFinished() {
+        if (current != null) {
+            data.add(current, hits);
+            lastClass = testClass(current);
+            current = null;
+            hits = new long[(data.methodCount() >>> 6) + 1];
+        }
+    }
+
+    private static void addClassHits(String testClass, long[] bits) {
+        long[] previous = classHits.get(testClass);
+        long[] result = Arrays.copyOf(bits, Math.max(bits.length, previous == null ? 0 : previous.length));
+        if (previous != null) {
+            for (int i = 0; i < previous.length; i++) {
+                result[i] |= previous[i];
+            }
+        }
+        classHits.put(testClass, result);
+    }
+
+    /**
+     * @param test 测试方法名称，如"Lnet/mooctest/CMDTest net.mooctest.CMDTest.test()V"
+     * @return 测试类，如"Lnet/mooctest/CMDTest"
+     */
+    private static String testClass(String test) {
+        return test.substring(0, test.indexOf(' '));
+    }
+
+    /**
+     * 把记录的覆盖信息合并到文件中，文件已存在时（如多个被测JVM）与原有内容合并。
+     * 读取、合并与替换期间持有文件旁的"文件名.lock"上的文件锁，并行的多个JVM依次合并
+     *
+     * @param file 覆盖信息文件
+     * @throws IOException
+     */
+    static synchronized void write(File file) throws IOException {
+        // 最后一个测试之后的间隙（如最后一个测试类的@AfterClass）
+        if (lastClass != null && current == null) {
+            addClassHits(lastClass, hits);
+            hits = new long[(data.methodCount() >>> 6) + 1];
+        }
+        CoverageData recorded = data.copy();
+        for (Map.Entry<String, long[]> entry : classHits.entrySet()) {
+            recorded.addToClass(entry.getKey(), entry.getValue());
+        }
+        recorded.addToAll(recorded.staticInits());
+        File lockFile = new File(file.getPath() + ".lock");
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            CoverageData result = file.isFile() ? CoverageData.read(file) : new CoverageData();
+            result.merge(recorded);
+            result.write(file);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -88,8 +90,8 @@ public class DotUtil {
             for (String key : map.keySet()) {
                 // 按照类级粒度分割字符串，去掉Ljava一类的方法
                 // 结果格式如"net.mooctest.CMD.<init>()V" -> "net.mooctest.CMDTest1.test4()V"
-                String value = map.get(key).split(", ")[0];
-                String line = key.split(", ")[0] + " -> " + value;
+                String value = classNode(map.get(key));
+                String line = classNode(key) + " -> " + value;
                 if (!line.contains("Ljava")) {
                     dotGraph.add(line);
                 }
@@ -108,13 +110,9 @@ public class DotUtil {
         HashSet<String> dotGraph = new HashSet<String>();
         for (HashMap<String, String> map : edges) {
             for (String key : map.keySet()) {
-                String value = map.get(key);
-                // 根据innerClassName 来获取包名
-                String packageNameKey = key.split(", ")[0].replace("/", ".").substring(1);
-                String packageNameValue = value.split(", ")[0].replace("/", ".").substring(1);
                 // 修改key 与 value的内容，使其符合输出格式
-                key = key.split(", ")[0] + " " + packageNameKey + "." + key.split(", ")[1];
-                value = value.split(", ")[0] + " " + packageNameValue + "." + value.split(", ")[1];
+                String value = methodNode(map.get(key));
+                key = methodNode(key);
                 String line = key + " -> " + value;
                 //只有两个端点开头都不是Ljava的才算作是图中的节点
                 if (!key.startsWith("Ljava") && !value.startsWith("Ljava")) {
@@ -126,6 +124,69 @@ public class DotUtil {
         return dotGraph;
     }
 
+    /**
+     * 根据类粒度来构建反向调用图索引，过滤规则与buildClassDot一致
+     *
+     * @param edges 由EdgeExtractor提取的方法之间的调用关系
+     * @return 类粒度的反向调用图索引
+     */
+    public static CallGraphIndex buildClassIndex(CallGraphIndex edges) {
+        CallGraphIndex index = new CallGraphIndex(edges.isLowMemory());
+        edges.forEachEdge((called, call) -> {
+            String calledNode = classNode(edges.name(called));
+            String callNode = classNode(edges.name(call));
+            if (!calledNode.contains("Ljava") && !callNode.contains("Ljava")) {
+                index.addEdge(calledNode, callNode);
+            }
+        });
+        return index;
+    }
+
+    /**
+     * 根据方法粒度来构建反向调用图索引，过滤规则与buildMethodDot一致
+     *
+     * @param edges 由EdgeExtractor提取的方法之间的调用关系
+     * @return 方法粒度的反向调用图索引
+     */
+    public static CallGraphIndex buildMethodIndex(CallGraphIndex edges) {
+        CallGraphIndex index = new CallGraphIndex(edges.isLowMemory());
+        // 同一个方法只需要转换一次名称
+        String[] names = new String[edges.nodeCount()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = methodNode(edges.name(i));
+        }
+        edges.forEachEdge((called, call) -> {
+            //只有两个端点开头都不是Ljava的才算作是图中的节点
+            if (!names[called].startsWith("Ljava") && !names[call].startsWith("Ljava")) {
+                index.addEdge(names[called], names[call]);
+            }
+        });
+        return index;
+    }
+
+    /**
+     * 获取边端点的类名
+     *
+     * @param edgeNode 边的端点，格式如"Lnet/mooctest/CMD, <init>()V"
+     * @return 类名，如"Lnet/mooctest/CMD"
+     */
+    static String classNode(String edgeNode) {
+        return edgeNode.split(", ")[0];
+    }
+
+    /**
+     * 将边的端点转换为方法粒度.dot图中的节点名称
+     *
+     * @param edgeNode 边的端点，格式如"Lnet/mooctest/CMD, <init>()V"
+     * @return 节点名称，如"Lnet/mooctest/CMD net.mooctest.CMD.<init>()V"
+     */
+    static String methodNode(String edgeNode) {
+        String[] split = edgeNode.split(", ");
+        // 根据innerClassName 来获取包名
+        String packageName = split[0].replace("/", ".").substring(1);
+        return split[0] + " " + packageName + "." + split[1];
+    }
+
     /**
      * 将.dot图输出到文件
      *
@@ -136,27 +197,37 @@ public class DotUtil {
      */
     public static void writeToFile(String targetPath, String grain, ArrayList<String> dotGraph) throws IOException {
         //创建文件
-        String[] split = targetPath.split("\\\\");
-        String fileName = split[split.length - 2];
-        BufferedWriter out = new BufferedWriter(new FileWriter(grain + "-" + fileName.split("-")[1] + ".dot"));
-        out.write("digraph " + fileName.split("-")[1].toLowerCase() + "_" + grain + " {\n");
-        //分粒度进行输出
-        for (String s : dotGraph) {
-            String calledNode = s.split(" -> ")[0];
-            String callNode = s.split(" -> ")[1];
-            if ("class".equals(grain)) {
-                out.write("\t" + "\"" + calledNode + "\"" + " -> " + "\"" + callNode + "\"" + ";\n");
-            } else {
-                calledNode = calledNode.split(" ")[1];
-                callNode = callNode.split(" ")[1];
+        String name = graphName(targetPath);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(grain + "-" + name + ".dot"))) {
+            out.write("digraph " + name.toLowerCase() + "_" + grain + " {\n");
+            //分粒度进行输出
+            for (String s : dotGraph) {
+                int split = s.indexOf(" -> ");
+                String calledNode = s.substring(0, split);
+                String callNode = s.substring(split + 4);
+                if (!"class".equals(grain)) {
+                    calledNode = calledNode.substring(calledNode.indexOf(' ') + 1);
+                    callNode = callNode.substring(callNode.indexOf(' ') + 1);
+                }
                 out.write("\t" + "\"" + calledNode + "\"" + " -> " + "\"" + callNode + "\"" + ";\n");
             }
+            out.write("}");
         }
-        out.write("}");
-        out.close();
-        System.out.println(fileName + "Write Success");
+        System.out.println(name + "Write Success");
     }
 
+    /**
+     * 根据target文件夹所在的项目文件夹得到图的名称，如".../1-ALU/target"得到"ALU"
+     *
+     * @param targetPath target文件夹路径
+     * @return 图的名称
+     */
+    public static String graphName(String targetPath) {
+        File project = new File(targetPath).getAbsoluteFile().getParentFile();
+        String name = project == null ? "graph" : project.getName();
+        int dash = name.indexOf('-');
+        return dash < 0 ? name : name.substring(dash + 1);
+    }
 
     /**
      * 在.dot图上找到changeInfo的闭包
@@ -167,109 +238,82 @@ public class DotUtil {
      * @return 闭包
      */
     public static HashSet<String> findClosure(ArrayList<String> dotGraph, ArrayList<String> changeInfos, String grain) {
+        return findClosure(CallGraphIndex.fromDotGraph(dotGraph, grain), changeInfos, grain);
+    }
+
+    /**
+     * 在已经建好的反向调用图索引上找到changeInfo的闭包
+     *
+     * @param index       反向调用图索引
+     * @param changeInfos .变更信息
+     * @param grain       粒度
+     * @return 闭包
+     */
+    public static HashSet<String> findClosure(CallGraphIndex index, ArrayList<String> changeInfos, String grain) {
         if ("class".equals(grain)) {
-            return findClassClosure(dotGraph, changeInfos);
+            return findClassClosure(index, changeInfos);
         } else {
-            return findMethodClosure(dotGraph, changeInfos);
+            return findMethodClosure(index, changeInfos);
         }
     }
 
+    /**
+     * 在预算内找到变更的闭包
+     *
+     * @param index       对应粒度的反向调用图索引
+     * @param changeInfos .变更信息
+     * @param grain       粒度
+     * @param tests       对应粒度的测试节点，class粒度下为测试类，method粒度下为测试方法
+     * @param budget      预算
+     * @return 闭包，所有测试都已到达或超出预算时返回null
+     */
+    public static HashSet<String> findClosure(CallGraphIndex index, ArrayList<String> changeInfos, String grain, Collection<String> tests, SelectionBudget budget) {
+        return index.closureWithin(closureSeeds(changeInfos, grain), tests, budget);
+    }
+
     /**
      * 方法粒度
-     * 在.dot图上找到changeInfo的闭包
+     * 在反向调用图上找到changeInfo的闭包
      *
-     * @param dotGraph    .dot图
+     * @param index       方法粒度的反向调用图索引
      * @param changeInfos .变更信息
      * @return 闭包
      */
-    private static HashSet<String> findMethodClosure(ArrayList<String> dotGraph, ArrayList<String> changeInfos) {
-        HashSet<String> closure = new HashSet<>();
-        int closureSize = 0;
-        // 第一次找闭包
-        for (String changeInfo : changeInfos) {
-            // dotGraph的每一行被调用者->调用者
-            for (String line : dotGraph) {
-                //line的格式是 类名A 方法a -> 类名B 方法b
-                String calledNode = line.split(" -> ")[0];
-                String callNode = line.split(" -> ")[1];
-                if (calledNode.equals(changeInfo)) {
-                    // 如果被调用者发生了变更，那么加入调用者
-                    closure.add(calledNode);
-                    closure.add(callNode);
-                }
-            }
-        }
-
-        while (closureSize != closure.size()) {
-            //用于存储node，因为遍历的时候不能同时添加元素
-            HashSet<String> nodeStore = new HashSet<String>();
-            closureSize = closure.size();
-            // 对闭包中现有的元素再去找闭包，直到闭包的大小不会再增加
-            for (String c : closure) {
-                for (String line : dotGraph) {
-                    String calledNode = line.split(" -> ")[0];
-                    String callNode = line.split(" -> ")[1];
-                    if (calledNode.equals(c)) {
-                        // 如果被调用者发生了变更，那么加入调用者
-                        nodeStore.add(calledNode);
-                        nodeStore.add(callNode);
-                    }
-                }
-            }
-            closure.addAll(nodeStore);
-        }
-
-        return closure;
+    private static HashSet<String> findMethodClosure(CallGraphIndex index, ArrayList<String> changeInfos) {
+        // 变更信息的格式与节点名称一致：类名A 方法a
+        return index.closure(changeInfos);
     }
 
     /**
      * 类粒度
-     * 在.dot图上找到changeInfo的闭包
+     * 在反向调用图上找到changeInfo的闭包
      *
-     * @param dotGraph    .dot图
+     * @param index       类粒度的反向调用图索引
      * @param changeInfos .变更信息
      * @return 闭包
      */
-    private static HashSet<String> findClassClosure(ArrayList<String> dotGraph, ArrayList<String> changeInfos) {
-        HashSet<String> closure = new HashSet<>();
-        int closureSize = 0;
-        // 第一次找闭包
-        for (String changeInfo : changeInfos) {
-            // dotGraph的每一行被调用者->调用者
-            for (String line : dotGraph) {
-                // 这里的node均是类名
-                // line的格式是 类名A 方法a -> 类名B 方法b
-                String calledNode = line.split(" -> ")[0].split(" ")[0];
-                String callNode = line.split(" -> ")[1].split(" ")[0];
-                if (calledNode.equals(changeInfo.split(" ")[0])) {
-                    // 如果被调用者发生了变更，那么加入调用者
-                    closure.add(calledNode);
-                    closure.add(callNode);
-                }
-            }
-        }
+    private static HashSet<String> findClassClosure(CallGraphIndex index, ArrayList<String> changeInfos) {
+        return index.closure(closureSeeds(changeInfos, "class"));
+    }
 
-        while (closureSize != closure.size()) {
-            //用于存储node，因为遍历的时候不能同时添加元素
-            HashSet<String> nodeStore = new HashSet<String>();
-            closureSize = closure.size();
-            // 对闭包中现有的元素再去找闭包，直到闭包的大小不会再增加
-            for (String c : closure) {
-                for (String line : dotGraph) {
-                    // 这里的node均是类名
-                    String calledNode = line.split(" -> ")[0].split(" ")[0];
-                    String callNode = line.split(" -> ")[1].split(" ")[0];
-                    if (calledNode.equals(c)) {
-                        // 如果被调用者发生了变更，那么加入调用者
-                        nodeStore.add(calledNode);
-                        nodeStore.add(callNode);
-                    }
-                }
-            }
-            closure.addAll(nodeStore);
+    /**
+     * 获取变更信息在对应粒度的图上的起点
+     *
+     * @param changeInfos .变更信息
+     * @param grain       粒度
+     * @return 起点名称
+     */
+    public static List<String> closureSeeds(List<String> changeInfos, String grain) {
+        if (!"class".equals(grain)) {
+            // 变更信息的格式与节点名称一致：类名A 方法a
+            return changeInfos;
         }
-
-        return closure;
+        // 这里的node均是类名，只取变更信息中的类名部分
+        List<String> changedClasses = new ArrayList<>();
+        for (String changeInfo : changeInfos) {
+            changedClasses.add(changeInfo.split(" ")[0]);
+        }
+        return changedClasses;
     }
 
 
@@ -0,0 +1,260 @@
+import com.ibm.wala.classLoader.CallSiteReference;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.ShrikeBTMethod;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.impl.BasicCallGraph;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.annotations.Annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 从WALA的CallGraph中提取调用关系的方法类
+ *
+ * @author csh
+ */
+public class EdgeExtractor {
+
+    /**
+     * 并行处理时每段最少的方法引用数
+     */
+    private static final int PARTITION_SIZE = 2048;
+
+    /**
+     * 直接遍历CGNode的调用点，提取 被调用者 -> 调用者 的边
+     * 节点名称的格式与DotUtil.initialEdges解析出的一致，如"Lnet/mooctest/CMD, <init>()V"
+     *
+     * @param cg          调用图
+     * @param testMethods 用于记录所有的测试方法
+     * @return 方法之间的调用关系
+     */
+    public static CallGraphIndex extract(CallGraph cg, HashSet<String> testMethods) {
+        return extract(cg, testMethods, false);
+    }
+
+    /**
+     * 提取所有调用者的边
+     *
+     * @param cg          调用图
+     * @param testMethods 用于记录所有的测试方法
+     * @param lowMemory   结果是否使用低内存模式的CallGraphIndex
+     * @return 方法之间的调用关系
+     */
+    public static CallGraphIndex extract(CallGraph cg, HashSet<String> testMethods, boolean lowMemory) {
+        return extract(cg, testMethods, null, lowMemory);
+    }
+
+    /**
+     * 只提取指定调用者的边，用于增量更新
+     *
+     * @param cg          调用图
+     * @param testMethods 用于记录指定调用者中的测试方法
+     * @param callers     需要提取的调用者名称，为null时提取所有调用者
+     * @param lowMemory   结果是否使用低内存模式的CallGraphIndex
+     * @return 方法之间的调用关系
+     */
+    public static CallGraphIndex extract(CallGraph cg, HashSet<String> testMethods, Set<String> callers, boolean lowMemory) {
+        return extract(cg, testMethods, callers, lowMemory, 0);
+    }
+
+    /**
+     * 分三步完成：
+     * 先在当前线程遍历调用图（WALA的调用图与IR缓存不是线程安全的），按第一次出现的顺序给每个方法引用分配临时ID，
+     * 记录每个应用方法节点及其调用目标的临时ID；
+     * 再把方法引用与节点按顺序切分成若干段并行处理，生成节点名称、识别测试方法；
+     * 最后依次登记每个名称，得到临时ID到节点ID的映射，按映射写入所有的边。
+     * 每个名称只登记一次，节点ID的顺序和逐个节点顺序处理时相同
+     *
+     * @param cg          调用图
+     * @param testMethods 用于记录指定调用者中的测试方法
+     * @param callers     需要提取的调用者名称，为null时提取所有调用者
+     * @param lowMemory   结果是否使用低内存模式的CallGraphIndex
+     * @param partitions  并行处理的段数，不大于0时按节点数和线程数决定
+     * @return 方法之间的调用关系
+     */
+    static CallGraphIndex extract(CallGraph cg, HashSet<String> testMethods, Set<String> callers, boolean lowMemory, int partitions) {
+        //WALA中的MethodReference是唯一的，作为键比名称字符串便宜
+        HashMap<MethodReference, Integer> refIds = new HashMap<>();
+        ArrayList<MethodReference> refs = new ArrayList<>();
+        ArrayList<ShrikeBTMethod> methods = new ArrayList<>();
+        //每个节点：调用者的临时ID，随后是各个被调用者的临时ID
+        ArrayList<int[]> sites = new ArrayList<>();
+        int[] buffer = new int[16];
+        for (CGNode node : cg) {
+            ShrikeBTMethod method = applicationMethod(node);
+            if (method == null) {
+                continue;
+            }
+            MethodReference reference = method.getReference();
+            if (callers != null && !callers.contains(nodeName(reference))) {
+                continue;
+            }
+            buffer[0] = refId(reference, refIds, refs);
+            int size = 1;
+            Iterator<CallSiteReference> siteIterator = node.iterateCallSites();
+            while (siteIterator.hasNext()) {
+                CallSiteReference site = siteIterator.next();
+                Set<CGNode> siteTargets = cg.getPossibleTargets(node, site);
+                // nodeToString只会输出有调用目标的调用点
+                if (siteTargets.isEmpty()) {
+                    continue;
+                }
+                // 调用点声明的目标方法本身也会被当作被调用者，与原先的字符串解析保持一致
+                MethodReference declaredTarget = site.getDeclaredTarget();
+                if (isApplication(declaredTarget)) {
+                    if (size == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, size * 2);
+                    }
+                    buffer[size++] = refId(declaredTarget, refIds, refs);
+                }
+                for (CGNode target : siteTargets) {
+                    MethodReference targetMethod = target.getMethod().getReference();
+                    if (isApplication(targetMethod)) {
+                        if (size == buffer.length) {
+                            buffer = Arrays.copyOf(buffer, size * 2);
+                        }
+                        buffer[size++] = refId(targetMethod, refIds, refs);
+                    }
+                }
+            }
+            methods.add(method);
+            sites.add(Arrays.copyOf(buffer, size));
+        }
+
+        // 每段至少PARTITION_SIZE个方法引用，较少时只有一段，直接在当前线程完成
+        int count = partitions > 0 ? partitions
+                : Math.max(1, Math.min(refs.size() / PARTITION_SIZE, ForkJoinPool.getCommonPoolParallelism() * 4));
+        String[] names = new String[refs.size()];
+        ArrayList<HashSet<String>> partTests = new ArrayList<>();
+        for (int p = 0; p < count; p++) {
+            partTests.add(new HashSet<>());
+        }
+        IntStream range = IntStream.range(0, count);
+        (count > 1 ? range.parallel() : range).forEach(p -> {
+            for (int i = (int) ((long) refs.size() * p / count); i < (long) refs.size() * (p + 1) / count; i++) {
+                names[i] = nodeName(refs.get(i));
+            }
+            for (int i = (int) ((long) methods.size() * p / count); i < (long) methods.size() * (p + 1) / count; i++) {
+                collectTestMethod(methods.get(i), partTests.get(p));
+            }
+        });
+        for (HashSet<String> tests : partTests) {
+            testMethods.addAll(tests);
+        }
+
+        CallGraphIndex edges = new CallGraphIndex(lowMemory);
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = edges.intern(names[i]);
+        }
+        for (int[] site : sites) {
+            for (int k = 1; k < site.length; k++) {
+                edges.addEdge(ids[site[k]], ids[site[0]]);
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * @param reference 方法引用
+     * @param refIds    方法引用 -> 临时ID
+     * @param refs      临时ID -> 方法引用
+     * @return 方法引用的临时ID，第一次出现时分配
+     */
+    private static int refId(MethodReference reference, HashMap<MethodReference, Integer> refIds, ArrayList<MethodReference> refs) {
+        Integer id = refIds.get(reference);
+        if (id == null) {
+            id = refs.size();
+            refIds.put(reference, id);
+            refs.add(reference);
+        }
+        return id;
+    }
+
+    /**
+     * 旧的提取方式，将每个节点转换为BasicCallGraph.nodeToString的字符串，交给DotUtil.initialEdges解析
+     * 只用于调试和对比
+     *
+     * @param cg          调用图
+     * @param testMethods 用于记录所有的测试方法
+     * @return 所有节点的字符串
+     */
+    public static ArrayList<String> extractNodeStrings(CallGraph cg, HashSet<String> testMethods) {
+        ArrayList<String> nodes = new ArrayList<>();
+        for (CGNode node : cg) {
+            ShrikeBTMethod method = applicationMethod(node);
+            if (method != null) {
+                //添加节点信息
+                nodes.add(BasicCallGraph.nodeToString(cg, node));
+                collectTestMethod(method, testMethods);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * node中包含了很多信息，包括类加载器、方法信息等，这里只筛选出需要的信息
+     *
+     * @param node 调用图节点
+     * @return 由Application类加载器加载的方法，其他情况返回null
+     */
+    private static ShrikeBTMethod applicationMethod(CGNode node) {
+        //node.getMethod()返回一个比较泛化的IMethod实例，不能获取到我们想要的信息
+        //一般地，本项目中所有和业务逻辑相关的方法都是ShrikeBTMethod对象
+        IMethod method = node.getMethod();
+        if (!(method instanceof ShrikeBTMethod)) {
+            return null;
+        }
+        //使用Primordial类加载器加载的类都属于Java原生类，我们一般不关心。
+        if (!"Application".equals(method.getDeclaringClass().getClassLoader().toString())) {
+            return null;
+        }
+        return (ShrikeBTMethod) method;
+    }
+
+    /**
+     * 如果方法带有测试注解（JUnit 4或JUnit 5的@Test等，见TestEntrypoints.TEST_ANNOTATIONS），则加入testMethods中
+     *
+     * @param method      方法
+     * @param testMethods 所有测试方法的集合
+     */
+    private static void collectTestMethod(ShrikeBTMethod method, HashSet<String> testMethods) {
+        //注意此处的Annotation类是wala中的，按注解的类型名匹配，不区分类加载器
+        Collection<Annotation> annotations = method.getAnnotations();
+        for (Annotation annotation : annotations) {
+            //WALA的类型名没有结尾的';'
+            if (TestEntrypoints.TEST_ANNOTATIONS.contains(annotation.getType().getName().toString() + ";")) {
+                String signature = method.getSignature();
+                String innerClass = method.getDeclaringClass().getName().toString();
+                testMethods.add(innerClass + " " + signature);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param reference 方法引用
+     * @return 方法所在的类是否由Application类加载器加载
+     */
+    private static boolean isApplication(MethodReference reference) {
+        return ClassLoaderReference.Application.equals(reference.getDeclaringClass().getClassLoader());
+    }
+
+    /**
+     * @param reference 方法引用
+     * @return 节点名称，格式为"类名, 方法选择子"
+     */
+    static String nodeName(MethodReference reference) {
+        return reference.getDeclaringClass().getName().toString() + ", " + reference.getSelector().toString();
+    }
+}
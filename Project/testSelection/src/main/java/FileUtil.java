@@ -1,9 +1,21 @@
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
 
 /**
  * 文件操作相关的方法类
@@ -12,6 +24,11 @@ import java.util.HashSet;
  */
 public class FileUtil {
 
+    /**
+     * 超过这个大小的文件在计算哈希时使用内存映射
+     */
+    private static final long MAP_THRESHOLD = 1 << 16;
+
     /**
      * 获取target文件夹下classes与test-classes下的所有.class文件
      *
@@ -19,20 +36,7 @@ public class FileUtil {
      * @return 包含所有.class文件的数组
      */
     public static ArrayList<File> getClassFiles(String path) {
-        //生成完整路径
-        File classesDirectory = new File(path + "/classes/");
-        File testClassesDirectory = new File(path + "/test-classes/");
-        //获取文件列表
-        ArrayList<File> classesList = new ArrayList<>();
-        ArrayList<File> testClassesList = new ArrayList<>();
-        //读取所有文件
-        readFiles(classesDirectory.listFiles(), classesList);
-        readFiles(testClassesDirectory.listFiles(), testClassesList);
-        //拼接
-        ArrayList<File> result = new ArrayList<>();
-        result.addAll(classesList);
-        result.addAll(testClassesList);
-        return result;
+        return ClassInventory.scan(path).getClassFiles();
     }
 
     /**
@@ -42,34 +46,150 @@ public class FileUtil {
      * @return 测试类文件名列表
      */
     public static ArrayList<String> getTestFileNames(String path) {
-        //生成完整路径
-        File testClassesDirectory = new File(path + "/test-classes/");
-        //获取文件列表
-        ArrayList<File> testClassesList = new ArrayList<>();
-        //读取所有文件
-        readFiles(testClassesDirectory.listFiles(), testClassesList);
-        //最终结果记录的是去掉后缀的文件名，不含包名
-        ArrayList<String> result = new ArrayList<>();
-        for (File file : testClassesList) {
-            result.add(file.getName().split("\\.")[0]);
+        return ClassInventory.scan(path).getTestFileNames();
+    }
+
+    /**
+     * 计算所有.class文件的内容哈希，用作调用关系缓存的键
+     *
+     * @param path       target文件夹路径
+     * @param classFiles 所有.class文件
+     * @return 相对于target文件夹的路径 -> SHA-1哈希
+     * @throws IOException
+     */
+    public static TreeMap<String, String> hashClassFiles(String path, ArrayList<File> classFiles) throws IOException {
+        // 多个文件并行计算哈希，在网络文件系统上主要的开销是IO等待
+        String[] hashes = new String[classFiles.size()];
+        try {
+            IntStream.range(0, hashes.length).parallel().forEach(i -> {
+                try {
+                    hashes[i] = hash(classFiles.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int i = 0; i < hashes.length; i++) {
+            result.put(relativePath(path, classFiles.get(i)), hashes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 记录所有.class文件的修改时间与大小，用于快速判断文件是否可能发生变化
+     *
+     * @param path       target文件夹路径
+     * @param classFiles 所有.class文件
+     * @return 相对于target文件夹的路径 -> 修改时间:大小
+     */
+    public static TreeMap<String, String> stampClassFiles(String path, ArrayList<File> classFiles) {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (File file : classFiles) {
+            result.put(relativePath(path, file), file.lastModified() + ":" + file.length());
         }
         return result;
     }
 
     /**
-     * 递归读取文件夹中的文件到result中
+     * 确保文件夹存在，不存在时创建
      *
-     * @param files  文件夹子目录列表
-     * @param result 存储的结果
+     * @param path 文件夹路径
+     * @return 文件夹
+     * @throws IOException
+     */
+    public static File ensureDirectory(String path) throws IOException {
+        File directory = new File(path);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * 获取文件相对于target文件夹的路径，分隔符统一为/
+     *
+     * @param path target文件夹路径
+     * @param file 文件
+     * @return 相对路径，如"classes/net/mooctest/CMD.class"
      */
-    private static void readFiles(File[] files, ArrayList<File> result) {
-        for (File file : files) {
-            if (file.isDirectory()) {
-                readFiles(file.listFiles(), result);
+    public static String relativePath(String path, File file) {
+        String root = new File(path).getAbsoluteFile().toURI().getPath();
+        String filePath = file.getAbsoluteFile().toURI().getPath();
+        if (filePath.startsWith(root)) {
+            filePath = filePath.substring(root.length());
+        }
+        return filePath;
+    }
+
+    /**
+     * 根据.class文件相对于target文件夹的路径得到类名
+     *
+     * @param relativePath 相对路径，如"classes/net/mooctest/CMD.class"
+     * @return 类名，如"Lnet/mooctest/CMD"，不是.class文件时返回null
+     */
+    public static String classNameOf(String relativePath) {
+        if (!relativePath.endsWith(".class")) {
+            return null;
+        }
+        // 去掉classes/或test-classes/
+        String name = relativePath.substring(relativePath.indexOf('/') + 1);
+        return "L" + name.substring(0, name.length() - ".class".length());
+    }
+
+    /**
+     * 读取输入流中的所有内容
+     *
+     * @param in 输入流，不会被关闭
+     * @return 所有字节
+     * @throws IOException
+     */
+    public static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 计算单个文件的SHA-1哈希
+     *
+     * @param file 文件
+     * @return 十六进制的哈希值
+     * @throws IOException
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                // 较大的文件（如jar）直接映射到内存，不必复制到堆上
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
             } else {
-                result.add(file);
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // 读满为止
+                }
+                // 转为Buffer再调用，避免用高版本JDK编译后在JDK 8上找不到ByteBuffer.flip()
+                ((Buffer) buffer).flip();
+                digest.update(buffer);
             }
         }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
     }
 
     /**
@@ -77,12 +197,52 @@ public class FileUtil {
      * @param grain  粒度
      * @throws IOException
      */
-    public static void resultToFile(HashSet<String> result, String grain) throws IOException {
-        BufferedWriter out = new BufferedWriter(new FileWriter("./selection-" + grain + ".txt"));
+    public static void resultToFile(Collection<String> result, String grain) throws IOException {
+        resultToFile(result, new File("./selection-" + grain + ".txt"));
+    }
+
+    /**
+     * @param result 测试选择的结果
+     * @param file   输出文件
+     * @throws IOException
+     */
+    public static void resultToFile(Collection<String> result, File file) throws IOException {
+        BufferedWriter out = new BufferedWriter(new FileWriter(file));
         for (String s : result) {
             out.write(s + "\n");
         }
         out.close();
     }
 
+    /**
+     * 选择结果旁记录闭包计算提前停止原因的文件，如 selection-method.txt 对应 selection-method.stop
+     *
+     * @param selectionFile 选择结果文件
+     * @return 记录停止原因的文件
+     */
+    public static File stopReasonFile(File selectionFile) {
+        String name = selectionFile.getName();
+        String base = name.endsWith(".txt") ? name.substring(0, name.length() - ".txt".length()) : name;
+        return new File(selectionFile.getAbsoluteFile().getParentFile(), base + ".stop");
+    }
+
+    /**
+     * 在选择结果旁写入一行"selectionStop=原因"；没有提前停止时删除上一次留下的文件，
+     * 下游只需检查文件是否存在，就能知道结果是否因为预算而退化为选择所有测试
+     *
+     * @param reason        停止的原因，为null时表示没有提前停止
+     * @param selectionFile 选择结果文件
+     * @throws IOException
+     */
+    public static void stopReasonToFile(String reason, File selectionFile) throws IOException {
+        File file = stopReasonFile(selectionFile);
+        if (reason == null) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        BufferedWriter out = new BufferedWriter(new FileWriter(file));
+        out.write("selectionStop=" + reason + "\n");
+        out.close();
+    }
+
 }
@@ -0,0 +1,259 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 方法粒度调用关系的磁盘缓存
+ * 缓存以所有.class文件的内容哈希为键，输入不变时可以直接跳过WALA的分析。
+ * 调用关系还依赖于JDK与scope.txt、exclusion.txt，它们发生变化时整个缓存都作废
+ * <p>
+ * 文件格式（DataOutputStream）：
+ * MAGIC, VERSION, 原生类的键, 调用图精度, 进入点, 文件数, (相对路径, 哈希)..., 类文件数, (相对路径, 形状)..., 节点数, 节点名称..., 边数, (被调用者ID, 调用者ID)..., 测试方法数, 测试方法...
+ *
+ * @author csh
+ */
+public class GraphCache {
+
+    private static final int MAGIC = 0x54534347;
+    private static final int VERSION = 6;
+
+    /**
+     * 读取以相同的调用图精度与进入点生成的缓存，不检查文件哈希。
+     * 命中与否由Snapshot.isHit判断，未命中时可以用于增量更新
+     *
+     * @param cacheFile 缓存文件
+     * @param analysis  调用图的精度
+     * @param entry     调用图的进入点
+     * @param lowMemory 调用关系是否读入低内存模式的CallGraphIndex
+     * @return 缓存内容，不可用或者以其他精度、进入点生成时返回null
+     */
+    public static Snapshot read(File cacheFile, String analysis, String entry, boolean lowMemory) {
+        Snapshot snapshot = read(cacheFile, lowMemory);
+        //用其他精度或进入点生成的缓存只能丢弃
+        if (snapshot == null || !analysis.equals(snapshot.analysis) || !entry.equals(snapshot.entry)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * 读取缓存的全部内容，不检查文件哈希，用于增量更新
+     *
+     * @param cacheFile 缓存文件
+     * @return 缓存内容，文件不存在、已损坏或JDK与原生类的配置发生变化时返回null
+     */
+    public static Snapshot read(File cacheFile) {
+        return read(cacheFile, false);
+    }
+
+    /**
+     * 读取缓存的全部内容，不检查文件哈希，用于增量更新
+     *
+     * @param cacheFile 缓存文件
+     * @param lowMemory 调用关系是否读入低内存模式的CallGraphIndex
+     * @return 缓存内容，文件不存在、已损坏或JDK与原生类的配置发生变化时返回null
+     */
+    public static Snapshot read(File cacheFile, boolean lowMemory) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !PrimordialSnapshot.environmentKey().equals(in.readUTF())) {
+                return null;
+            }
+            Snapshot snapshot = new Snapshot();
+            snapshot.analysis = in.readUTF();
+            snapshot.entry = in.readUTF();
+            snapshot.fileHashes = readHashes(in);
+            snapshot.classShapes = readHashes(in);
+            snapshot.edges = readEdges(in, lowMemory);
+            int testCount = in.readInt();
+            for (int i = 0; i < testCount; i++) {
+                snapshot.testMethods.add(in.readUTF());
+            }
+            return snapshot;
+        } catch (IOException e) {
+            // 缓存损坏时当作未命中处理
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存
+     *
+     * @param cacheFile   缓存文件
+     * @param analysis    生成调用关系时调用图的精度
+     * @param entry       生成调用关系时调用图的进入点
+     * @param fileHashes  所有.class文件的哈希
+     * @param edges       方法之间的调用关系
+     * @param testMethods 所有的测试方法
+     * @throws IOException
+     */
+    public static void save(File cacheFile, String analysis, String entry, TreeMap<String, String> fileHashes, CallGraphIndex edges, HashSet<String> testMethods) throws IOException {
+        save(cacheFile, analysis, entry, fileHashes, new TreeMap<>(), edges, testMethods);
+    }
+
+    /**
+     * 写入缓存，同时记录类的形状，用于之后的增量更新
+     *
+     * @param cacheFile   缓存文件
+     * @param analysis    生成调用关系时调用图的精度
+     * @param entry       生成调用关系时调用图的进入点
+     * @param fileHashes  所有.class文件的哈希
+     * @param classShapes 所有.class文件的形状，见IncrementalUpdater.shapeClassFiles
+     * @param edges       方法之间的调用关系
+     * @param testMethods 所有的测试方法
+     * @throws IOException
+     */
+    public static void save(File cacheFile, String analysis, String entry, TreeMap<String, String> fileHashes, TreeMap<String, String> classShapes, CallGraphIndex edges, HashSet<String> testMethods) throws IOException {
+        // 先写临时文件再替换，避免中断时留下不完整的缓存
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(PrimordialSnapshot.environmentKey());
+            out.writeUTF(analysis);
+            out.writeUTF(entry);
+            writeHashes(out, fileHashes);
+            writeHashes(out, classShapes);
+            writeEdges(out, edges);
+            out.writeInt(testMethods.size());
+            for (String testMethod : testMethods) {
+                out.writeUTF(testMethod);
+            }
+        }
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            throw new IOException("cannot replace " + cacheFile);
+        }
+        if (!tmp.renameTo(cacheFile)) {
+            throw new IOException("cannot write " + cacheFile);
+        }
+    }
+
+    /**
+     * 写入文件哈希
+     *
+     * @param out        输出流
+     * @param fileHashes 所有.class文件的哈希
+     * @throws IOException
+     */
+    static void writeHashes(DataOutputStream out, TreeMap<String, String> fileHashes) throws IOException {
+        out.writeInt(fileHashes.size());
+        for (Map.Entry<String, String> entry : fileHashes.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    /**
+     * 读取文件哈希
+     *
+     * @param in 输入流
+     * @return 所有.class文件的哈希
+     * @throws IOException
+     */
+    static TreeMap<String, String> readHashes(DataInputStream in) throws IOException {
+        TreeMap<String, String> fileHashes = new TreeMap<>();
+        int fileCount = in.readInt();
+        for (int i = 0; i < fileCount; i++) {
+            String path = in.readUTF();
+            fileHashes.put(path, in.readUTF());
+        }
+        return fileHashes;
+    }
+
+    /**
+     * 写入调用关系：先写节点名称表，边只记录节点ID
+     *
+     * @param out   输出流
+     * @param edges 调用关系
+     * @throws IOException
+     */
+    static void writeEdges(DataOutputStream out, CallGraphIndex edges) throws IOException {
+        out.writeInt(edges.nodeCount());
+        for (int i = 0; i < edges.nodeCount(); i++) {
+            out.writeUTF(edges.name(i));
+        }
+        out.writeInt(edges.edgeCount());
+        IOException[] error = new IOException[1];
+        edges.forEachEdge((called, call) -> {
+            try {
+                out.writeInt(called);
+                out.writeInt(call);
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    /**
+     * 读取调用关系
+     *
+     * @param in        输入流
+     * @param lowMemory 是否使用低内存模式
+     * @return 调用关系
+     * @throws IOException
+     */
+    static CallGraphIndex readEdges(DataInputStream in, boolean lowMemory) throws IOException {
+        CallGraphIndex edges = new CallGraphIndex(lowMemory);
+        int nodeCount = in.readInt();
+        for (int i = 0; i < nodeCount; i++) {
+            edges.intern(in.readUTF());
+        }
+        int edgeCount = in.readInt();
+        for (int i = 0; i < edgeCount; i++) {
+            int called = in.readInt();
+            edges.addEdge(called, in.readInt());
+        }
+        return edges;
+    }
+
+    /**
+     * 缓存的内容
+     */
+    public static class Snapshot {
+        /**
+         * 生成缓存时调用图的精度，不同精度的调用关系不能混用
+         */
+        public String analysis = CallGraphFactory.ZERO_CFA;
+        /**
+         * 生成缓存时调用图的进入点
+         */
+        public String entry = TestEntrypoints.ALL;
+        /**
+         * 生成缓存时所有.class文件的哈希
+         */
+        public TreeMap<String, String> fileHashes;
+        /**
+         * 生成缓存时所有.class文件的形状，没有记录时为空
+         */
+        public TreeMap<String, String> classShapes = new TreeMap<>();
+        /**
+         * 方法之间的调用关系
+         */
+        public CallGraphIndex edges;
+        /**
+         * 所有的测试方法
+         */
+        public HashSet<String> testMethods = new HashSet<>();
+
+        /**
+         * @param fileHashes 当前所有.class文件的哈希
+         * @return 缓存是否命中，即所有文件的哈希都与生成缓存时完全一致
+         */
+        public boolean isHit(TreeMap<String, String> fileHashes) {
+            return fileHashes.equals(this.fileHashes);
+        }
+    }
+}
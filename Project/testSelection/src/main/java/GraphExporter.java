@@ -0,0 +1,225 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 调用图的导出
+ * .dot：直接从CallGraphIndex按节点名称顺序流式写出，不再先拼出整张图的字符串集合再排序；
+ * .edges：紧凑的二进制边表，读取时映射到内存，得到以映射的内存为后备的只读视图MappedEdgeList
+ * <p>
+ * .edges格式：MAGIC、VERSION（int），节点数（varint），每个节点名称的UTF-8字节数（varint）与字节，
+ * 边数（varint），然后按被调用者ID依次写出调用者个数与升序排列的调用者ID的差值（均为varint）
+ * <p>
+ * 也可单独运行，把.edges转换为.dot：GraphExporter 输入.edges 输出.dot class|method
+ *
+ * @author csh
+ */
+public class GraphExporter {
+
+    private static final int MAGIC = 0x54534745;
+    private static final int VERSION = 1;
+
+    /**
+     * 可以导出为.dot的反向调用图：CallGraphIndex或映射到内存的MappedEdgeList
+     */
+    public interface ReverseGraph {
+        int nodeCount();
+
+        String name(int id);
+
+        int callerCount(int called);
+
+        /**
+         * @param called 被调用者ID
+         * @param out    用于记录升序排列的调用者ID，长度不小于callerCount
+         * @return 调用者个数
+         */
+        int callers(int called, int[] out);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("usage: GraphExporter <in.edges> <out.dot> class|method");
+        }
+        File out = new File(args[1]);
+        String name = out.getName().replaceAll("\\..*$", "").replaceAll("[^A-Za-z0-9_]", "_");
+        writeDot(readBinary(new File(args[0])), args[2], name, out);
+    }
+
+    /**
+     * 流式写出.dot图，边按 被调用者、调用者 的名称排序
+     *
+     * @param index     反向调用图
+     * @param grain     粒度，method粒度下节点只输出方法名部分
+     * @param graphName 图的名称
+     * @param file      输出文件
+     * @throws IOException
+     */
+    public static void writeDot(CallGraphIndex index, String grain, String graphName, File file) throws IOException {
+        writeDot(new ReverseGraph() {
+            @Override
+            public int nodeCount() {
+                return index.nodeCount();
+            }
+
+            @Override
+            public String name(int id) {
+                return index.name(id);
+            }
+
+            @Override
+            public int callerCount(int called) {
+                return index.callerCount(called);
+            }
+
+            @Override
+            public int callers(int called, int[] out) {
+                int count = index.callerCount(called);
+                for (int k = 0; k < count; k++) {
+                    out[k] = index.caller(called, k);
+                }
+                return count;
+            }
+        }, grain, graphName, file);
+    }
+
+    /**
+     * 流式写出.dot图，边按 被调用者、调用者 的名称排序
+     *
+     * @param index     反向调用图
+     * @param grain     粒度，method粒度下节点只输出方法名部分
+     * @param graphName 图的名称
+     * @param file      输出文件
+     * @throws IOException
+     */
+    public static void writeDot(ReverseGraph index, String grain, String graphName, File file) throws IOException {
+        int[] rank = new int[index.nodeCount()];
+        String[] names = new String[index.nodeCount()];
+        Integer[] order = sortedNodes(index, names, rank);
+        boolean method = !"class".equals(grain);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write("digraph " + graphName + " {\n");
+            int[] callers = new int[16];
+            for (int called : order) {
+                int count = index.callerCount(called);
+                if (count == 0) {
+                    continue;
+                }
+                if (callers.length < count) {
+                    callers = new int[Math.max(count, callers.length * 2)];
+                }
+                // 按名称顺序排列调用者：先换成名次排序，再换回节点ID
+                index.callers(called, callers);
+                for (int k = 0; k < count; k++) {
+                    callers[k] = rank[callers[k]];
+                }
+                Arrays.sort(callers, 0, count);
+                String calledLabel = label(names[called], method);
+                for (int k = 0; k < count; k++) {
+                    out.write("\t\"");
+                    out.write(calledLabel);
+                    out.write("\" -> \"");
+                    out.write(label(names[order[callers[k]]], method));
+                    out.write("\";\n");
+                }
+            }
+            out.write("}");
+        }
+    }
+
+    /**
+     * 写出二进制边表
+     *
+     * @param index 调用关系
+     * @param file  输出文件
+     * @throws IOException
+     */
+    public static void writeBinary(CallGraphIndex index, File file) throws IOException {
+        // 先写临时文件再替换，避免中断时留下不完整的文件
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int n = index.nodeCount();
+            writeVarint(out, n);
+            for (int i = 0; i < n; i++) {
+                byte[] bytes = index.name(i).getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, bytes.length);
+                out.write(bytes);
+            }
+            writeVarint(out, index.edgeCount());
+            for (int called = 0; called < n; called++) {
+                int count = index.callerCount(called);
+                writeVarint(out, count);
+                // CSR中的调用者已经升序排列，只记录差值
+                int previous = 0;
+                for (int k = 0; k < count; k++) {
+                    int call = index.caller(called, k);
+                    writeVarint(out, call - previous);
+                    previous = call;
+                }
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("cannot replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("cannot write " + file);
+        }
+    }
+
+    /**
+     * 读取二进制边表：文件映射到内存并检查一遍，节点名称与调用者在访问时才解码
+     *
+     * @param file 输入文件
+     * @return 只读视图
+     * @throws IOException 文件格式不符或不完整
+     */
+    public static MappedEdgeList readBinary(File file) throws IOException {
+        return MappedEdgeList.open(file, MAGIC, VERSION);
+    }
+
+    /**
+     * @param index 调用图
+     * @param names 用于记录每个节点ID的名称，排序与写出时每个名称只解码一次
+     * @param rank  用于记录每个节点ID按名称排序后的名次
+     * @return 按名称排序的节点ID
+     */
+    private static Integer[] sortedNodes(ReverseGraph index, String[] names, int[] rank) {
+        Integer[] order = new Integer[index.nodeCount()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            names[i] = index.name(i);
+        }
+        Arrays.sort(order, Comparator.comparing(i -> names[i]));
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+        }
+        return order;
+    }
+
+    /**
+     * @param node   节点名称
+     * @param method 是否是method粒度
+     * @return .dot中的节点名称，method粒度下去掉前面的类名，如"net.mooctest.CMD.<init>()V"
+     */
+    private static String label(String node, boolean method) {
+        return method ? node.substring(node.indexOf(' ') + 1) : node;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,262 @@
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.Entrypoint;
+import com.ibm.wala.ipa.callgraph.impl.ArgumentTypeEntrypoint;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.shrikeCT.ClassReader;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.TypeReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * 调用关系的增量更新
+ * 根据缓存中的文件哈希找出变更的类，只重新分析这些类中的方法，其余方法的边直接沿用缓存中的结果。
+ * <p>
+ * 只有在一个方法的出边只取决于它自己的代码与类层次关系时这样做才是正确的，因此：
+ * 只支持CHA精度，RTA与0-CFA中实例化的类型与指针指向的对象是全局的，任何方法的变化都可能改变其他方法的调用目标；
+ * 有类新增或删除，或者变更的类的父类、接口、修饰符或声明的方法（即类的形状）发生变化时，
+ * 其他方法的调用点的派发目标也可能改变。这些情况都返回null，由调用者完整重建
+ *
+ * @author csh
+ */
+public class IncrementalUpdater {
+
+    /**
+     * 在上一次的调用关系上打补丁
+     *
+     * @param previous    上一次缓存的内容
+     * @param fileHashes  当前所有.class文件的哈希
+     * @param classShapes 当前所有.class文件的形状（见shapeClassFiles）
+     * @param classFiles  当前所有classFile
+     * @param testMethods 用于记录所有的测试方法
+     * @return 更新后的方法之间的调用关系，不能增量更新时返回null，需要完整重建
+     * @throws Exception
+     */
+    public static CallGraphIndex update(GraphCache.Snapshot previous, TreeMap<String, String> fileHashes, TreeMap<String, String> classShapes, ArrayList<File> classFiles, HashSet<String> testMethods) throws Exception {
+        return update(previous, fileHashes, classShapes, classFiles, testMethods, null);
+    }
+
+    /**
+     * 在上一次的调用关系上打补丁，Java原生类可以从快照中读取
+     *
+     * @param previous        上一次缓存的内容
+     * @param fileHashes      当前所有.class文件的哈希
+     * @param classShapes     当前所有.class文件的形状（见shapeClassFiles）
+     * @param classFiles      当前所有classFile
+     * @param testMethods     用于记录所有的测试方法
+     * @param primordialCache Java原生类快照所在的文件夹，为null时从scope.txt读取原生类
+     * @return 更新后的方法之间的调用关系，不能增量更新时返回null，需要完整重建
+     * @throws Exception
+     */
+    public static CallGraphIndex update(GraphCache.Snapshot previous, TreeMap<String, String> fileHashes, TreeMap<String, String> classShapes, ArrayList<File> classFiles, HashSet<String> testMethods, File primordialCache) throws Exception {
+        // 增量更新把变更类中的所有方法都作为进入点，只有原本就以所有应用方法为进入点时结果才一致
+        if (!CallGraphFactory.CHA.equals(previous.analysis) || !TestEntrypoints.ALL.equals(previous.entry)) {
+            return null;
+        }
+        // 没有文件新增或删除，所以两边的文件相同
+        if (!fileHashes.keySet().equals(previous.fileHashes.keySet())) {
+            return null;
+        }
+        // 只有方法体变化的类，其中所有方法都需要重新分析
+        HashSet<String> dirtyClasses = new HashSet<>();
+        for (Map.Entry<String, String> entry : fileHashes.entrySet()) {
+            if (entry.getValue().equals(previous.fileHashes.get(entry.getKey()))) {
+                continue;
+            }
+            String className = FileUtil.classNameOf(entry.getKey());
+            String shape = classShapes.get(entry.getKey());
+            // jar中具体哪些类发生了变化无从得知；形状变化时派发目标可能改变，都只能完整重建
+            if (className == null || shape == null || !shape.equals(previous.classShapes.get(entry.getKey()))) {
+                return null;
+            }
+            dirtyClasses.add(className);
+        }
+
+        AnalysisScope scope = CallGraphFactory.makeScope(classFiles, new ArrayList<>(), primordialCache);
+        CallGraphIndex old = previous.edges;
+        // 重新提取了出边的方法
+        HashSet<String> callers = new HashSet<>();
+        CallGraphIndex fresh;
+        try {
+            fresh = extractDirty(scope, dirtyClasses, previous.analysis, callers, testMethods, old.isLowMemory());
+        } finally {
+            CallGraphFactory.close(scope);
+        }
+
+        // 合并：变更类中方法的旧出边全部丢弃，其他方法的边保持不变
+        CallGraphIndex edges = new CallGraphIndex(old.isLowMemory());
+        old.forEachEdge((called, call) -> {
+            String callNode = old.name(call);
+            if (!dirtyClasses.contains(DotUtil.classNode(callNode))) {
+                edges.addEdge(old.name(called), callNode);
+            }
+        });
+        fresh.forEachEdge((called, call) -> edges.addEdge(fresh.name(called), fresh.name(call)));
+
+        // 未变更类中的测试方法沿用缓存
+        for (String testMethod : previous.testMethods) {
+            if (!dirtyClasses.contains(CallGraphIndex.nodeClass(testMethod))) {
+                testMethods.add(testMethod);
+            }
+        }
+        PhaseMetrics.count("incrementalClasses", dirtyClasses.size());
+        PhaseMetrics.count("incrementalMethods", callers.size());
+        return edges;
+    }
+
+    /**
+     * 以变更类中的方法为进入点构建调用图，只提取它们作为调用者的边。
+     * CHA中每个方法的出边只取决于它自己的调用点与类层次关系
+     *
+     * @param scope        分析范围
+     * @param dirtyClasses 变更的类
+     * @param analysis     调用图的精度
+     * @param callers      用于记录重新提取了出边的方法
+     * @param testMethods  用于记录变更类中的测试方法
+     * @param lowMemory    是否使用低内存模式
+     * @return 变更类中方法的出边
+     * @throws Exception
+     */
+    private static CallGraphIndex extractDirty(AnalysisScope scope, HashSet<String> dirtyClasses, String analysis, HashSet<String> callers, HashSet<String> testMethods, boolean lowMemory) throws Exception {
+        ClassHierarchy cha = CallGraphFactory.makeHierarchy(scope);
+        ArrayList<Entrypoint> entryPoints = new ArrayList<>();
+        for (String className : dirtyClasses) {
+            IClass klass = cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Application, className));
+            if (klass == null || klass.isInterface()) {
+                continue;
+            }
+            for (IMethod method : klass.getDeclaredMethods()) {
+                // 与AllApplicationEntrypoints一致，非抽象方法才作为进入点
+                if (!method.isAbstract() && callers.add(EdgeExtractor.nodeName(method.getReference()))) {
+                    entryPoints.add(new ArgumentTypeEntrypoint(method, cha));
+                }
+            }
+        }
+        CallGraph cg = CallGraphFactory.makeCallGraph(scope, cha, entryPoints, analysis);
+        return EdgeExtractor.extract(cg, testMethods, callers, lowMemory);
+    }
+
+    /**
+     * 计算所有.class文件的形状：修饰符、父类、接口与声明的方法（名称、描述符与修饰符），不包括方法体。
+     * 形状不变时，CHA中任何调用点的派发目标都不会改变
+     *
+     * @param path       target文件夹路径
+     * @param classFiles 所有classFile，jar会被忽略
+     * @return 相对于target文件夹的路径 -> 形状的SHA-1哈希
+     * @throws IOException
+     */
+    public static TreeMap<String, String> shapeClassFiles(String path, ArrayList<File> classFiles) throws IOException {
+        String[] shapes = new String[classFiles.size()];
+        try {
+            IntStream.range(0, shapes.length).parallel().forEach(i -> {
+                File file = classFiles.get(i);
+                if (file.getName().endsWith(".class")) {
+                    try {
+                        shapes[i] = shape(Files.readAllBytes(file.toPath()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int i = 0; i < shapes.length; i++) {
+            if (shapes[i] != null) {
+                result.put(FileUtil.relativePath(path, classFiles.get(i)), shapes[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param bytes 类文件
+     * @return 类的形状的SHA-1哈希，无法解析时返回空字符串，与任何形状都不同
+     */
+    static String shape(byte[] bytes) {
+        StringBuilder shape = new StringBuilder();
+        try {
+            ClassReader reader = new ClassReader(bytes);
+            shape.append(reader.getAccessFlags()).append(' ').append(reader.getSuperName());
+            for (String superInterface : reader.getInterfaceNames()) {
+                shape.append(' ').append(superInterface);
+            }
+            ArrayList<String> methods = new ArrayList<>();
+            for (int m = 0; m < reader.getMethodCount(); m++) {
+                methods.add(reader.getMethodName(m) + reader.getMethodType(m) + " " + reader.getMethodAccessFlags(m));
+            }
+            // 方法在类文件中的顺序与派发无关
+            Collections.sort(methods);
+            for (String method : methods) {
+                shape.append('\n').append(method);
+            }
+        } catch (InvalidClassFileException e) {
+            return "";
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(shape.toString().getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 比较增量更新与完整重建的结果
+     *
+     * @param incremental 增量更新得到的调用关系
+     * @param full        完整重建得到的调用关系
+     * @return 两者是否完全一致
+     */
+    public static boolean verify(CallGraphIndex incremental, CallGraphIndex full) {
+        HashSet<String> incrementalEdges = edgeSet(incremental);
+        HashSet<String> fullEdges = edgeSet(full);
+        int missing = 0;
+        for (String edge : fullEdges) {
+            if (!incrementalEdges.contains(edge)) {
+                missing++;
+            }
+        }
+        int extra = 0;
+        for (String edge : incrementalEdges) {
+            if (!fullEdges.contains(edge)) {
+                extra++;
+            }
+        }
+        PhaseMetrics.count("incrementalMissingEdges", missing);
+        PhaseMetrics.count("incrementalExtraEdges", extra);
+        return missing == 0 && extra == 0;
+    }
+
+    /**
+     * @param edges 调用关系
+     * @return 所有的边，格式为 被调用者 -> 调用者
+     */
+    private static HashSet<String> edgeSet(CallGraphIndex edges) {
+        HashSet<String> result = new HashSet<>();
+        edges.forEachEdge((called, call) -> result.add(edges.name(called) + " -> " + edges.name(call)));
+        return result;
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 映射到内存的.edges文件（格式见GraphExporter）的只读视图
+ * 打开时顺序扫描一遍并检查整个文件，只记录每个节点名称与调用者列表在文件中的偏移，
+ * 节点名称与调用者在访问时才从映射的内存中解码，堆上只占用每个节点两个int
+ *
+ * @author csh
+ */
+public class MappedEdgeList implements GraphExporter.ReverseGraph {
+
+    private final ByteBuffer data;
+    /**
+     * 节点ID -> 名称长度varint的偏移，名称的UTF-8字节紧随其后
+     */
+    private final int[] nameOffsets;
+    /**
+     * 节点ID -> 调用者个数varint的偏移
+     */
+    private final int[] callerOffsets;
+    private final int edgeCount;
+
+    private MappedEdgeList(ByteBuffer data, int[] nameOffsets, int[] callerOffsets, int edgeCount) {
+        this.data = data;
+        this.nameOffsets = nameOffsets;
+        this.callerOffsets = callerOffsets;
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * 映射并检查.edges文件
+     *
+     * @param file     .edges文件
+     * @param magic    文件头
+     * @param version  版本
+     * @return 只读视图
+     * @throws IOException 文件格式不符或不完整
+     */
+    static MappedEdgeList open(File file, int magic, int version) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            ByteBuffer in = data.duplicate();
+            if (in.remaining() < 8 || in.getInt() != magic || in.getInt() != version) {
+                throw new IOException("not an edge list file: " + file);
+            }
+            int n = readVarint(in);
+            if (n < 0) {
+                throw new IOException("malformed edge list file: " + file);
+            }
+            int[] nameOffsets = new int[n];
+            for (int i = 0; i < n; i++) {
+                nameOffsets[i] = in.position();
+                int length = readVarint(in);
+                if (length < 0) {
+                    throw new IOException("malformed edge list file: " + file);
+                }
+                in.position(in.position() + length);
+            }
+            int edgeCount = readVarint(in);
+            int[] callerOffsets = new int[n];
+            long edges = 0;
+            for (int called = 0; called < n; called++) {
+                callerOffsets[called] = in.position();
+                int count = readVarint(in);
+                if (count < 0) {
+                    throw new IOException("malformed edge list file: " + file);
+                }
+                long call = 0;
+                for (int k = 0; k < count; k++) {
+                    int delta = readVarint(in);
+                    if (delta < 0) {
+                        throw new IOException("malformed edge list file: " + file);
+                    }
+                    call += delta;
+                }
+                if (call >= n) {
+                    throw new IOException("malformed edge list file: " + file);
+                }
+                edges += count;
+            }
+            if (edges != edgeCount) {
+                throw new IOException("malformed edge list file: " + file);
+            }
+            return new MappedEdgeList(data, nameOffsets, callerOffsets, edgeCount);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // 读取或跳过的位置超出了文件末尾，或者varint超过5个字节
+            throw new IOException("truncated edge list file: " + file, e);
+        }
+    }
+
+    @Override
+    public int nodeCount() {
+        return nameOffsets.length;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    @Override
+    public String name(int id) {
+        ByteBuffer in = data.duplicate();
+        in.position(nameOffsets[id]);
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int callerCount(int called) {
+        ByteBuffer in = data.duplicate();
+        in.position(callerOffsets[called]);
+        return readVarint(in);
+    }
+
+    @Override
+    public int callers(int called, int[] out) {
+        ByteBuffer in = data.duplicate();
+        in.position(callerOffsets[called]);
+        int count = readVarint(in);
+        int call = 0;
+        for (int k = 0; k < count; k++) {
+            call += readVarint(in);
+            out[k] = call;
+        }
+        return count;
+    }
+
+    /**
+     * 解码为堆上的CallGraphIndex，需要修改或反复遍历整张图时使用
+     *
+     * @return 调用关系
+     */
+    public CallGraphIndex toIndex() {
+        CallGraphIndex index = new CallGraphIndex();
+        for (int i = 0; i < nodeCount(); i++) {
+            index.intern(name(i));
+        }
+        int[] callers = new int[16];
+        for (int called = 0; called < nodeCount(); called++) {
+            int count = callerCount(called);
+            if (callers.length < count) {
+                callers = new int[Math.max(count, callers.length * 2)];
+            }
+            callers(called, callers);
+            for (int k = 0; k < count; k++) {
+                index.addEdge(called, callers[k]);
+            }
+        }
+        return index;
+    }
+
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint at " + in.position());
+    }
+}
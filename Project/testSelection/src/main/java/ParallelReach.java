@@ -0,0 +1,139 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 并行的可达性计算，用于大图上的闭包
+ * 按层推进的BFS：每一层的前沿（上一层新访问到的节点）切分后交给fork-join线程池展开，
+ * 访问标记是一个以CAS更新的并发位图，每个节点只会被一个线程认领并放入下一层的前沿。
+ * 结果只是访问过的节点集合，与各线程的执行顺序无关，和CallGraphIndex.reachSequential完全一致
+ *
+ * @author csh
+ */
+public class ParallelReach {
+
+    /**
+     * 前沿中不超过这么多节点时直接在当前线程展开
+     */
+    private static final int SPLIT = 1024;
+
+    /**
+     * 从给定的节点出发，沿 被调用者 -> 调用者 方向计算可达的节点
+     * 与顺序实现一致：只有作为被调用者出现过的起点才会进入闭包
+     *
+     * @param index 反向调用图
+     * @param seeds 起点ID
+     * @return 闭包中的节点ID
+     */
+    public static BitSet reach(CallGraphIndex index, Collection<Integer> seeds) {
+        AtomicLongArray visited = new AtomicLongArray((index.nodeCount() + 63) >>> 6);
+        int[] frontier = new int[seeds.size()];
+        int size = 0;
+        for (int seed : seeds) {
+            if (seed >= 0 && index.hasCallers(seed) && claim(visited, seed)) {
+                frontier[size++] = seed;
+            }
+        }
+        frontier = Arrays.copyOf(frontier, size);
+        while (frontier.length > 0) {
+            if (frontier.length <= SPLIT) {
+                frontier = expand(index, visited, frontier, 0, frontier.length);
+            } else {
+                frontier = ForkJoinPool.commonPool().invoke(new Expand(index, visited, frontier, 0, frontier.length));
+            }
+        }
+        long[] words = new long[visited.length()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = visited.get(i);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * 展开前沿中的一段
+     *
+     * @param index    反向调用图
+     * @param visited  访问标记
+     * @param frontier 当前的前沿
+     * @param from     起始位置（包含）
+     * @param to       结束位置（不包含）
+     * @return 这一段新访问到的节点
+     */
+    private static int[] expand(CallGraphIndex index, AtomicLongArray visited, int[] frontier, int from, int to) {
+        int[] next = new int[Math.max(16, to - from)];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            int node = frontier[i];
+            int count = index.callerCount(node);
+            for (int k = 0; k < count; k++) {
+                int call = index.caller(node, k);
+                if (claim(visited, call)) {
+                    if (size == next.length) {
+                        next = Arrays.copyOf(next, size * 2);
+                    }
+                    next[size++] = call;
+                }
+            }
+        }
+        return Arrays.copyOf(next, size);
+    }
+
+    /**
+     * 标记一个节点
+     *
+     * @param visited 访问标记
+     * @param node    节点ID
+     * @return 是否由本次调用完成标记，已经被标记过时返回false
+     */
+    private static boolean claim(AtomicLongArray visited, int node) {
+        int word = node >>> 6;
+        long bit = 1L << node;
+        while (true) {
+            long current = visited.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (visited.compareAndSet(word, current, current | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 把前沿对半切分，直到足够小后再展开，最后按顺序拼接各段的结果
+     */
+    private static class Expand extends RecursiveTask<int[]> {
+
+        private final CallGraphIndex index;
+        private final AtomicLongArray visited;
+        private final int[] frontier;
+        private final int from;
+        private final int to;
+
+        Expand(CallGraphIndex index, AtomicLongArray visited, int[] frontier, int from, int to) {
+            this.index = index;
+            this.visited = visited;
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= SPLIT) {
+                return expand(index, visited, frontier, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            Expand left = new Expand(index, visited, frontier, from, middle);
+            left.fork();
+            int[] right = new Expand(index, visited, frontier, middle, to).compute();
+            int[] result = left.join();
+            int[] merged = Arrays.copyOf(result, result.length + right.length);
+            System.arraycopy(right, 0, merged, result.length, right.length);
+            return merged;
+        }
+    }
+}
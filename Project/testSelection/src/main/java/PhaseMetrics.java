@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 各阶段的耗时与内存统计
+ * 默认关闭，开启后每个阶段记录墙钟时间、分配的字节数与堆内存峰值，另外记录节点数、边数、闭包大小等计数，
+ * 最后以JSON格式写入文件，便于在CI上汇总
+ * <p>
+ * 阶段之间不嵌套：每个阶段开始时会重置堆内存峰值
+ *
+ * @author csh
+ */
+public class PhaseMetrics {
+
+    /**
+     * 为null时统计关闭
+     */
+    private static volatile PhaseMetrics current;
+
+    private static final Phase NO_OP = new Phase(null, null);
+
+    private final long startNanos = System.nanoTime();
+    private final ArrayList<String> phases = new ArrayList<>();
+    private final LinkedHashMap<String, String> attributes = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> counts = new LinkedHashMap<>();
+
+    private PhaseMetrics() {
+    }
+
+    /**
+     * 开启统计，之前记录的内容全部清空
+     */
+    public static void enable() {
+        current = new PhaseMetrics();
+    }
+
+    /**
+     * @return 统计是否开启
+     */
+    public static boolean enabled() {
+        return current != null;
+    }
+
+    /**
+     * 开始一个阶段，配合try-with-resources使用，关闭时记录该阶段
+     *
+     * @param name 阶段名称
+     * @return 阶段
+     */
+    public static Phase phase(String name) {
+        PhaseMetrics metrics = current;
+        return metrics == null ? NO_OP : new Phase(metrics, name);
+    }
+
+    /**
+     * 记录一个计数，同名的计数会被覆盖
+     *
+     * @param name  名称
+     * @param value 值
+     */
+    public static void count(String name, long value) {
+        PhaseMetrics metrics = current;
+        if (metrics != null) {
+            synchronized (metrics) {
+                metrics.counts.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * 记录一个字符串属性，如粒度、target路径
+     *
+     * @param name  名称
+     * @param value 值
+     */
+    public static void attribute(String name, String value) {
+        PhaseMetrics metrics = current;
+        if (metrics != null) {
+            synchronized (metrics) {
+                metrics.attributes.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * 把统计结果以JSON格式写入文件
+     *
+     * @param file 输出文件
+     * @throws IOException
+     */
+    public static void write(File file) throws IOException {
+        PhaseMetrics metrics = current;
+        if (metrics == null) {
+            return;
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(metrics.toJson());
+        }
+    }
+
+    private synchronized String toJson() {
+        Runtime runtime = Runtime.getRuntime();
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"totalMillis\": ").append(millis(System.nanoTime() - startNanos)).append(",\n");
+        json.append("  \"jvm\": {\"version\": ").append(quote(System.getProperty("java.version")))
+                .append(", \"processors\": ").append(runtime.availableProcessors())
+                .append(", \"maxHeapBytes\": ").append(runtime.maxMemory()).append("},\n");
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            json.append("  ").append(quote(entry.getKey())).append(": ").append(quote(entry.getValue())).append(",\n");
+        }
+        json.append("  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ").append(phases.get(i));
+        }
+        json.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+        json.append("  \"counts\": {");
+        int i = 0;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            json.append(i++ == 0 ? "\n    " : ",\n    ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+        }
+        json.append(counts.isEmpty() ? "}\n" : "\n  }\n");
+        return json.append("}\n").toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * 一个正在进行的阶段
+     */
+    public static class Phase implements AutoCloseable {
+
+        private final PhaseMetrics metrics;
+        private final String name;
+        private final long startNanos;
+        private final long startAllocated;
+
+        private Phase(PhaseMetrics metrics, String name) {
+            this.metrics = metrics;
+            this.name = name;
+            if (metrics == null) {
+                startNanos = 0;
+                startAllocated = 0;
+                return;
+            }
+            for (MemoryPoolMXBean pool : heapPools()) {
+                pool.resetPeakUsage();
+            }
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (metrics == null) {
+                return;
+            }
+            long wall = System.nanoTime() - startNanos;
+            long allocated = allocatedBytes();
+            long peak = 0;
+            for (MemoryPoolMXBean pool : heapPools()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+            String entry = "{\"name\": " + quote(name)
+                    + ", \"startMillis\": " + millis(startNanos - metrics.startNanos)
+                    + ", \"wallMillis\": " + millis(wall)
+                    + ", \"allocatedBytes\": " + (allocated < 0 || startAllocated < 0 ? -1 : allocated - startAllocated)
+                    + ", \"peakHeapBytes\": " + peak + "}";
+            synchronized (metrics) {
+                metrics.phases.add(entry);
+            }
+        }
+
+        private static ArrayList<MemoryPoolMXBean> heapPools() {
+            ArrayList<MemoryPoolMXBean> result = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    result.add(pool);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * 所有存活线程累计分配的字节数，阶段中用到的并行线程（如ForkJoin公共池）也计算在内；
+         * JVM不支持时返回-1
+         *
+         * @return 字节数
+         */
+        private static long allocatedBytes() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return -1;
+            }
+            long total = 0;
+            for (long bytes : sunThreads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
+import com.ibm.wala.classLoader.IClassLoader;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.CancelException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * 常驻内存的Java原生类
+ * WALA的类层次关系不能删除类，应用中的类有变化时只能重新构建，但其中的原生类不会变化。
+ * 这里只构建一次只含有原生类的分析范围与类层次关系，之后每次构建类层次关系时都复用其中已经解析好的Primordial类加载器，
+ * 只重新加载Application与Extension中的类。
+ * 原生类的IClass仍然属于这里的类层次关系，而原生类中的代码只会引用原生类，所以在其中查找的结果与新的类层次关系一致
+ *
+ * @author csh
+ */
+public class PrimordialHierarchy {
+
+    /**
+     * 只含有原生类的分析范围
+     */
+    private final AnalysisScope scope;
+    /**
+     * 已经加载了所有原生类的Primordial类加载器
+     */
+    private final IClassLoader primordial;
+
+    private PrimordialHierarchy(AnalysisScope scope, IClassLoader primordial) {
+        this.scope = scope;
+        this.primordial = primordial;
+    }
+
+    /**
+     * 读取scope.txt中的原生类并构建类层次关系
+     *
+     * @param primordialCache Java原生类快照所在的文件夹，为null时从scope.txt读取原生类
+     * @return 常驻的原生类
+     * @throws IOException
+     * @throws ClassHierarchyException
+     */
+    public static PrimordialHierarchy load(File primordialCache) throws IOException, ClassHierarchyException {
+        AnalysisScope scope;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("scope")) {
+            scope = CallGraphFactory.makePrimordialScope(primordialCache);
+        }
+        ClassHierarchy cha;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("classHierarchy")) {
+            cha = CallGraphFactory.makeHierarchy(scope);
+        }
+        return new PrimordialHierarchy(scope, cha.getLoader(ClassLoaderReference.Primordial));
+    }
+
+    /**
+     * 生成分析范围：复用原生类的模块，再加入所有classFile与依赖的jar
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @param libraries  依赖的jar
+     * @return 分析范围
+     * @throws IOException
+     * @throws InvalidClassFileException
+     */
+    public AnalysisScope makeScope(ArrayList<File> classFiles, ArrayList<File> libraries) throws IOException, InvalidClassFileException {
+        AnalysisScope result = AnalysisScope.createJavaAnalysisScope();
+        result.setExclusions(scope.getExclusions());
+        for (ClassLoaderReference loader : scope.getLoaders()) {
+            for (Module module : scope.getModules(loader)) {
+                result.addToScope(loader, module);
+            }
+        }
+        CallGraphFactory.addToScope(result, classFiles, libraries);
+        return result;
+    }
+
+    /**
+     * 生成类层次关系，Primordial类加载器使用常驻的类加载器，其他类加载器重新加载
+     *
+     * @param scope 由makeScope生成的分析范围
+     * @return 类层次关系
+     * @throws ClassHierarchyException
+     */
+    public ClassHierarchy makeHierarchy(AnalysisScope scope) throws ClassHierarchyException {
+        return ClassHierarchyFactory.makeWithRoot(scope, new ClassLoaderFactoryImpl(scope.getExclusions()) {
+            @Override
+            protected IClassLoader makeNewClassLoader(ClassLoaderReference classLoaderReference, IClassHierarchy cha, IClassLoader parent, AnalysisScope scope) throws IOException {
+                if (ClassLoaderReference.Primordial.equals(classLoaderReference)) {
+                    return primordial;
+                }
+                return super.makeNewClassLoader(classLoaderReference, cha, parent, scope);
+            }
+        });
+    }
+
+    /**
+     * 以所有应用方法为进入点，按指定的精度构建调用图，提取完调用关系后需要调用CallGraphFactory.close
+     *
+     * @param classFiles 所有classFile，包括生产类和测试类
+     * @param analysis   调用图的精度，cha、rta或0cfa
+     * @return 调用图
+     * @throws IOException
+     * @throws InvalidClassFileException
+     * @throws ClassHierarchyException
+     * @throws CancelException
+     */
+    public CallGraph makeCallGraph(ArrayList<File> classFiles, String analysis) throws IOException, InvalidClassFileException, ClassHierarchyException, CancelException {
+        AnalysisScope scope;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("scope")) {
+            scope = makeScope(classFiles, new ArrayList<>());
+        }
+        try {
+            ClassHierarchy cha;
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("classHierarchy")) {
+                cha = makeHierarchy(scope);
+            }
+            PhaseMetrics.count("classes", cha.getNumberOfClasses());
+            CallGraph cg;
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("callGraph")) {
+                cg = CallGraphFactory.makeCallGraph(scope, cha, CallGraphFactory.entryPoints(scope, cha, null), analysis);
+            }
+            PhaseMetrics.count("callGraphNodes", cg.getNumberOfNodes());
+            return cg;
+        } catch (ClassHierarchyException | CancelException | RuntimeException e) {
+            CallGraphFactory.close(scope);
+            throw e;
+        }
+    }
+}
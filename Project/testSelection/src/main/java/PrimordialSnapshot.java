@@ -0,0 +1,366 @@
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.config.AnalysisScopeReader;
+import com.ibm.wala.util.config.FileOfClasses;
+import com.ibm.wala.util.config.SetOfClasses;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Java原生类（Primordial）的快照
+ * WALA的类层次关系不能序列化，而每次运行时Primordial类加载器都要把scope.txt中stdlib的所有jar整个读入内存，
+ * 再按exclusion.txt过滤，之后才开始处理应用中的类。
+ * 快照只保存过滤后剩下的原生类的字节码，不压缩，以JDK与scope.txt、exclusion.txt的内容作为键，
+ * 加载时映射到内存，作为Primordial类加载器唯一的模块代替原来的jar。
+ * scope.txt中只应有Primordial的条目，其他条目在使用快照时不会被加入分析范围
+ * <p>
+ * 格式：MAGIC、VERSION（int），键（UTF），所有类的字节码，
+ * 然后是类的个数（int）与每个类的名称（UTF）、偏移（int）、长度（int），最后是这部分索引的偏移（long）
+ *
+ * @author csh
+ */
+public class PrimordialSnapshot implements Module {
+
+    private static final int MAGIC = 0x54535053;
+    private static final int VERSION = 1;
+
+    /**
+     * 映射到内存的快照文件
+     */
+    private final ByteBuffer data;
+    /**
+     * 类名，如"java/lang/Object"
+     */
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private PrimordialSnapshot(ByteBuffer data, String[] names, int[] offsets, int[] lengths) {
+        this.data = data;
+        this.names = names;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * 生成分析范围，Primordial类加载器使用快照；快照不存在或与当前的JDK不符时先重新生成
+     *
+     * @param directory 保存快照的文件夹
+     * @return 只含有Java原生类的分析范围
+     * @throws IOException
+     */
+    public static AnalysisScope makeScope(File directory) throws IOException {
+        byte[] scopeFile = readResource("scope.txt");
+        byte[] exclusionFile = readExclusions();
+        String key = key(scopeFile, exclusionFile);
+        File file = new File(FileUtil.ensureDirectory(directory.getPath()), "primordial-" + key.substring(key.lastIndexOf(':') + 1) + ".snapshot");
+        PrimordialSnapshot snapshot = file.isFile() ? read(file, key) : null;
+        PhaseMetrics.count("primordialSnapshotHit", snapshot == null ? 0 : 1);
+        if (snapshot == null) {
+            AnalysisScope full = AnalysisScopeReader.readJavaScope("scope.txt", new File("exclusion.txt"), Analyzer.class.getClassLoader());
+            write(file, key, full);
+            snapshot = read(file, key);
+            if (snapshot == null) {
+                throw new IOException("cannot read " + file);
+            }
+        }
+        PhaseMetrics.count("primordialClasses", snapshot.names.length);
+        AnalysisScope scope = AnalysisScope.createJavaAnalysisScope();
+        scope.setExclusions(new FileOfClasses(new ByteArrayInputStream(exclusionFile)));
+        scope.addToScope(ClassLoaderReference.Primordial, snapshot);
+        return scope;
+    }
+
+    /**
+     * 把分析范围中Primordial类加载器的所有类按exclusion.txt过滤后写入快照，同名的类只保留第一个
+     *
+     * @param file  快照文件
+     * @param key   快照的键
+     * @param scope 由scope.txt生成的分析范围
+     * @throws IOException
+     */
+    static void write(File file, String key, AnalysisScope scope) throws IOException {
+        SetOfClasses exclusions = scope.getExclusions();
+        ArrayList<ModuleEntry> entries = new ArrayList<>();
+        for (Module module : scope.getModules(ClassLoaderReference.Primordial)) {
+            collect(module, entries);
+        }
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<int[]> positions = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        // 先写临时文件再替换，避免中断时留下不完整的文件
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            byte[] buffer = new byte[1 << 16];
+            for (ModuleEntry entry : entries) {
+                String name = entry.getClassName().replace('.', '/');
+                if ((exclusions != null && exclusions.contains(name)) || !seen.add(name)) {
+                    continue;
+                }
+                int offset = out.size();
+                try (InputStream in = entry.getInputStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+                names.add(name);
+                positions.add(new int[]{offset, out.size() - offset});
+            }
+            long indexOffset = out.size();
+            out.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                out.writeUTF(names.get(i));
+                out.writeInt(positions.get(i)[0]);
+                out.writeInt(positions.get(i)[1]);
+            }
+            out.writeLong(indexOffset);
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("cannot replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("cannot write " + file);
+        }
+    }
+
+    /**
+     * 读取快照，文件映射到内存，字节码在使用时才从映射中读取
+     *
+     * @param file 快照文件
+     * @param key  期望的键
+     * @return 快照，格式或键不符时返回null
+     * @throws IOException
+     */
+    static PrimordialSnapshot read(File file, String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 20 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // 映射在通道关闭后仍然有效
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (data.getInt() != MAGIC || data.getInt() != VERSION || !key.equals(readUTF(data))) {
+                return null;
+            }
+            ((Buffer) data).position((int) data.getLong((int) size - 8));
+            int count = data.getInt();
+            String[] names = new String[count];
+            int[] offsets = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = readUTF(data);
+                offsets[i] = data.getInt();
+                lengths[i] = data.getInt();
+            }
+            return new PrimordialSnapshot(data, names, offsets, lengths);
+        }
+    }
+
+    @Override
+    public Iterator<? extends ModuleEntry> getEntries() {
+        ArrayList<ModuleEntry> entries = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            entries.add(new Entry(i));
+        }
+        return entries.iterator();
+    }
+
+    /**
+     * 当前的Java原生类对应的键，JDK与scope.txt、exclusion.txt都不变时才相同，其他缓存也可以用它判断是否过期
+     *
+     * @return 如"1.8.0_392:4f0c..."
+     * @throws IOException
+     */
+    public static String environmentKey() throws IOException {
+        return key(readResource("scope.txt"), readExclusions());
+    }
+
+    /**
+     * 快照的键：JDK的厂商、版本与路径，以及scope.txt与exclusion.txt内容的哈希
+     *
+     * @param scopeFile     scope.txt的内容
+     * @param exclusionFile exclusion.txt的内容
+     * @return 如"1.8.0_392:4f0c..."，冒号之后的部分用作文件名
+     */
+    static String key(byte[] scopeFile, byte[] exclusionFile) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update((System.getProperty("java.vendor") + "\n" + System.getProperty("java.home") + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(scopeFile);
+        digest.update((byte) 0);
+        digest.update(exclusionFile);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : Arrays.copyOf(digest.digest(), 8)) {
+            hex.append(String.format("%02x", b));
+        }
+        return System.getProperty("java.version") + ":" + hex;
+    }
+
+    /**
+     * 与AnalysisScopeReader一致：当前文件夹下有exclusion.txt时使用它，否则使用jar中的资源
+     *
+     * @return exclusion.txt的内容
+     * @throws IOException
+     */
+    private static byte[] readExclusions() throws IOException {
+        File file = new File("exclusion.txt");
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                return FileUtil.readAll(in);
+            }
+        }
+        return readResource("exclusion.txt");
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream in = Analyzer.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("resource not found: " + name);
+            }
+            return FileUtil.readAll(in);
+        }
+    }
+
+    /**
+     * 读取DataOutputStream.writeUTF写出的字符串，快照中的类名只含ASCII字符
+     */
+    private static String readUTF(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param module  模块
+     * @param entries 用于记录模块（包括嵌套的模块）中所有的.class
+     */
+    private static void collect(Module module, ArrayList<ModuleEntry> entries) {
+        for (Iterator<? extends ModuleEntry> it = module.getEntries(); it.hasNext(); ) {
+            ModuleEntry entry = it.next();
+            if (entry.isModuleFile()) {
+                collect(entry.asModule(), entries);
+            } else if (entry.isClassFile()) {
+                entries.add(entry);
+            }
+        }
+    }
+
+    /**
+     * 快照中的一个类
+     */
+    private class Entry implements ModuleEntry {
+
+        private final int id;
+
+        Entry(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getName() {
+            return names[id] + ".class";
+        }
+
+        @Override
+        public boolean isClassFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isSourceFile() {
+            return false;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            ByteBuffer slice = data.duplicate();
+            ((Buffer) slice).limit(offsets[id] + lengths[id]);
+            ((Buffer) slice).position(offsets[id]);
+            return new ByteBufferInputStream(slice.slice());
+        }
+
+        @Override
+        public boolean isModuleFile() {
+            return false;
+        }
+
+        @Override
+        public Module asModule() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getClassName() {
+            return names[id];
+        }
+
+        @Override
+        public Module getContainer() {
+            return PrimordialSnapshot.this;
+        }
+    }
+
+    /**
+     * 从映射的内存中读取一个类的字节码
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
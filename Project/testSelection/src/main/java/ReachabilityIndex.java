@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 预先计算的可达性索引：每个节点 -> 从它出发沿 被调用者 -> 调用者 方向能到达的目标节点（测试）集合
+ * 先用Tarjan算法求强连通分量并缩点，再按拓扑序把目标集合（位图）从调用者向被调用者传播，
+ * 之后任意一次测试选择只是若干位图的并集，不再需要遍历图。
+ * 每个分量的位图以CompressedBitmap保存，只能到达少数测试的分量只占用与测试数成正比的空间
+ *
+ * @author csh
+ */
+public class ReachabilityIndex {
+
+    private final CallGraphIndex index;
+    /**
+     * 目标在位图中的编号 -> 节点ID
+     */
+    private final int[] targets;
+    /**
+     * 节点ID -> 所在强连通分量的编号
+     */
+    private final int[] component;
+    /**
+     * 强连通分量 -> 能到达的目标位图；没有新增目标的分量直接复用后继分量的位图
+     */
+    private final CompressedBitmap[] reachable;
+
+    private ReachabilityIndex(CallGraphIndex index, int[] targets, int[] component, CompressedBitmap[] reachable) {
+        this.index = index;
+        this.targets = targets;
+        this.component = component;
+        this.reachable = reachable;
+    }
+
+    /**
+     * 方法粒度：目标为所有测试方法
+     *
+     * @param methodIndex 方法粒度的反向调用图
+     * @param testMethods 所有测试方法的集合
+     * @return 可达性索引
+     */
+    public static ReachabilityIndex forMethods(CallGraphIndex methodIndex, HashSet<String> testMethods) {
+        BitSet isTarget = new BitSet(methodIndex.nodeCount());
+        for (int i = 0; i < methodIndex.nodeCount(); i++) {
+            if (testMethods.contains(methodIndex.name(i))) {
+                isTarget.set(i);
+            }
+        }
+        return build(methodIndex, isTarget);
+    }
+
+    /**
+     * 类粒度：目标为所有测试类
+     *
+     * @param classIndex  类粒度的反向调用图
+     * @param testClasses 测试类 -> 测试方法
+     * @return 可达性索引
+     */
+    public static ReachabilityIndex forClasses(CallGraphIndex classIndex, TestClassIndex testClasses) {
+        BitSet isTarget = new BitSet(classIndex.nodeCount());
+        for (int i = 0; i < classIndex.nodeCount(); i++) {
+            if (testClasses.isTestClass(classIndex.name(i))) {
+                isTarget.set(i);
+            }
+        }
+        return build(classIndex, isTarget);
+    }
+
+    /**
+     * 按粒度构建索引
+     *
+     * @param grain         粒度
+     * @param classIndex    类粒度的反向调用图
+     * @param methodIndex   方法粒度的反向调用图
+     * @param testClasses   测试类 -> 测试方法
+     * @param testMethods   所有测试方法的集合
+     * @return 可达性索引
+     */
+    public static ReachabilityIndex forGrain(String grain, CallGraphIndex classIndex, CallGraphIndex methodIndex, TestClassIndex testClasses, HashSet<String> testMethods) {
+        return "class".equals(grain) ? forClasses(classIndex, testClasses) : forMethods(methodIndex, testMethods);
+    }
+
+    /**
+     * 构建索引
+     *
+     * @param index    反向调用图
+     * @param isTarget 哪些节点是目标
+     * @return 可达性索引
+     */
+    public static ReachabilityIndex build(CallGraphIndex index, BitSet isTarget) {
+        int n = index.nodeCount();
+        int[] targets = new int[isTarget.cardinality()];
+        int[] targetBit = new int[n];
+        Arrays.fill(targetBit, -1);
+        for (int i = isTarget.nextSetBit(0), k = 0; i >= 0; i = isTarget.nextSetBit(i + 1), k++) {
+            targets[k] = i;
+            targetBit[i] = k;
+        }
+
+        // 迭代版Tarjan，分量按逆拓扑序产生：一个分量产生时，它能到达的分量都已经产生
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
+        int[] order = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(order, -1);
+        int[] stack = new int[n];
+        boolean[] onStack = new boolean[n];
+        int stackSize = 0;
+        int[] callStack = new int[n];
+        int[] nextCaller = new int[n];
+        int counter = 0;
+        ArrayList<CompressedBitmap> reachable = new ArrayList<>();
+        // 计算分量位图时使用的未压缩位图
+        BitSet scratch = new BitSet(targets.length);
+
+        for (int root = 0; root < n; root++) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth++] = root;
+            order[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int node = callStack[depth - 1];
+                if (nextCaller[node] < index.callerCount(node)) {
+                    int call = index.caller(node, nextCaller[node]++);
+                    if (order[call] < 0) {
+                        order[call] = low[call] = counter++;
+                        stack[stackSize++] = call;
+                        onStack[call] = true;
+                        callStack[depth++] = call;
+                    } else if (onStack[call]) {
+                        low[node] = Math.min(low[node], order[call]);
+                    }
+                    continue;
+                }
+                depth--;
+                if (depth > 0) {
+                    int parent = callStack[depth - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+                if (low[node] != order[node]) {
+                    continue;
+                }
+                // node是一个强连通分量的根，出栈得到整个分量
+                int id = reachable.size();
+                int start = stackSize;
+                do {
+                    start--;
+                    onStack[stack[start]] = false;
+                    component[stack[start]] = id;
+                } while (stack[start] != node);
+                reachable.add(propagate(index, stack, start, stackSize, component, id, targetBit, reachable, scratch));
+                stackSize = start;
+            }
+        }
+        return new ReachabilityIndex(index, targets, component, reachable.toArray(new CompressedBitmap[0]));
+    }
+
+    /**
+     * 计算一个强连通分量能到达的目标：分量内的目标加上所有后继分量的目标
+     *
+     * @param index     反向调用图
+     * @param stack     Tarjan的栈
+     * @param start     分量在栈中的起始位置
+     * @param end       分量在栈中的结束位置（不含）
+     * @param component 节点ID -> 强连通分量编号
+     * @param id        当前分量编号
+     * @param targetBit 节点ID -> 目标在位图中的编号
+     * @param reachable 已经计算好的分量位图
+     * @param scratch   用于合并的未压缩位图，调用前后都为空
+     * @return 当前分量的位图
+     */
+    private static CompressedBitmap propagate(CallGraphIndex index, int[] stack, int start, int end, int[] component, int id, int[] targetBit, ArrayList<CompressedBitmap> reachable, BitSet scratch) {
+        boolean merged = false;
+        CompressedBitmap single = null;
+        for (int i = start; i < end; i++) {
+            int node = stack[i];
+            if (targetBit[node] >= 0) {
+                scratch.set(targetBit[node]);
+                merged = true;
+            }
+            for (int k = 0; k < index.callerCount(node); k++) {
+                int c = component[index.caller(node, k)];
+                if (c == id) {
+                    continue;
+                }
+                CompressedBitmap successor = reachable.get(c);
+                if (successor.isEmpty() || successor == single) {
+                    continue;
+                }
+                if (single == null) {
+                    single = successor;
+                } else {
+                    successor.orInto(scratch);
+                    merged = true;
+                }
+            }
+        }
+        // 没有自己的目标且只有一个非空后继时，直接共享后继的位图
+        if (!merged) {
+            return single == null ? CompressedBitmap.EMPTY : single;
+        }
+        if (single != null) {
+            single.orInto(scratch);
+        }
+        CompressedBitmap own = CompressedBitmap.of(scratch);
+        scratch.clear();
+        return own;
+    }
+
+    /**
+     * 查询一组起点能到达的目标，起点的规则与CallGraphIndex.reach一致：只有作为被调用者出现过的起点才有效
+     *
+     * @param seeds 起点名称
+     * @return 能到达的目标名称
+     */
+    public HashSet<String> query(List<String> seeds) {
+        BitSet union = new BitSet(targets.length);
+        for (String seed : seeds) {
+            int id = index.id(seed);
+            if (id >= 0 && index.hasCallers(id)) {
+                reachable[component[id]].orInto(union);
+            }
+        }
+        HashSet<String> result = new HashSet<>();
+        for (int i = union.nextSetBit(0); i >= 0; i = union.nextSetBit(i + 1)) {
+            result.add(index.name(targets[i]));
+        }
+        return result;
+    }
+
+    /**
+     * @return 强连通分量的数量
+     */
+    public int componentCount() {
+        return reachable.length;
+    }
+
+    /**
+     * @return 所有分量位图占用的字节数的估计，共享的位图只计算一次
+     */
+    public long bitmapBytes() {
+        long size = 0;
+        Set<CompressedBitmap> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CompressedBitmap bitmap : reachable) {
+            if (counted.add(bitmap)) {
+                size += bitmap.sizeInBytes();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,284 @@
+import com.ibm.wala.ipa.callgraph.CallGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.stream.IntStream;
+
+/**
+ * 多模块（reactor）模式
+ * 所有模块的classFile与依赖的jar放进同一个分析范围，Java原生类与依赖的类层次关系、调用图都只构建一次，
+ * 模块之间的调用关系也能被提取出来；选择结果再按测试类所在的模块拆分，各模块并行写出。
+ * <p>
+ * target参数为包含各模块的根文件夹（其下每个含有classes或test-classes的target文件夹算作一个模块），
+ * 或每行一个target文件夹路径的列表文件。
+ * 结果写入 -out文件夹/selection-粒度.txt 与 -out文件夹/selection-粒度-模块名.txt，
+ * 闭包计算因-budget提前停止时，原因写入 -out文件夹/selection-粒度.stop，
+ * 只支持-analysis、-entry、-lowmem、-prioritize、-budget与-metrics，不使用缓存与增量更新
+ *
+ * @author csh
+ */
+public class ReactorAnalyzer {
+
+    /**
+     * 在根文件夹下查找模块时的最大深度
+     */
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * 分析所有模块并按模块写出选择结果
+     *
+     * @param options 命令行参数
+     * @throws Exception
+     */
+    public static void run(AnalyzerOptions options) throws Exception {
+        String grain = options.grain;
+        ArrayList<Module> modules;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("scan")) {
+            modules = listModules(options.targetPath);
+            modules.parallelStream().forEach(Module::scan);
+        }
+        if (modules.isEmpty()) {
+            throw new IOException("no module found in " + options.targetPath);
+        }
+        ArrayList<File> classFiles = new ArrayList<>();
+        ArrayList<File> testClassFiles = new ArrayList<>();
+        HashSet<String> testClassNames = new HashSet<>();
+        for (Module module : modules) {
+            classFiles.addAll(module.inventory.getClassFiles());
+            testClassFiles.addAll(module.inventory.getTestClassFiles());
+            testClassNames.addAll(module.testClassNames);
+        }
+        ArrayList<File> libraries = listLibraries(options.librariesPath);
+        PhaseMetrics.count("modules", modules.size());
+        PhaseMetrics.count("classFiles", classFiles.size());
+        PhaseMetrics.count("libraries", libraries.size());
+
+        Collection<String> roots = null;
+        if (TestEntrypoints.TESTS.equals(options.entry)) {
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("discoverEntrypoints")) {
+                roots = TestEntrypoints.discover(testClassFiles);
+            }
+            PhaseMetrics.count("roots", roots.size());
+        }
+
+        //所有模块共用一个分析范围与一张调用图
+        HashSet<String> testMethods = new HashSet<>();
+        CallGraph cg = CallGraphFactory.makeCallGraph(classFiles, libraries, options.analysis, roots, options.primordialCache());
+        CallGraphIndex edges;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("extractEdges")) {
+            edges = EdgeExtractor.extract(cg, testMethods, options.lowMemory);
+        } finally {
+            CallGraphFactory.close(cg);
+        }
+        cg = null;
+        PhaseMetrics.count("methodEdges", edges.edgeCount());
+        CallGraphIndex classIndex;
+        CallGraphIndex methodIndex;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("buildIndex")) {
+            classIndex = DotUtil.buildClassIndex(edges);
+            methodIndex = DotUtil.buildMethodIndex(edges);
+        }
+        TestClassIndex testClasses = TestClassIndex.build(testClassNames, testMethods, methodIndex);
+        PhaseMetrics.count("testMethods", testMethods.size());
+        PhaseMetrics.count("testClasses", testClasses.size());
+
+        ArrayList<String> changeInfos = BatchSelector.readLines(new File(options.changeInfoPath));
+        PhaseMetrics.count("changeInfos", changeInfos.size());
+        HashSet<String> result = Analyzer.selectTests(grain, classIndex, methodIndex, changeInfos, testClasses, testMethods, options.budget);
+        PhaseMetrics.count("selectedTests", result.size());
+
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("write")) {
+            ArrayList<String> ordered;
+            if (options.prioritize) {
+                ordered = TestPrioritizer.rank(result, grain, "class".equals(grain) ? classIndex : methodIndex, changeInfos);
+            } else {
+                ordered = new ArrayList<>(result);
+                Collections.sort(ordered);
+            }
+            File directory = FileUtil.ensureDirectory(options.outputPath);
+            File selectionFile = new File(directory, "selection-" + grain + ".txt");
+            FileUtil.resultToFile(ordered, selectionFile);
+            FileUtil.stopReasonToFile(options.budget == null ? null : options.budget.stopReason(), selectionFile);
+            writeModules(modules, ordered, grain, directory);
+        }
+    }
+
+    /**
+     * 按测试类所在的模块拆分选择结果，各模块并行写出，模块内保持原有的顺序
+     *
+     * @param modules   所有模块
+     * @param ordered   所有被选择的测试方法
+     * @param grain     粒度
+     * @param directory 输出文件夹
+     * @throws IOException
+     */
+    private static void writeModules(ArrayList<Module> modules, ArrayList<String> ordered, String grain, File directory) throws IOException {
+        int[] counts = new int[modules.size()];
+        try {
+            IntStream.range(0, modules.size()).parallel().forEach(i -> {
+                Module module = modules.get(i);
+                ArrayList<String> selected = new ArrayList<>();
+                for (String test : ordered) {
+                    if (module.testClassNames.contains(test.substring(0, test.indexOf(' ')))) {
+                        selected.add(test);
+                    }
+                }
+                counts[i] = selected.size();
+                try {
+                    FileUtil.resultToFile(selected, new File(directory, "selection-" + grain + "-" + module.name + ".txt"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int i = 0; i < counts.length; i++) {
+            PhaseMetrics.count(modules.get(i).name + ".selectedTests", counts[i]);
+        }
+    }
+
+    /**
+     * 列出所有模块
+     *
+     * @param path 包含各模块的根文件夹，或每行一个target文件夹路径的列表文件
+     * @return 按路径排序的模块，名称互不相同
+     * @throws IOException
+     */
+    static ArrayList<Module> listModules(String path) throws IOException {
+        File file = new File(path);
+        ArrayList<Path> targets = new ArrayList<>();
+        Path root = null;
+        if (file.isDirectory()) {
+            Path directory = file.toPath().toAbsolutePath().normalize();
+            Files.walkFileTree(directory, Collections.emptySet(), MAX_DEPTH, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    if (isTarget(dir)) {
+                        targets.add(dir);
+                        //target文件夹之下不会再有模块
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    boolean hidden = !dir.equals(directory) && dir.getFileName().toString().startsWith(".");
+                    return hidden ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+            });
+            root = isTarget(directory) ? directory.getParent() : directory;
+        } else {
+            for (String line : BatchSelector.readLines(file)) {
+                if (!line.trim().isEmpty()) {
+                    targets.add(Paths.get(line.trim()).toAbsolutePath().normalize());
+                }
+            }
+        }
+        Collections.sort(targets);
+        ArrayList<Module> modules = new ArrayList<>();
+        HashSet<String> names = new HashSet<>();
+        for (Path target : targets) {
+            String name = moduleName(root, target);
+            String unique = name;
+            for (int i = 2; !names.add(unique); i++) {
+                unique = name + "-" + i;
+            }
+            modules.add(new Module(unique, target.toString()));
+        }
+        return modules;
+    }
+
+    /**
+     * 列出依赖的jar
+     *
+     * @param path 文件夹，或用路径分隔符隔开的多个jar与文件夹，为null时没有依赖
+     * @return 按路径排序的jar
+     * @throws IOException
+     */
+    static ArrayList<File> listLibraries(String path) throws IOException {
+        ArrayList<File> result = new ArrayList<>();
+        if (path == null) {
+            return result;
+        }
+        for (String entry : path.split(File.pathSeparator)) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            File file = new File(entry);
+            if (file.isDirectory()) {
+                ArrayList<Path> jars = new ArrayList<>();
+                Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path f, BasicFileAttributes attributes) {
+                        if (ClassInventory.isJarFile(f)) {
+                            jars.add(f);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                Collections.sort(jars);
+                for (Path jar : jars) {
+                    result.add(jar.toFile());
+                }
+            } else if (file.isFile()) {
+                result.add(file);
+            } else {
+                throw new IOException("library not found: " + entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param directory 文件夹
+     * @return 是否是含有classes或test-classes的target文件夹
+     */
+    private static boolean isTarget(Path directory) {
+        return Files.isDirectory(directory.resolve("classes")) || Files.isDirectory(directory.resolve("test-classes"));
+    }
+
+    /**
+     * @param root   根文件夹，使用列表文件时为null
+     * @param target 模块的target文件夹
+     * @return 模块名：模块文件夹相对于根文件夹的路径，分隔符换成"."；没有根文件夹时为模块文件夹的名称
+     */
+    private static String moduleName(Path root, Path target) {
+        Path module = target.getParent();
+        if (module == null) {
+            return "module";
+        }
+        if (root != null && module.startsWith(root) && !module.equals(root)) {
+            return root.relativize(module).toString().replace(File.separatorChar, '.');
+        }
+        return module.getFileName() == null ? "module" : module.getFileName().toString();
+    }
+
+    /**
+     * 一个模块：名称、target文件夹与其中的文件清单
+     */
+    static class Module {
+
+        final String name;
+        final String path;
+        ClassInventory inventory;
+        HashSet<String> testClassNames;
+
+        Module(String name, String path) {
+            this.name = name;
+            this.path = path;
+        }
+
+        void scan() {
+            inventory = ClassInventory.scan(path);
+            testClassNames = inventory.getTestClassNames();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * 一次测试选择的预算
+ * 变更落在底层的工具类上时，闭包往往会扩展到几乎整张图，最后几乎所有测试都被选中。
+ * 带预算的闭包计算会记录已经到达的测试，所有测试都已到达，或访问的节点数、占全图的比例、耗时超出预算时立即停止，
+ * 此时直接选择所有测试，停止的原因记录在stopReason中
+ * <p>
+ * 格式：-budget time=毫秒,nodes=节点数,fraction=比例，可以只给出其中几项，未给出的项不限制
+ *
+ * @author csh
+ */
+public class SelectionBudget {
+
+    /**
+     * 所有测试都已经到达，继续遍历不会改变选择结果
+     */
+    public static final String ALL_TESTS_REACHED = "allTestsReached";
+    public static final String TIME = "time";
+    public static final String NODES = "nodes";
+    public static final String FRACTION = "fraction";
+
+    /**
+     * 每展开这么多节点检查一次耗时
+     */
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    /**
+     * 耗时上限（毫秒），0表示不限制
+     */
+    private long timeMillis = 0;
+    /**
+     * 访问节点数的上限，0表示不限制
+     */
+    private int maxNodes = 0;
+    /**
+     * 访问节点占全图比例的上限，0表示不限制
+     */
+    private double maxFraction = 0;
+
+    /**
+     * 一次闭包计算中，访问节点数的实际上限
+     */
+    private int nodeLimit;
+    private long deadline;
+    private int checks;
+    /**
+     * 提前停止的原因，未停止时为null
+     */
+    private String stopReason;
+
+    /**
+     * 解析预算
+     *
+     * @param spec 如"time=200,nodes=50000,fraction=0.8"
+     * @return 预算
+     */
+    public static SelectionBudget parse(String spec) {
+        SelectionBudget budget = new SelectionBudget();
+        for (String item : spec.split(",")) {
+            int split = item.indexOf('=');
+            String key = split < 0 ? item : item.substring(0, split);
+            String value = split < 0 ? "" : item.substring(split + 1);
+            try {
+                if (TIME.equals(key)) {
+                    budget.timeMillis = Long.parseLong(value);
+                } else if (NODES.equals(key)) {
+                    budget.maxNodes = Integer.parseInt(value);
+                } else if (FRACTION.equals(key)) {
+                    budget.maxFraction = Double.parseDouble(value);
+                } else {
+                    throw new IllegalArgumentException("unknown budget: " + item);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad budget: " + item);
+            }
+        }
+        if (budget.timeMillis < 0 || budget.maxNodes < 0 || budget.maxFraction < 0 || budget.maxFraction > 1) {
+            throw new IllegalArgumentException("bad budget: " + spec);
+        }
+        return budget;
+    }
+
+    /**
+     * 开始一次闭包计算
+     *
+     * @param nodeCount 图的节点数
+     */
+    void start(int nodeCount) {
+        nodeLimit = Integer.MAX_VALUE;
+        if (maxNodes > 0) {
+            nodeLimit = maxNodes;
+        }
+        if (maxFraction > 0) {
+            nodeLimit = Math.min(nodeLimit, (int) Math.ceil(maxFraction * nodeCount));
+        }
+        deadline = timeMillis > 0 ? System.nanoTime() + timeMillis * 1000000L : 0;
+        checks = 0;
+        stopReason = null;
+    }
+
+    /**
+     * 每展开一个节点前检查一次
+     *
+     * @param visited 已经访问的节点数
+     * @return 是否超出预算，超出时记录原因
+     */
+    boolean exceeded(int visited) {
+        if (visited > nodeLimit) {
+            stopReason = maxNodes > 0 && visited > maxNodes ? NODES : FRACTION;
+            return true;
+        }
+        if (deadline != 0 && ++checks % TIME_CHECK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+            stopReason = TIME;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有测试都已到达时停止
+     */
+    void allTestsReached() {
+        stopReason = ALL_TESTS_REACHED;
+    }
+
+    /**
+     * @return 上一次闭包计算提前停止的原因，未停止时为null
+     */
+    public String stopReason() {
+        return stopReason;
+    }
+}
@@ -0,0 +1,266 @@
+import com.ibm.wala.ipa.callgraph.CallGraph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+/**
+ * 常驻的测试选择服务
+ * 每个target文件夹的调用关系在第一次请求时构建并常驻内存，同时按粒度建立可达性索引，之后的请求只做位图的并集；
+ * 每次请求前根据.class文件的修改时间与哈希判断是否需要更新，有变化时以0-CFA完整重建；
+ * Java原生类的分析范围与类层次关系在第一次构建时加载并常驻内存，重建时只重新加载应用中的类
+ * <p>
+ * 从标准输入读取请求时，标准输出只用于响应，其他输出都转到标准错误
+ * <p>
+ * 启动方式：Analyzer -server 从标准输入读取请求；Analyzer -server 端口 在本机端口上监听
+ * <p>
+ * 请求格式（按行）：
+ * select -c|-m target文件夹路径
+ * 变更信息，每行一条，格式与change_info文件相同
+ * end
+ * <p>
+ * 响应格式：被选择的测试方法，每行一条，最后一行为 end 或 error 错误信息
+ * 发送 quit 关闭当前连接，发送 shutdown 停止服务
+ *
+ * @author csh
+ */
+public class SelectionServer {
+
+    /**
+     * target文件夹路径 -> 常驻的分析结果
+     */
+    private final HashMap<String, TargetState> states = new HashMap<>();
+
+    /**
+     * 常驻的Java原生类，第一次构建调用图时加载
+     */
+    private PrimordialHierarchy primordial;
+
+    private volatile boolean running = true;
+    /**
+     * 在端口上监听时的ServerSocket，由shutdown关闭
+     */
+    private volatile ServerSocket serverSocket;
+
+    public static void main(String[] args) throws IOException {
+        SelectionServer server = new SelectionServer();
+        if (args.length > 1) {
+            server.listen(Integer.parseInt(args[1]));
+        } else {
+            //WALA与分析过程中写到标准输出的内容会混入响应
+            PrintStream responses = System.out;
+            System.setOut(System.err);
+            server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    new BufferedWriter(new OutputStreamWriter(responses, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * 在本机端口上监听，每个连接使用一个线程处理，直到shutdown被调用
+     *
+     * @param port 端口
+     * @throws IOException
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            serverSocket = socket;
+            System.err.println("selection server listening on " + socket.getLocalSocketAddress());
+            while (running) {
+                Socket connection;
+                try {
+                    connection = socket.accept();
+                } catch (SocketException e) {
+                    // shutdown关闭ServerSocket后accept抛出异常
+                    if (!running) {
+                        break;
+                    }
+                    throw e;
+                }
+                Thread worker = new Thread(() -> {
+                    try (Socket s = connection) {
+                        serve(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)),
+                                new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                worker.setDaemon(true);
+                worker.start();
+            }
+        } finally {
+            serverSocket = null;
+        }
+    }
+
+    /**
+     * 停止服务：不再处理新的请求，正在监听时关闭ServerSocket，使listen返回
+     */
+    public void shutdown() {
+        running = false;
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 处理一个输入流中的所有请求
+     *
+     * @param in  请求
+     * @param out 响应
+     * @throws IOException
+     */
+    public void serve(BufferedReader in, Writer out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if ("quit".equals(line)) {
+                break;
+            }
+            if ("shutdown".equals(line)) {
+                shutdown();
+                break;
+            }
+            String[] request = line.split(" ", 3);
+            if (!"select".equals(request[0]) || request.length < 3) {
+                out.write("error unknown request: " + line + "\n");
+                out.flush();
+                continue;
+            }
+            //读取变更信息
+            ArrayList<String> changeInfos = new ArrayList<>();
+            String changeInfo;
+            while ((changeInfo = in.readLine()) != null && !"end".equals(changeInfo)) {
+                changeInfos.add(changeInfo);
+            }
+            String grain = "-c".equals(request[1]) ? "class" : "method";
+            try {
+                ArrayList<String> result = new ArrayList<>(select(grain, request[2], changeInfos));
+                Collections.sort(result);
+                for (String s : result) {
+                    out.write(s + "\n");
+                }
+                out.write("end\n");
+            } catch (Exception e) {
+                e.printStackTrace();
+                out.write("error " + e + "\n");
+            }
+            out.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * 处理一次测试选择请求
+     *
+     * @param grain       粒度
+     * @param targetPath  target文件夹路径
+     * @param changeInfos 变更信息
+     * @return 被选择的测试方法
+     * @throws Exception
+     */
+    public HashSet<String> select(String grain, String targetPath, ArrayList<String> changeInfos) throws Exception {
+        TargetState state = refresh(targetPath);
+        return Analyzer.selectTests(grain, state.reachability(grain), changeInfos, state.testClasses, state.testMethods);
+    }
+
+    /**
+     * 获取target文件夹最新的分析结果
+     * 修改时间与大小都没有变化时直接复用；否则再比较哈希，哈希有变化时完整重建。
+     * 服务使用0-CFA，方法体的变化也可能改变其他方法中的指向关系，所以不做增量更新
+     *
+     * @param targetPath target文件夹路径
+     * @return 分析结果
+     * @throws Exception
+     */
+    private synchronized TargetState refresh(String targetPath) throws Exception {
+        String key = new File(targetPath).getCanonicalPath();
+        TargetState state = states.get(key);
+        ClassInventory inventory = ClassInventory.scan(targetPath);
+        ArrayList<File> classFiles = inventory.getClassFiles();
+        TreeMap<String, String> stamps = FileUtil.stampClassFiles(targetPath, classFiles);
+        if (state != null && stamps.equals(state.stamps)) {
+            return state;
+        }
+        TreeMap<String, String> fileHashes = FileUtil.hashClassFiles(targetPath, classFiles);
+        if (state != null && fileHashes.equals(state.fileHashes)) {
+            state.stamps = stamps;
+            return state;
+        }
+        if (primordial == null) {
+            primordial = PrimordialHierarchy.load(null);
+        }
+        HashSet<String> testMethods = new HashSet<>();
+        CallGraph cg = primordial.makeCallGraph(classFiles, CallGraphFactory.ZERO_CFA);
+        CallGraphIndex edges;
+        try {
+            edges = EdgeExtractor.extract(cg, testMethods);
+        } finally {
+            CallGraphFactory.close(cg);
+        }
+        state = new TargetState(stamps, fileHashes, edges, testMethods, inventory.getTestClassNames());
+        states.put(key, state);
+        return state;
+    }
+
+    /**
+     * 一个target文件夹常驻内存的分析结果
+     */
+    private static class TargetState {
+        /**
+         * 所有.class文件的修改时间与大小
+         */
+        TreeMap<String, String> stamps;
+        /**
+         * 所有.class文件的哈希
+         */
+        final TreeMap<String, String> fileHashes;
+        final HashSet<String> testMethods;
+        final CallGraphIndex classIndex;
+        final CallGraphIndex methodIndex;
+        final TestClassIndex testClasses;
+        /**
+         * 按粒度在第一次查询时建立的可达性索引
+         */
+        private final HashMap<String, ReachabilityIndex> reachability = new HashMap<>();
+
+        TargetState(TreeMap<String, String> stamps, TreeMap<String, String> fileHashes, CallGraphIndex edges, HashSet<String> testMethods, HashSet<String> testClassNames) {
+            this.stamps = stamps;
+            this.fileHashes = fileHashes;
+            this.testMethods = testMethods;
+            this.classIndex = DotUtil.buildClassIndex(edges);
+            this.methodIndex = DotUtil.buildMethodIndex(edges);
+            this.testClasses = TestClassIndex.build(testClassNames, testMethods, methodIndex);
+        }
+
+        /**
+         * @param grain 粒度
+         * @return 该粒度的可达性索引
+         */
+        synchronized ReachabilityIndex reachability(String grain) {
+            return reachability.computeIfAbsent(grain, g -> ReachabilityIndex.forGrain(g, classIndex, methodIndex, testClasses, testMethods));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 去重的字符串池，低内存模式下用于保存调用图的节点名称
+ * 所有字符串以UTF-8编码连续存放在一个byte数组中，ID -> 字符串只需要一个偏移量数组，
+ * 字符串 -> ID使用开放寻址的int哈希表，不再为每个节点保留String、Integer与HashMap的节点对象。
+ * 代价是每次取名称都要重新解码出一个String
+ * <p>
+ * 写入不是线程安全的；写入完成后可以被多个线程同时读取
+ *
+ * @author csh
+ */
+public class StringPool {
+
+    /**
+     * 所有字符串的UTF-8字节
+     */
+    private byte[] bytes = new byte[1024];
+    private int byteCount = 0;
+    /**
+     * 第i个字符串为 bytes[offsets[i]] ~ bytes[offsets[i + 1] - 1]
+     */
+    private int[] offsets = new int[17];
+    /**
+     * 每个字符串的哈希值，扩容时不必重新计算
+     */
+    private int[] hashes = new int[16];
+    private int size = 0;
+    /**
+     * 开放寻址的哈希表，保存 ID + 1，0表示空位；容量始终是2的幂且至少为size的两倍
+     */
+    private int[] table = new int[32];
+
+    /**
+     * 获取字符串的ID，不存在时加入字符串池
+     *
+     * @param s 字符串
+     * @return ID
+     */
+    public int intern(String s) {
+        byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+        int hash = s.hashCode();
+        int slot = find(encoded, hash);
+        if (table[slot] != 0) {
+            return table[slot] - 1;
+        }
+        int id = size++;
+        if (byteCount + encoded.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(byteCount + encoded.length, bytes.length * 2));
+        }
+        System.arraycopy(encoded, 0, bytes, byteCount, encoded.length);
+        byteCount += encoded.length;
+        if (size + 1 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        offsets[size] = byteCount;
+        hashes[id] = hash;
+        table[slot] = id + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * 查询字符串的ID
+     *
+     * @param s 字符串
+     * @return ID，不存在时返回-1
+     */
+    public int id(String s) {
+        return table[find(s.getBytes(StandardCharsets.UTF_8), s.hashCode())] - 1;
+    }
+
+    /**
+     * @param id ID
+     * @return 字符串
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("id: " + id + ", size: " + size);
+        }
+        return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 字符串的数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 所有字符串占用的字节数
+     */
+    public int byteCount() {
+        return byteCount;
+    }
+
+    /**
+     * 查找字符串所在的位置
+     *
+     * @param encoded 字符串的UTF-8字节
+     * @param hash    字符串的哈希值
+     * @return 字符串所在的位置，不存在时为应当插入的空位
+     */
+    private int find(byte[] encoded, int hash) {
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return slot;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(id, encoded)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @param id      ID
+     * @param encoded 字符串的UTF-8字节
+     * @return 第id个字符串是否与之相同
+     */
+    private boolean matches(int id, byte[] encoded) {
+        int start = offsets[id];
+        if (offsets[id + 1] - start != encoded.length) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (bytes[start + i] != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 哈希表容量翻倍
+     */
+    private void rehash() {
+        int[] newTable = new int[table.length * 2];
+        int mask = newTable.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id + 1;
+        }
+        table = newTable;
+    }
+
+    /**
+     * String.hashCode的低位分布不均匀，线性探测前再打散一次
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 测试类 -> 其中的测试方法
+ * 以完整类名（如"Lnet/mooctest/CMDTest"）为键，测试类来自test-classes下的.class文件，
+ * 测试方法来自调用图中带@Test注解的方法，且必须是方法粒度图中的节点（与原先遍历方法粒度图的结果一致）。
+ * 类粒度的测试选择只需对闭包中的每个类查一次表
+ *
+ * @author csh
+ */
+public class TestClassIndex {
+
+    /**
+     * 测试类名 -> 测试方法，测试类中没有可选的测试方法时为空列表
+     */
+    private final HashMap<String, ArrayList<String>> testMethodsByClass = new HashMap<>();
+
+    /**
+     * 构建索引
+     *
+     * @param testClassNames test-classes下所有类的完整类名
+     * @param testMethods    所有测试方法的集合
+     * @param methodIndex    方法粒度的反向调用图
+     * @return 索引
+     */
+    public static TestClassIndex build(Set<String> testClassNames, Set<String> testMethods, CallGraphIndex methodIndex) {
+        TestClassIndex index = new TestClassIndex();
+        for (String className : testClassNames) {
+            index.testMethodsByClass.put(className, new ArrayList<>());
+        }
+        for (String testMethod : testMethods) {
+            ArrayList<String> methods = index.testMethodsByClass.get(CallGraphIndex.nodeClass(testMethod));
+            if (methods != null && methodIndex.id(testMethod) >= 0) {
+                methods.add(testMethod);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param className 完整类名
+     * @return 是否是测试类
+     */
+    public boolean isTestClass(String className) {
+        return testMethodsByClass.containsKey(className);
+    }
+
+    /**
+     * @return 所有测试类的完整类名
+     */
+    public Set<String> classNames() {
+        return testMethodsByClass.keySet();
+    }
+
+    /**
+     * 类粒度的测试选择：闭包中所有测试类的测试方法
+     *
+     * @param classClosure 类粒度的闭包
+     * @return 被选择的测试方法
+     */
+    public HashSet<String> select(Collection<String> classClosure) {
+        HashSet<String> result = new HashSet<>();
+        for (String className : classClosure) {
+            ArrayList<String> methods = testMethodsByClass.get(className);
+            if (methods != null) {
+                result.addAll(methods);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 测试类的数量
+     */
+    public int size() {
+        return testMethodsByClass.size();
+    }
+}
@@ -0,0 +1,214 @@
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.Entrypoint;
+import com.ibm.wala.ipa.callgraph.impl.ArgumentTypeEntrypoint;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.AnnotationsReader;
+import com.ibm.wala.shrikeCT.ClassReader;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.Selector;
+import com.ibm.wala.types.TypeReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 只以测试相关的方法作为调用图的进入点
+ * 在构建类层次关系之前，直接读取test-classes下.class文件中方法的注解，找出：
+ * JUnit 4的@Test、@Before、@After、@BeforeClass、@AfterClass，参数化测试的@Parameters；
+ * JUnit 5的@Test、@BeforeEach、@AfterEach、@BeforeAll、@AfterAll、@ParameterizedTest、@RepeatedTest、@TestFactory、@TestTemplate，
+ * 以及@MethodSource引用的参数来源方法。
+ * 含有这些方法的类，其构造方法与静态初始化方法也作为进入点（测试运行时总会先创建测试类的实例）。
+ * <p>
+ * 进入点用节点名称表示，格式同调用关系中的节点，如"Lnet/mooctest/CMDTest, test1()V"；
+ * 只有方法名而没有描述符时（如"Lnet/mooctest/CMDTest, data"）表示该类中所有同名的方法
+ *
+ * @author csh
+ */
+public class TestEntrypoints {
+
+    /**
+     * 以所有应用方法为进入点
+     */
+    public static final String ALL = "all";
+    /**
+     * 只以测试相关的方法为进入点
+     */
+    public static final String TESTS = "tests";
+
+    /**
+     * 标记测试方法本身的注解，EdgeExtractor也按这些注解识别调用关系中的测试方法
+     */
+    static final Set<String> TEST_ANNOTATIONS = new HashSet<>(Arrays.asList(
+            "Lorg/junit/Test;",
+            "Lorg/junit/jupiter/api/Test;",
+            "Lorg/junit/jupiter/api/RepeatedTest;",
+            "Lorg/junit/jupiter/api/TestFactory;",
+            "Lorg/junit/jupiter/api/TestTemplate;",
+            "Lorg/junit/jupiter/params/ParameterizedTest;"
+    ));
+    /**
+     * 标记在方法上、使其成为进入点的注解：测试方法与生命周期方法
+     */
+    private static final Set<String> ROOT_ANNOTATIONS = new HashSet<>(TEST_ANNOTATIONS);
+
+    static {
+        ROOT_ANNOTATIONS.addAll(Arrays.asList(
+                "Lorg/junit/Before;",
+                "Lorg/junit/After;",
+                "Lorg/junit/BeforeClass;",
+                "Lorg/junit/AfterClass;",
+                "Lorg/junit/runners/Parameterized$Parameters;",
+                "Lorg/junit/jupiter/api/BeforeEach;",
+                "Lorg/junit/jupiter/api/AfterEach;",
+                "Lorg/junit/jupiter/api/BeforeAll;",
+                "Lorg/junit/jupiter/api/AfterAll;"
+        ));
+    }
+
+    /**
+     * JUnit 5参数化测试的参数来源，value为来源方法名，省略时与测试方法同名
+     */
+    private static final String METHOD_SOURCE = "Lorg/junit/jupiter/params/provider/MethodSource;";
+
+    /**
+     * 从测试类文件中找出所有的进入点
+     *
+     * @param testClassFiles test-classes下的所有文件，非.class文件会被忽略
+     * @return 进入点的节点名称
+     * @throws IOException
+     * @throws InvalidClassFileException
+     */
+    public static LinkedHashSet<String> discover(Collection<File> testClassFiles) throws IOException, InvalidClassFileException {
+        LinkedHashSet<String> roots = new LinkedHashSet<>();
+        for (File file : testClassFiles) {
+            if (ClassInventory.isClassFile(file.toPath())) {
+                discover(new ClassReader(Files.readAllBytes(file.toPath())), roots);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * 找出一个类中的进入点
+     *
+     * @param reader 类文件
+     * @param roots  用于记录进入点
+     * @throws InvalidClassFileException
+     */
+    private static void discover(ClassReader reader, Set<String> roots) throws InvalidClassFileException {
+        String className = "L" + reader.getName();
+        boolean hasRoot = false;
+        ClassReader.AttrIterator attributes = new ClassReader.AttrIterator();
+        for (int i = 0; i < reader.getMethodCount(); i++) {
+            String name = reader.getMethodName(i);
+            reader.initMethodAttributeIterator(i, attributes);
+            //会把迭代器移动到RuntimeVisibleAnnotations属性处，没有该属性时返回null
+            AnnotationsReader annotations = AnnotationsReader.getReaderForAnnotation(
+                    AnnotationsReader.AnnotationType.RuntimeVisibleAnnotations, attributes);
+            if (annotations == null) {
+                continue;
+            }
+            for (AnnotationsReader.AnnotationAttribute annotation : annotations.getAllAnnotations()) {
+                if (ROOT_ANNOTATIONS.contains(annotation.type)) {
+                    roots.add(className + ", " + name + reader.getMethodType(i));
+                    hasRoot = true;
+                } else if (METHOD_SOURCE.equals(annotation.type)) {
+                    addMethodSources(className, name, annotation, roots);
+                }
+            }
+        }
+        if (!hasRoot) {
+            return;
+        }
+        //测试运行前会先初始化测试类并创建实例，字段的初始化也可能调用被测代码
+        for (int i = 0; i < reader.getMethodCount(); i++) {
+            String name = reader.getMethodName(i);
+            if ("<init>".equals(name) || "<clinit>".equals(name)) {
+                roots.add(className + ", " + name + reader.getMethodType(i));
+            }
+        }
+    }
+
+    /**
+     * 记录@MethodSource引用的参数来源方法
+     *
+     * @param className  测试类名
+     * @param testMethod 测试方法名
+     * @param annotation @MethodSource注解
+     * @param roots      用于记录进入点
+     */
+    private static void addMethodSources(String className, String testMethod, AnnotationsReader.AnnotationAttribute annotation, Set<String> roots) {
+        ArrayList<String> sources = new ArrayList<>();
+        AnnotationsReader.ElementValue value = annotation.elementValues.get("value");
+        if (value instanceof AnnotationsReader.ArrayElementValue) {
+            for (AnnotationsReader.ElementValue element : ((AnnotationsReader.ArrayElementValue) value).vals) {
+                if (element instanceof AnnotationsReader.ConstantElementValue) {
+                    sources.add(String.valueOf(((AnnotationsReader.ConstantElementValue) element).val));
+                }
+            }
+        }
+        if (sources.isEmpty()) {
+            sources.add(testMethod);
+        }
+        for (String source : sources) {
+            //其他类中的来源方法写作"net.mooctest.Data#values"
+            int hash = source.indexOf('#');
+            if (hash >= 0) {
+                roots.add("L" + source.substring(0, hash).replace('.', '/') + ", " + source.substring(hash + 1).replaceAll("\\(.*$", ""));
+            } else {
+                roots.add(className + ", " + source.replaceAll("\\(.*$", ""));
+            }
+        }
+    }
+
+    /**
+     * 把进入点的节点名称转换为WALA的进入点，找不到的方法与抽象方法会被忽略
+     *
+     * @param cha   类层次关系
+     * @param roots 进入点的节点名称
+     * @return 进入点
+     */
+    public static ArrayList<Entrypoint> make(IClassHierarchy cha, Collection<String> roots) {
+        ArrayList<Entrypoint> entryPoints = new ArrayList<>();
+        for (String root : roots) {
+            String[] parts = root.split(", ");
+            IClass klass = cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Application, parts[0]));
+            if (klass == null) {
+                continue;
+            }
+            if (parts[1].contains("(")) {
+                IMethod method = klass.getMethod(Selector.make(parts[1]));
+                if (method != null && method.getDeclaringClass().equals(klass)) {
+                    addEntrypoint(cha, method, entryPoints);
+                }
+            } else {
+                for (IMethod method : klass.getDeclaredMethods()) {
+                    if (method.getName().toString().equals(parts[1])) {
+                        addEntrypoint(cha, method, entryPoints);
+                    }
+                }
+            }
+        }
+        return entryPoints;
+    }
+
+    /**
+     * @param cha         类层次关系
+     * @param method      方法
+     * @param entryPoints 用于记录进入点
+     */
+    private static void addEntrypoint(IClassHierarchy cha, IMethod method, ArrayList<Entrypoint> entryPoints) {
+        if (!method.isAbstract()) {
+            entryPoints.add(new ArgumentTypeEntrypoint(method, cha));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 测试选择结果的排序与分片
+ * 排序：按测试在反向调用图上与变更之间的距离从近到远排列，距离相同时按名称排列，
+ * 直接调用了变更方法的测试排在最前面，可以尽早失败；
+ * 分片：把排好序的测试分成N份，每份的预计耗时尽量接近（最长处理时间优先的贪心分配），
+ * 分片内部仍保持排序后的先后顺序
+ * <p>
+ * 耗时文件每行为 测试方法名 耗时（毫秒），两者以最后一个空白字符分隔，如
+ * "Lnet/mooctest/CMDTest net.mooctest.CMDTest.test1()V	120"；
+ * 没有记录的测试按已记录测试的平均耗时估计，没有耗时文件时每个测试都算作相同的耗时
+ *
+ * @author csh
+ */
+public class TestPrioritizer {
+
+    /**
+     * 按与变更之间的距离排序
+     *
+     * @param selected    被选择的测试方法
+     * @param grain       粒度，class粒度下使用测试类的距离
+     * @param index       对应粒度的反向调用图
+     * @param changeInfos 变更信息
+     * @return 排序后的测试方法
+     */
+    public static ArrayList<String> rank(Collection<String> selected, String grain, CallGraphIndex index, List<String> changeInfos) {
+        ArrayList<Integer> seeds = new ArrayList<>();
+        for (String seed : DotUtil.closureSeeds(changeInfos, grain)) {
+            seeds.add(index.id(seed));
+        }
+        int[] distances = index.distances(seeds);
+        boolean byClass = "class".equals(grain);
+        HashMap<String, Integer> distance = new HashMap<>();
+        for (String test : selected) {
+            int id = index.id(byClass ? CallGraphIndex.nodeClass(test) : test);
+            // 理论上被选择的测试都在闭包中，找不到时排在最后
+            distance.put(test, id < 0 || distances[id] < 0 ? Integer.MAX_VALUE : distances[id]);
+        }
+        ArrayList<String> ranked = new ArrayList<>(selected);
+        ranked.sort(Comparator.comparing((String test) -> distance.get(test)).thenComparing(test -> test));
+        return ranked;
+    }
+
+    /**
+     * 把测试分成耗时尽量均衡的若干份
+     *
+     * @param ranked    排序后的测试方法
+     * @param shards    分片数
+     * @param durations 测试方法 -> 耗时（毫秒），可以为空
+     * @return 每个分片中的测试方法，保持排序后的先后顺序
+     */
+    public static ArrayList<ArrayList<String>> shard(List<String> ranked, int shards, Map<String, Long> durations) {
+        long known = 0;
+        int knownCount = 0;
+        for (String test : ranked) {
+            Long duration = durations.get(test);
+            if (duration != null) {
+                known += duration;
+                knownCount++;
+            }
+        }
+        long estimate = knownCount == 0 ? 1 : Math.max(1, known / knownCount);
+        long[] cost = new long[ranked.size()];
+        for (int i = 0; i < cost.length; i++) {
+            cost[i] = durations.getOrDefault(ranked.get(i), estimate);
+        }
+
+        // 耗时长的先分配，每次放入当前总耗时最小的分片；耗时相同时按排序后的先后
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int i = 0; i < cost.length; i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing((Integer i) -> -cost[i]).thenComparing(i -> i));
+        long[] load = new long[shards];
+        int[] assigned = new int[cost.length];
+        for (int i : order) {
+            int target = 0;
+            for (int s = 1; s < shards; s++) {
+                if (load[s] < load[target]) {
+                    target = s;
+                }
+            }
+            load[target] += cost[i];
+            assigned[i] = target;
+        }
+        ArrayList<ArrayList<String>> result = new ArrayList<>();
+        for (int s = 0; s < shards; s++) {
+            result.add(new ArrayList<>());
+        }
+        for (int i = 0; i < cost.length; i++) {
+            result.get(assigned[i]).add(ranked.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 读取耗时文件
+     *
+     * @param file 耗时文件，空行与以#开头的行会被忽略
+     * @return 测试方法 -> 耗时（毫秒）
+     * @throws IOException
+     */
+    public static HashMap<String, Long> readDurations(File file) throws IOException {
+        HashMap<String, Long> durations = new HashMap<>();
+        for (String line : BatchSelector.readLines(file)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int split = Math.max(line.lastIndexOf(' '), line.lastIndexOf('\t'));
+            if (split < 0) {
+                throw new IOException("malformed duration line: " + line);
+            }
+            try {
+                durations.put(line.substring(0, split).trim(), Long.parseLong(line.substring(split + 1)));
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed duration line: " + line);
+            }
+        }
+        return durations;
+    }
+}
@@ -0,0 +1,108 @@
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * 比较不同精度的调用图（CHA / RTA / 0-CFA）在同一个变更上的开销与选择结果
+ * 分析范围与类层次关系只构建一次，每种精度分别构建调用图、提取调用关系并完成选择。
+ * 以0-CFA的选择结果为基准：召回率为基准中被选中的比例，多选为基准之外被选中的测试数。
+ * 报告输出到标准输出与 ./tiers-粒度.txt，同时按-analysis指定的精度写出 ./selection-粒度.txt
+ *
+ * @author csh
+ */
+public class TierComparison {
+
+    /**
+     * 依次用每种精度完成选择并输出报告
+     *
+     * @param options   命令行参数
+     * @param inventory target文件夹下的所有classFile
+     * @param roots     调用图的进入点，为null时以所有应用方法为进入点
+     * @throws Exception
+     */
+    public static void compare(AnalyzerOptions options, ClassInventory inventory, Collection<String> roots) throws Exception {
+        String grain = options.grain;
+        ArrayList<String> changeInfos = BatchSelector.readLines(new File(options.changeInfoPath));
+        HashSet<String> testClassNames = inventory.getTestClassNames();
+
+        long start = System.nanoTime();
+        AnalysisScope scope;
+        try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("scope")) {
+            scope = CallGraphFactory.makeScope(inventory.getClassFiles(), new ArrayList<>(), options.primordialCache());
+        }
+        try {
+            ClassHierarchy cha;
+            try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("classHierarchy")) {
+                cha = CallGraphFactory.makeHierarchy(scope);
+            }
+            long hierarchyMillis = (System.nanoTime() - start) / 1000000;
+
+            String[] analyses = CallGraphFactory.ANALYSES;
+            long[] buildMillis = new long[analyses.length];
+            int[] nodes = new int[analyses.length];
+            int[] edgeCounts = new int[analyses.length];
+            ArrayList<HashSet<String>> selections = new ArrayList<>();
+            for (int i = 0; i < analyses.length; i++) {
+                String analysis = analyses[i];
+                start = System.nanoTime();
+                HashSet<String> testMethods = new HashSet<>();
+                CallGraphIndex edges;
+                try (PhaseMetrics.Phase ignored = PhaseMetrics.phase("callGraph-" + analysis)) {
+                    CallGraph cg = CallGraphFactory.makeCallGraph(scope, cha, CallGraphFactory.entryPoints(scope, cha, roots), analysis);
+                    nodes[i] = cg.getNumberOfNodes();
+                    edges = EdgeExtractor.extract(cg, testMethods);
+                }
+                buildMillis[i] = (System.nanoTime() - start) / 1000000;
+
+                CallGraphIndex classIndex = DotUtil.buildClassIndex(edges);
+                CallGraphIndex methodIndex = DotUtil.buildMethodIndex(edges);
+                //只统计应用方法之间的边，CHA不展开库方法，调用库方法的边没有可比性
+                edgeCounts[i] = methodIndex.edgeCount();
+                TestClassIndex testClasses = TestClassIndex.build(testClassNames, testMethods, methodIndex);
+                HashSet<String> result = Analyzer.selectTests(grain, classIndex, methodIndex, changeInfos, testClasses, testMethods);
+                selections.add(result);
+                if (analysis.equals(options.analysis)) {
+                    FileUtil.resultToFile(result, grain);
+                }
+                PhaseMetrics.count(analysis + ".buildMillis", buildMillis[i]);
+                PhaseMetrics.count(analysis + ".methodEdges", edgeCounts[i]);
+                PhaseMetrics.count(analysis + ".selectedTests", result.size());
+            }
+
+            HashSet<String> baseline = selections.get(analyses.length - 1);
+            ArrayList<String> report = new ArrayList<>();
+            report.add("# classHierarchy " + hierarchyMillis + " ms, baseline " + CallGraphFactory.ZERO_CFA);
+            report.add(String.format(Locale.ROOT, "%-6s %10s %10s %10s %10s %8s %8s",
+                    "tier", "buildMs", "cgNodes", "edges", "selected", "recall", "extra"));
+            for (int i = 0; i < analyses.length; i++) {
+                HashSet<String> selected = selections.get(i);
+                int hit = 0;
+                for (String test : baseline) {
+                    if (selected.contains(test)) {
+                        hit++;
+                    }
+                }
+                double recall = baseline.isEmpty() ? 1.0 : (double) hit / baseline.size();
+                report.add(String.format(Locale.ROOT, "%-6s %10d %10d %10d %10d %8.3f %8d",
+                        analyses[i], buildMillis[i], nodes[i], edgeCounts[i], selected.size(), recall, selected.size() - hit));
+            }
+            try (BufferedWriter out = new BufferedWriter(new FileWriter("./tiers-" + grain + ".txt"))) {
+                for (String line : report) {
+                    System.out.println(line);
+                    out.write(line + "\n");
+                }
+            }
+        } finally {
+            CallGraphFactory.close(scope);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 命令行参数的解析
+ *
+ * @author csh
+ */
+public class AnalyzerOptionsTest {
+
+    @Test
+    public void incrementalDefaultsToCha() {
+        assertEquals(CallGraphFactory.ZERO_CFA, AnalyzerOptions.parse(new String[]{"-m", "target", "change"}).analysis);
+        AnalyzerOptions options = AnalyzerOptions.parse(new String[]{"-m", "target", "change", "-cache", "graph.cache", "-incremental"});
+        assertEquals(CallGraphFactory.CHA, options.analysis);
+    }
+
+    @Test
+    public void incrementalRejectsUnsupportedSettings() {
+        String[][] cases = {
+                {"-m", "target", "change", "-cache", "graph.cache", "-incremental", "-analysis", CallGraphFactory.ZERO_CFA},
+                {"-m", "target", "change", "-cache", "graph.cache", "-analysis", CallGraphFactory.RTA, "-incremental"},
+                {"-m", "target", "change", "-cache", "graph.cache", "-incremental", "-entry", TestEntrypoints.TESTS},
+                {"-m", "target", "change", "-incremental"}
+        };
+        for (String[] args : cases) {
+            try {
+                AnalyzerOptions.parse(args);
+                fail("accepted " + String.join(" ", args));
+            } catch (IllegalArgumentException expected) {
+                // 期望的结果
+            }
+        }
+    }
+}
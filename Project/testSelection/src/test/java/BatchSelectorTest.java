@@ -0,0 +1,75 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 批量选择与逐个变更集选择的比较
+ *
+ * @author csh
+ */
+public class BatchSelectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CallGraphIndex classIndex;
+    private CallGraphIndex methodIndex;
+    private TestClassIndex testClasses;
+    private final HashSet<String> testMethods = new HashSet<>(Arrays.asList("Lp/ATest p.ATest.a()V", "Lp/BTest p.BTest.b()V"));
+
+    private void buildGraph() {
+        CallGraphIndex edges = new CallGraphIndex();
+        edges.addEdge("Lp/A, a()V", "Lp/ATest, a()V");
+        edges.addEdge("Lp/B, b()V", "Lp/BTest, b()V");
+        edges.addEdge("Lp/C, c()V", "Lp/A, a()V");
+        edges.addEdge("Lp/C, c()V", "Lp/B, b()V");
+        classIndex = DotUtil.buildClassIndex(edges);
+        methodIndex = DotUtil.buildMethodIndex(edges);
+        testClasses = TestClassIndex.build(new HashSet<>(Arrays.asList("Lp/ATest", "Lp/BTest")), testMethods, methodIndex);
+    }
+
+    @Test
+    public void selectionMatchesSingleChangeSet() {
+        buildGraph();
+        List<List<String>> changeSets = Arrays.asList(
+                Arrays.asList("Lp/A p.A.a()V"),
+                Arrays.asList("Lp/B p.B.b()V", "Lp/X p.X.x()V"),
+                Arrays.asList("Lp/C p.C.c()V", "Lp/A p.A.a()V"),
+                new ArrayList<>());
+        for (String grain : new String[]{"class", "method"}) {
+            BatchSelector batch = new BatchSelector(grain, classIndex, methodIndex, testClasses, testMethods);
+            for (List<String> changeInfos : changeSets) {
+                assertEquals(grain + " " + changeInfos,
+                        Analyzer.selectTests(grain, classIndex, methodIndex, new ArrayList<>(changeInfos), testClasses, testMethods),
+                        batch.select(changeInfos));
+            }
+        }
+    }
+
+    /**
+     * 不同文件夹中同名的变更集分别写出
+     */
+    @Test
+    public void sameNamedChangeFilesDoNotCollide() throws Exception {
+        buildGraph();
+        File first = new File(folder.newFolder("a"), "change.txt");
+        File second = new File(folder.newFolder("b"), "change.txt");
+        Files.write(first.toPath(), "Lp/A p.A.a()V\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(second.toPath(), "Lp/B p.B.b()V\n".getBytes(StandardCharsets.UTF_8));
+        File output = folder.newFolder("out");
+        new BatchSelector("method", classIndex, methodIndex, testClasses, testMethods).run(Arrays.asList(first, second), output);
+
+        assertEquals(Arrays.asList("Lp/ATest p.ATest.a()V"), BatchSelector.readLines(new File(output, "selection-method-0-change.txt")));
+        assertEquals(Arrays.asList("Lp/BTest p.BTest.b()V"), BatchSelector.readLines(new File(output, "selection-method-1-change.txt")));
+    }
+}
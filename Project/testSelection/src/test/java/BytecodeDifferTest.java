@@ -0,0 +1,85 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 字节码比较生成的变更信息
+ *
+ * @author csh
+ */
+public class BytecodeDifferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void methodReferenceTargetChange() throws Exception {
+        ArrayList<String> changes = diff("p/L.java",
+                "package p; public class L { public Runnable r() { return this::a; } void a() { } void b() { } }",
+                "package p; public class L { public Runnable r() { return this::b; } void a() { } void b() { } }");
+        assertEquals(Arrays.asList("Lp/L p.L.r()Ljava/lang/Runnable;"), changes);
+    }
+
+    @Test
+    public void annotationChange() throws Exception {
+        ArrayList<String> changes = diff("p/T.java",
+                "package p; public class T { public void t() { } }",
+                "package p; public class T { @org.junit.Test public void t() { } }");
+        assertEquals(Arrays.asList("Lp/T p.T.t()V"), changes);
+        // 注解的参数
+        changes = diff("p/T.java",
+                "package p; public class T { @org.junit.Test(timeout = 1) public void t() { } }",
+                "package p; public class T { @org.junit.Test(timeout = 2) public void t() { } }");
+        assertEquals(Arrays.asList("Lp/T p.T.t()V"), changes);
+    }
+
+    @Test
+    public void unchangedClassHasNoChanges() throws Exception {
+        String source = "package p; public class L { @org.junit.Test public void t() { Runnable r = this::t; r.run(); } }";
+        assertTrue(diff("p/L.java", source, source).isEmpty());
+    }
+
+    @Test
+    public void superclassChangeMarksSubclasses() throws Exception {
+        Map<String, String> before = new LinkedHashMap<>();
+        before.put("p/Base.java", "package p; public class Base { public int m() { return 1; } }");
+        before.put("p/Other.java", "package p; public class Other { public int m() { return 2; } }");
+        before.put("p/Mid.java", "package p; public class Mid extends Base { }");
+        before.put("p/Leaf.java", "package p; public class Leaf extends Mid { public int own() { return 3; } }");
+        before.put("p/Unrelated.java", "package p; public class Unrelated { public int u() { return 4; } }");
+        Map<String, String> after = new LinkedHashMap<>(before);
+        after.put("p/Mid.java", "package p; public class Mid extends Other { }");
+        ArrayList<String> changes = diff(before, after);
+        assertEquals(Arrays.asList(
+                "Lp/Leaf p.Leaf.<init>()V",
+                "Lp/Leaf p.Leaf.m()I",
+                "Lp/Leaf p.Leaf.own()I",
+                "Lp/Mid p.Mid.<init>()V",
+                "Lp/Mid p.Mid.m()I"), changes);
+    }
+
+    private ArrayList<String> diff(String file, String before, String after) throws Exception {
+        Map<String, String> beforeSources = new LinkedHashMap<>();
+        beforeSources.put(file, before);
+        Map<String, String> afterSources = new LinkedHashMap<>();
+        afterSources.put(file, after);
+        return diff(beforeSources, afterSources);
+    }
+
+    private ArrayList<String> diff(Map<String, String> before, Map<String, String> after) throws Exception {
+        File baseline = folder.newFolder();
+        Fixtures.compile(baseline, "classes", before);
+        File current = folder.newFolder();
+        Fixtures.compile(current, "classes", after);
+        return BytecodeDiffer.diff(baseline.getPath(), current.getPath());
+    }
+}
@@ -0,0 +1,60 @@
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.types.ClassLoaderReference;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 分析范围中打开的jar
+ *
+ * @author csh
+ */
+public class CallGraphFactoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closeReleasesApplicationAndLibraryJars() throws Exception {
+        Fixtures.assumeRtJar();
+        ArrayList<File> classFiles = new ArrayList<>();
+        classFiles.add(jar("app.jar"));
+        ArrayList<File> libraries = new ArrayList<>();
+        libraries.add(jar("lib.jar"));
+        AnalysisScope scope = CallGraphFactory.makeScope(classFiles, libraries);
+        CallGraphFactory.close(scope);
+
+        int closed = 0;
+        for (ClassLoaderReference loader : new ClassLoaderReference[]{ClassLoaderReference.Extension, ClassLoaderReference.Application}) {
+            for (Module module : scope.getModules(loader)) {
+                try {
+                    ((JarFileModule) module).getJarFile().entries();
+                    fail(module + " is still open");
+                } catch (IllegalStateException e) {
+                    closed++;
+                }
+            }
+        }
+        assertEquals(2, closed);
+    }
+
+    private File jar(String name) throws Exception {
+        File file = folder.newFile(name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry("p/"));
+            out.closeEntry();
+        }
+        return file;
+    }
+}
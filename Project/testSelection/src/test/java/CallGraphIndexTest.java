@@ -0,0 +1,153 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 反向调用图索引上的闭包与原先在.dot图上迭代到不动点的闭包比较
+ *
+ * @author csh
+ */
+public class CallGraphIndexTest {
+
+    @Test
+    public void closureMatchesFixpointOnRandomGraphs() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            ArrayList<String> dotGraph = randomDotGraph(random, 5 + random.nextInt(20), 4, 1 + random.nextInt(80));
+            ArrayList<String> changeInfos = randomChanges(random, dotGraph, 3);
+            for (String grain : new String[]{"class", "method"}) {
+                assertEquals("round " + round + " " + grain, fixpointClosure(dotGraph, changeInfos, grain),
+                        DotUtil.findClosure(dotGraph, changeInfos, grain));
+            }
+        }
+    }
+
+    @Test
+    public void closureHandlesCyclesAndUnknownSeeds() {
+        ArrayList<String> dotGraph = new ArrayList<>(Arrays.asList(
+                "Lp/A p.A.a()V -> Lp/B p.B.b()V",
+                "Lp/B p.B.b()V -> Lp/A p.A.a()V",
+                "Lp/B p.B.b()V -> Lp/T p.T.test()V"));
+        ArrayList<String> changeInfos = new ArrayList<>(Arrays.asList("Lp/A p.A.a()V", "Lp/X p.X.x()V"));
+        for (String grain : new String[]{"class", "method"}) {
+            assertEquals(fixpointClosure(dotGraph, changeInfos, grain), DotUtil.findClosure(dotGraph, changeInfos, grain));
+        }
+        // 只作为调用者出现的节点不会成为闭包的起点
+        ArrayList<String> callerOnly = new ArrayList<>(Arrays.asList("Lp/T p.T.test()V"));
+        assertEquals(new HashSet<String>(), DotUtil.findClosure(dotGraph, callerOnly, "method"));
+    }
+
+    @Test
+    public void lowMemoryModeIsPerIndex() {
+        Random random = new Random(5);
+        ArrayList<String> dotGraph = randomDotGraph(random, 20, 4, 80);
+        CallGraphIndex edges = new CallGraphIndex(true);
+        CallGraphIndex plain = new CallGraphIndex();
+        for (String line : dotGraph) {
+            String[] nodes = line.split(" -> ");
+            edges.addEdge(edgeNode(nodes[0]), edgeNode(nodes[1]));
+            plain.addEdge(edgeNode(nodes[0]), edgeNode(nodes[1]));
+        }
+        CallGraphIndex methodIndex = DotUtil.buildMethodIndex(edges);
+        assertTrue(methodIndex.isLowMemory());
+        assertTrue(DotUtil.buildClassIndex(edges).isLowMemory());
+        assertFalse(DotUtil.buildMethodIndex(plain).isLowMemory());
+
+        ArrayList<String> changeInfos = randomChanges(random, dotGraph, 3);
+        HashSet<String> closure = DotUtil.findClosure(methodIndex, changeInfos, "method");
+        assertEquals(fixpointClosure(dotGraph, changeInfos, "method"), closure);
+        assertEquals(DotUtil.findClosure(DotUtil.buildMethodIndex(plain), changeInfos, "method"), closure);
+    }
+
+    /**
+     * @param node method粒度的节点名称，如"Lp/C0 p.C0.m1()V"
+     * @return EdgeExtractor格式的节点名称，如"Lp/C0, m1()V"
+     */
+    private static String edgeNode(String node) {
+        return node.substring(0, node.indexOf(' ')) + ", " + node.substring(node.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * 随机生成.dot图，节点名称的格式与调用图一致
+     *
+     * @param random  随机数
+     * @param classes 类的个数
+     * @param methods 每个类最多的方法数
+     * @param edges   边数
+     * @return .dot图，每一行为 被调用者 -> 调用者
+     */
+    static ArrayList<String> randomDotGraph(Random random, int classes, int methods, int edges) {
+        ArrayList<String> dotGraph = new ArrayList<>();
+        for (int i = 0; i < edges; i++) {
+            dotGraph.add(randomNode(random, classes, methods) + " -> " + randomNode(random, classes, methods));
+        }
+        return dotGraph;
+    }
+
+    private static String randomNode(Random random, int classes, int methods) {
+        String className = "C" + random.nextInt(classes);
+        return "Lp/" + className + " p." + className + ".m" + random.nextInt(methods) + "()V";
+    }
+
+    /**
+     * @return 从图中的节点与不存在的节点中随机选取的变更信息
+     */
+    static ArrayList<String> randomChanges(Random random, ArrayList<String> dotGraph, int count) {
+        ArrayList<String> changeInfos = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String line = dotGraph.get(random.nextInt(dotGraph.size()));
+            changeInfos.add(random.nextInt(4) == 0 ? "Lp/Missing p.Missing.m()V" : line.split(" -> ")[random.nextInt(2)]);
+        }
+        return changeInfos;
+    }
+
+    /**
+     * 原先的实现：在.dot图上反复扫描所有的边，直到闭包的大小不再增加
+     *
+     * @param dotGraph    .dot图
+     * @param changeInfos 变更信息
+     * @param grain       粒度
+     * @return 闭包
+     */
+    static HashSet<String> fixpointClosure(ArrayList<String> dotGraph, ArrayList<String> changeInfos, String grain) {
+        boolean byClass = "class".equals(grain);
+        HashSet<String> closure = new HashSet<>();
+        for (String changeInfo : changeInfos) {
+            String seed = byClass ? changeInfo.split(" ")[0] : changeInfo;
+            for (String line : dotGraph) {
+                String calledNode = node(line.split(" -> ")[0], byClass);
+                if (calledNode.equals(seed)) {
+                    closure.add(calledNode);
+                    closure.add(node(line.split(" -> ")[1], byClass));
+                }
+            }
+        }
+        int closureSize = 0;
+        while (closureSize != closure.size()) {
+            closureSize = closure.size();
+            HashSet<String> nodeStore = new HashSet<>();
+            for (String c : closure) {
+                for (String line : dotGraph) {
+                    String calledNode = node(line.split(" -> ")[0], byClass);
+                    if (calledNode.equals(c)) {
+                        nodeStore.add(calledNode);
+                        nodeStore.add(node(line.split(" -> ")[1], byClass));
+                    }
+                }
+            }
+            closure.addAll(nodeStore);
+        }
+        return closure;
+    }
+
+    private static String node(String node, boolean byClass) {
+        return byClass ? node.split(" ")[0] : node;
+    }
+}
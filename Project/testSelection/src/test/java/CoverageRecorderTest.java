@@ -0,0 +1,77 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 测试之外执行的方法的归属，以及覆盖信息文件的合并
+ *
+ * @author csh
+ */
+public class CoverageRecorderTest {
+
+    private static final String A1 = "Lp/ATest p.ATest.a1()V";
+    private static final String A2 = "Lp/ATest p.ATest.a2()V";
+    private static final String B1 = "Lp/BTest p.BTest.b1()V";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hitsOutsideTestsAreAttributedToTheTestClass() throws Exception {
+        int setUpA = CoverageRecorder.register("Lp/Fixture p.Fixture.setUpA()V");
+        int init = CoverageRecorder.register("Lp/Shared p.Shared.<clinit>()V");
+        int onlyA1 = CoverageRecorder.register("Lp/X p.X.onlyA1()V");
+        int tearDownA = CoverageRecorder.register("Lp/Fixture p.Fixture.tearDownA()V");
+        int tearDownB = CoverageRecorder.register("Lp/Fixture p.Fixture.tearDownB()V");
+
+        // ATest的@BeforeClass
+        CoverageRecorder.hit(setUpA);
+        CoverageRecorder.testStarted(A1);
+        CoverageRecorder.hit(onlyA1);
+        // 第一个使用Shared的测试触发静态初始化
+        CoverageRecorder.hit(init);
+        CoverageRecorder.testFinished();
+        CoverageRecorder.testStarted(A2);
+        CoverageRecorder.testFinished();
+        // ATest的@AfterClass
+        CoverageRecorder.hit(tearDownA);
+        CoverageRecorder.testStarted(B1);
+        CoverageRecorder.testFinished();
+        // BTest的@AfterClass
+        CoverageRecorder.hit(tearDownB);
+
+        File file = new File(folder.getRoot(), "coverage.bin");
+        CoverageRecorder.write(file);
+        CoverageData data = CoverageData.read(file);
+        HashSet<String> tests = new HashSet<>(Arrays.asList(A1, A2, B1));
+        assertEquals(set(A1, A2), select(data, tests, "Lp/Fixture p.Fixture.setUpA()V"));
+        assertEquals(set(A1), select(data, tests, "Lp/X p.X.onlyA1()V"));
+        assertEquals(set(A1, A2, B1), select(data, tests, "Lp/Shared p.Shared.<clinit>()V"));
+        // 两个测试类之间的间隙同时归入前后两个类
+        assertEquals(set(A1, A2, B1), select(data, tests, "Lp/Fixture p.Fixture.tearDownA()V"));
+        assertEquals(set(B1), select(data, tests, "Lp/Fixture p.Fixture.tearDownB()V"));
+
+        // 再次写入时与已有的内容合并，不留下临时文件
+        CoverageRecorder.write(file);
+        assertEquals(set(A1), select(CoverageData.read(file), tests, "Lp/X p.X.onlyA1()V"));
+        for (String name : folder.getRoot().list()) {
+            assertTrue(name, name.equals("coverage.bin") || name.equals("coverage.bin.lock"));
+        }
+    }
+
+    private static HashSet<String> select(CoverageData data, HashSet<String> tests, String change) {
+        return data.select("method", Collections.singletonList(change), new HashSet<>(), tests, null);
+    }
+
+    private static HashSet<String> set(String... tests) {
+        return new HashSet<>(Arrays.asList(tests));
+    }
+}
@@ -0,0 +1,71 @@
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 并行提取与只有一段时的比较
+ *
+ * @author csh
+ */
+public class EdgeExtractorTest {
+
+    private static final Map<String, String> MAIN = new LinkedHashMap<>();
+    private static final Map<String, String> TESTS = new LinkedHashMap<>();
+
+    static {
+        StringBuilder chain = new StringBuilder("package p; public class Chain {");
+        for (int i = 0; i < 60; i++) {
+            chain.append(" public int m").append(i).append("() { return ").append(i == 0 ? "0" : "m" + (i - 1) + "() + new Base().m()").append("; }");
+        }
+        MAIN.put("p/Chain.java", chain.append(" }").toString());
+        MAIN.put("p/Base.java", "package p; public class Base { public int m() { return 1; } }");
+        MAIN.put("p/Sub.java", "package p; public class Sub extends Base { public int m() { return 2; } }");
+        // 测试类路径中没有JUnit 5，只需要注解的类型名相同
+        TESTS.put("org/junit/jupiter/api/Test.java", "package org.junit.jupiter.api; @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME) public @interface Test { }");
+        TESTS.put("p/ChainTest.java", "package p; public class ChainTest { @org.junit.Test public void test() { new Chain().m59(); } }");
+        TESTS.put("p/SubTest.java", "package p; public class SubTest { @org.junit.jupiter.api.Test public void test() { new Sub().m(); } public void helper() { } }");
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void partitionsMatchSinglePartition() throws Exception {
+        Fixtures.assumeRtJar();
+        File target = folder.newFolder();
+        Fixtures.compile(target, "classes", MAIN);
+        Fixtures.compile(target, "test-classes", TESTS);
+        ArrayList<File> classFiles = ClassInventory.scan(target.getPath()).getClassFiles();
+        CallGraph cg = CallGraphFactory.makeCallGraph(classFiles);
+        try {
+            HashSet<String> expectedTests = new HashSet<>();
+            CallGraphIndex expected = EdgeExtractor.extract(cg, expectedTests, null, false, 1);
+            HashSet<String> junitTests = new HashSet<>();
+            junitTests.add("Lp/ChainTest p.ChainTest.test()V");
+            junitTests.add("Lp/SubTest p.SubTest.test()V");
+            assertEquals(junitTests, expectedTests);
+
+            for (int partitions : new int[]{2, 7, 1000}) {
+                HashSet<String> tests = new HashSet<>();
+                CallGraphIndex edges = EdgeExtractor.extract(cg, tests, null, partitions % 2 == 0, partitions);
+                assertEquals(expected.nodeCount(), edges.nodeCount());
+                for (int i = 0; i < expected.nodeCount(); i++) {
+                    assertEquals(expected.name(i), edges.name(i));
+                }
+                assertEquals(Fixtures.edgeSet(expected), Fixtures.edgeSet(edges));
+                assertEquals(expectedTests, tests);
+            }
+        } finally {
+            CallGraphFactory.close(cg);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.Assume;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * 测试用的target文件夹：把源代码编译到 target/classes 或 target/test-classes 下
+ *
+ * @author csh
+ */
+class Fixtures {
+
+    /**
+     * WALA 1.5.5只能从rt.jar读取Java原生类，在没有rt.jar的JDK上跳过需要构建调用图的测试
+     */
+    static void assumeRtJar() {
+        Assume.assumeTrue("WALA needs the rt.jar of a JDK 8",
+                new File(System.getProperty("java.home"), "lib/rt.jar").isFile());
+    }
+
+    /**
+     * 编译源代码，classes已经编译好时一并加入类路径，总是生成Java 8的类文件
+     *
+     * @param target    target文件夹
+     * @param directory classes或test-classes
+     * @param sources   源文件路径（如"p/A.java"） -> 源代码
+     * @throws IOException
+     */
+    static void compile(File target, String directory, Map<String, String> sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        File sourceRoot = Files.createTempDirectory("fixture-src").toFile();
+        ArrayList<String> args = new ArrayList<>();
+        String junit = new File(org.junit.Test.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+        args.add("-nowarn");
+        // Shrike只能读取Java 8及以下版本的类文件
+        if (compiler.isSupportedOption("--release") >= 0) {
+            args.add("--release");
+            args.add("8");
+        }
+        args.add("-cp");
+        args.add(junit + File.pathSeparator + new File(target, "classes"));
+        args.add("-d");
+        args.add(FileUtil.ensureDirectory(new File(target, directory).getPath()).getPath());
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            File file = new File(sourceRoot, entry.getKey());
+            FileUtil.ensureDirectory(file.getParent());
+            Files.write(file.toPath(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+            args.add(file.getPath());
+        }
+        if (compiler.run(null, null, null, args.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("cannot compile " + sources.keySet());
+        }
+    }
+
+    /**
+     * @param edges 调用关系
+     * @return 所有的边，格式为 被调用者 -> 调用者
+     */
+    static HashSet<String> edgeSet(CallGraphIndex edges) {
+        HashSet<String> result = new HashSet<>();
+        edges.forEachEdge((called, call) -> result.add(edges.name(called) + " -> " + edges.name(call)));
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 调用关系缓存的读写
+ *
+ * @author csh
+ */
+public class GraphCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        File file = folder.newFile("graph.cache");
+        TreeMap<String, String> hashes = new TreeMap<>();
+        hashes.put("classes/p/A.class", "01");
+        CallGraphIndex edges = new CallGraphIndex();
+        edges.addEdge("Lp/A, a()V", "Lp/T, test()V");
+        HashSet<String> testMethods = new HashSet<>();
+        testMethods.add("Lp/T p.T.test()V");
+        GraphCache.save(file, CallGraphFactory.CHA, TestEntrypoints.ALL, hashes, edges, testMethods);
+
+        GraphCache.Snapshot cached = GraphCache.read(file, CallGraphFactory.CHA, TestEntrypoints.ALL, false);
+        assertNotNull(cached);
+        assertTrue(cached.isHit(hashes));
+        assertEquals(1, cached.edges.edgeCount());
+        assertEquals(testMethods, cached.testMethods);
+        // 文件变化时未命中，但仍可用于增量更新
+        TreeMap<String, String> changed = new TreeMap<>(hashes);
+        changed.put("classes/p/A.class", "02");
+        assertFalse(cached.isHit(changed));
+        // 其他精度或进入点的缓存不可用
+        assertNull(GraphCache.read(file, CallGraphFactory.ZERO_CFA, TestEntrypoints.ALL, false));
+        assertNull(GraphCache.read(file, CallGraphFactory.CHA, TestEntrypoints.TESTS, false));
+    }
+
+    @Test
+    public void otherEnvironmentIsStale() throws Exception {
+        File file = folder.newFile("graph.cache");
+        TreeMap<String, String> hashes = new TreeMap<>();
+        GraphCache.save(file, CallGraphFactory.CHA, TestEntrypoints.ALL, hashes, new CallGraphIndex(), new HashSet<>());
+        assertNotNull(GraphCache.read(file));
+
+        // 把键换成另一个JDK的键，长度不变
+        String key = PrimordialSnapshot.environmentKey();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8 + 2);
+            raf.write(key.charAt(0) == '0' ? '1' : '0');
+        }
+        assertNull(GraphCache.read(file));
+
+        // 旧版本的缓存没有键
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x54534347);
+            out.writeInt(3);
+        }
+        assertNull(GraphCache.read(file));
+    }
+}
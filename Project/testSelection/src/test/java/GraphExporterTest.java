@@ -0,0 +1,70 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 二进制边表的读写
+ *
+ * @author csh
+ */
+public class GraphExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CallGraphIndex randomIndex() {
+        Random random = new Random(4);
+        CallGraphIndex index = new CallGraphIndex();
+        for (int i = 0; i < 300; i++) {
+            // 名称中含有多字节字符
+            index.addEdge("Lp/C" + random.nextInt(40) + " p.C.mé" + random.nextInt(3) + "()V",
+                    "Lp/C" + random.nextInt(40) + " p.C.m" + random.nextInt(3) + "()V");
+        }
+        return index;
+    }
+
+    @Test
+    public void mappedViewMatchesIndex() throws Exception {
+        CallGraphIndex index = randomIndex();
+        File file = folder.newFile("graph.edges");
+        GraphExporter.writeBinary(index, file);
+        MappedEdgeList view = GraphExporter.readBinary(file);
+        assertEquals(index.nodeCount(), view.nodeCount());
+        assertEquals(index.edgeCount(), view.edgeCount());
+        assertEquals(Fixtures.edgeSet(index), Fixtures.edgeSet(view.toIndex()));
+
+        File fromIndex = folder.newFile("index.dot");
+        File fromView = folder.newFile("view.dot");
+        GraphExporter.writeDot(index, "method", "g", fromIndex);
+        GraphExporter.writeDot(view, "method", "g", fromView);
+        assertArrayEquals(Files.readAllBytes(fromIndex.toPath()), Files.readAllBytes(fromView.toPath()));
+    }
+
+    @Test
+    public void truncatedFileIsAnIOException() throws Exception {
+        File file = folder.newFile("graph.edges");
+        GraphExporter.writeBinary(randomIndex(), file);
+        long length = file.length();
+        for (long size = length - 1; size >= 0; size -= 97) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+            }
+            try {
+                GraphExporter.readBinary(file);
+                fail("accepted a file truncated to " + size + " of " + length + " bytes");
+            } catch (IOException expected) {
+                // 期望的结果
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 增量更新与完整重建的比较
+ *
+ * @author csh
+ */
+public class IncrementalUpdaterTest {
+
+    private static final Map<String, String> MAIN = new LinkedHashMap<>();
+    private static final Map<String, String> TESTS = new LinkedHashMap<>();
+
+    static {
+        MAIN.put("p/Base.java", "package p; public class Base { public int m() { return 1; } }");
+        MAIN.put("p/Sub.java", "package p; public class Sub extends Base { }");
+        MAIN.put("p/Foo.java", "package p; public class Foo { public int foo() { return 3; } }");
+        MAIN.put("p/Bar.java", "package p; public class Bar extends Foo { public int foo() { return 4; } }");
+        MAIN.put("p/Holder.java", "package p; public class Holder { public Foo f; }");
+        MAIN.put("p/Setter.java", "package p; public class Setter { public static void set(Holder h) { h.f = new Bar(); } }");
+        MAIN.put("p/A.java", "package p; public class A { private final Holder h; public A(Holder h) { this.h = h; } public int m() { return 0; } }");
+        MAIN.put("p/Caller.java", "package p; public class Caller { public int call(Base b) { return b.m(); } }");
+        TESTS.put("p/CallerTest.java", "package p; public class CallerTest { @org.junit.Test public void test() {"
+                + " new Caller().call(new Sub()); Holder h = new Holder(); Setter.set(h); new A(h).m(); } }");
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void assumeRtJar() {
+        Fixtures.assumeRtJar();
+    }
+
+    /**
+     * 新增的覆盖改变了调用Base.m()的调用点的派发目标，不能只重新分析Sub
+     */
+    @Test
+    public void addedOverrideFallsBackToFullRebuild() throws Exception {
+        Map<String, String> change = new LinkedHashMap<>();
+        change.put("p/Sub.java", "package p; public class Sub extends Base { public int m() { return 5; } }");
+        for (String analysis : CallGraphFactory.ANALYSES) {
+            assertNull(analysis, incrementalUpdate(change, analysis));
+        }
+    }
+
+    /**
+     * 只改变方法体：A.m()读取的字段由未变更的Setter赋值。
+     * CHA中只需要重新分析A，指针分析中字段指向的对象来自其他方法，只能完整重建
+     */
+    @Test
+    public void fieldFlowChange() throws Exception {
+        Map<String, String> change = new LinkedHashMap<>();
+        change.put("p/A.java", "package p; public class A { private final Holder h; public A(Holder h) { this.h = h; } public int m() { return h.f.foo(); } }");
+        assertNull(incrementalUpdate(change, CallGraphFactory.RTA));
+        assertNull(incrementalUpdate(change, CallGraphFactory.ZERO_CFA));
+        assertNotNull(incrementalUpdate(change, CallGraphFactory.CHA));
+    }
+
+    /**
+     * 在变更前的target上完整构建并缓存，再对变更后的target做增量更新，与变更后完整重建的结果比较
+     *
+     * @param change   变更后的源文件
+     * @param analysis 调用图的精度
+     * @return 增量更新的结果，需要完整重建时返回null
+     * @throws Exception
+     */
+    private CallGraphIndex incrementalUpdate(Map<String, String> change, String analysis) throws Exception {
+        File before = folder.newFolder();
+        Fixtures.compile(before, "classes", MAIN);
+        Fixtures.compile(before, "test-classes", TESTS);
+        Map<String, String> changed = new LinkedHashMap<>(MAIN);
+        changed.putAll(change);
+        File after = folder.newFolder();
+        Fixtures.compile(after, "classes", changed);
+        Fixtures.compile(after, "test-classes", TESTS);
+
+        GraphCache.Snapshot previous = new GraphCache.Snapshot();
+        ArrayList<File> beforeFiles = ClassInventory.scan(before.getPath()).getClassFiles();
+        previous.analysis = analysis;
+        previous.fileHashes = FileUtil.hashClassFiles(before.getPath(), beforeFiles);
+        previous.classShapes = IncrementalUpdater.shapeClassFiles(before.getPath(), beforeFiles);
+        previous.edges = EdgeExtractor.extract(CallGraphFactory.makeCallGraph(beforeFiles, analysis), previous.testMethods);
+
+        ArrayList<File> afterFiles = ClassInventory.scan(after.getPath()).getClassFiles();
+        HashSet<String> fullTests = new HashSet<>();
+        CallGraphIndex full = EdgeExtractor.extract(CallGraphFactory.makeCallGraph(afterFiles, analysis), fullTests);
+        // 变更确实改变了调用关系，否则比较没有意义
+        assertNotEquals(analysis, Fixtures.edgeSet(previous.edges), Fixtures.edgeSet(full));
+
+        HashSet<String> tests = new HashSet<>();
+        CallGraphIndex incremental = IncrementalUpdater.update(previous, FileUtil.hashClassFiles(after.getPath(), afterFiles),
+                IncrementalUpdater.shapeClassFiles(after.getPath(), afterFiles), afterFiles, tests);
+        if (incremental != null) {
+            assertEquals(analysis, Fixtures.edgeSet(full), Fixtures.edgeSet(incremental));
+            assertEquals(analysis, fullTests, tests);
+        }
+        return incremental;
+    }
+}
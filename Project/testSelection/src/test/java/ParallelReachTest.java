@@ -0,0 +1,40 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 并行的可达性计算与顺序BFS的比较
+ *
+ * @author csh
+ */
+public class ParallelReachTest {
+
+    @Test
+    public void matchesSequentialReach() {
+        Random random = new Random(6);
+        for (int round = 0; round < 5; round++) {
+            // 前沿需要超过ParallelReach.SPLIT才会切分给线程池
+            int n = 20000 + random.nextInt(20000);
+            CallGraphIndex index = new CallGraphIndex(round % 2 == 1);
+            for (int i = 0; i < n; i++) {
+                index.intern("Lp/C" + i + " p.C" + i + ".m()V");
+            }
+            int edges = n * (1 + random.nextInt(6));
+            for (int i = 0; i < edges; i++) {
+                index.addEdge(random.nextInt(n), random.nextInt(n));
+            }
+            for (int seedCount : new int[]{1, 10, 3000}) {
+                ArrayList<Integer> seeds = new ArrayList<>();
+                for (int i = 0; i < seedCount; i++) {
+                    seeds.add(random.nextInt(n));
+                }
+                // 不存在的节点被忽略
+                seeds.add(-1);
+                assertEquals("round " + round + " seeds " + seedCount, index.reachSequential(seeds), ParallelReach.reach(index, seeds));
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 可达性索引与闭包计算的比较
+ *
+ * @author csh
+ */
+public class ReachabilityIndexTest {
+
+    @Test
+    public void queryMatchesClosureOnRandomGraphs() {
+        Random random = new Random(2);
+        for (int round = 0; round < 50; round++) {
+            ArrayList<String> dotGraph = CallGraphIndexTest.randomDotGraph(random, 5 + random.nextInt(20), 4, 1 + random.nextInt(80));
+            CallGraphIndex methodIndex = CallGraphIndex.fromDotGraph(dotGraph, "method");
+            HashSet<String> testMethods = new HashSet<>();
+            for (int i = 0; i < methodIndex.nodeCount(); i++) {
+                if (random.nextInt(3) == 0) {
+                    testMethods.add(methodIndex.name(i));
+                }
+            }
+            ReachabilityIndex reachability = ReachabilityIndex.forMethods(methodIndex, testMethods);
+            ArrayList<String> changeInfos = CallGraphIndexTest.randomChanges(random, dotGraph, 3);
+            HashSet<String> expected = new HashSet<>(DotUtil.findClosure(dotGraph, changeInfos, "method"));
+            expected.retainAll(testMethods);
+            assertEquals("round " + round, expected, reachability.query(changeInfos));
+        }
+    }
+
+    @Test
+    public void compressedBitmapRoundTrip() {
+        Random random = new Random(3);
+        // 稀疏、跨块与稠密（位图块）的情况
+        int[][] shapes = {{0, 100, 1000}, {0, 300000, 50}, {0, 70000, 60000}};
+        for (int[] shape : shapes) {
+            BitSet bits = new BitSet();
+            for (int i = 0; i < shape[2]; i++) {
+                bits.set(shape[0] + random.nextInt(shape[1]));
+            }
+            CompressedBitmap bitmap = CompressedBitmap.of(bits);
+            BitSet copy = new BitSet();
+            bitmap.orInto(copy);
+            assertEquals(bits, copy);
+            assertEquals(bits.cardinality(), bitmap.cardinality());
+            for (int i = 0; i < shape[1]; i += 7) {
+                assertEquals(bits.get(i), bitmap.get(i));
+            }
+        }
+        assertTrue(CompressedBitmap.of(new BitSet()).isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 带预算的闭包计算，以及停止原因的记录
+ *
+ * @author csh
+ */
+public class SelectionBudgetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parseRejectsBadSpecs() {
+        SelectionBudget.parse("time=200,nodes=50000,fraction=0.8");
+        SelectionBudget.parse("fraction=1");
+        for (String spec : new String[]{"size=1", "nodes", "nodes=many", "time=-1", "nodes=-1", "fraction=1.5", "fraction=-0.1"}) {
+            try {
+                SelectionBudget.parse(spec);
+                fail("accepted " + spec);
+            } catch (IllegalArgumentException expected) {
+                // 期望的结果
+            }
+        }
+    }
+
+    @Test
+    public void nodesAndFractionLimits() {
+        // n0 <- n1 <- ... <- n9，测试t不在变更的闭包中
+        CallGraphIndex index = chain(10);
+        index.addEdge("other", "t");
+        List<String> seeds = Collections.singletonList("n0");
+        List<String> tests = Collections.singletonList("t");
+
+        SelectionBudget budget = SelectionBudget.parse("nodes=3");
+        assertNull(index.closureWithin(seeds, tests, budget));
+        assertEquals(SelectionBudget.NODES, budget.stopReason());
+
+        budget = SelectionBudget.parse("fraction=0.3");
+        assertNull(index.closureWithin(seeds, tests, budget));
+        assertEquals(SelectionBudget.FRACTION, budget.stopReason());
+
+        // 预算足够时与不限制的闭包一致，上一次的停止原因被清除
+        budget = SelectionBudget.parse("nodes=10,fraction=1");
+        assertEquals(12, index.nodeCount());
+        assertEquals(index.closure(seeds), index.closureWithin(seeds, tests, budget));
+        assertNull(budget.stopReason());
+    }
+
+    @Test
+    public void stopsWhenAllTestsReached() {
+        CallGraphIndex index = chain(10);
+        SelectionBudget budget = SelectionBudget.parse("time=60000");
+        assertNull(index.closureWithin(Collections.singletonList("n0"), Arrays.asList("n2", "n4"), budget));
+        assertEquals(SelectionBudget.ALL_TESTS_REACHED, budget.stopReason());
+
+        // 不在图中的测试被忽略，图中还有测试未到达时继续遍历
+        budget = SelectionBudget.parse("time=60000");
+        assertEquals(index.closure(Collections.singletonList("n5")),
+                index.closureWithin(Collections.singletonList("n5"), Arrays.asList("n2", "missing"), budget));
+        assertNull(budget.stopReason());
+    }
+
+    @Test
+    public void agreesWithUnbudgetedClosure() {
+        Random random = new Random(23);
+        for (int round = 0; round < 300; round++) {
+            ArrayList<String> dotGraph = CallGraphIndexTest.randomDotGraph(random, 5 + random.nextInt(20), 4, 1 + random.nextInt(80));
+            ArrayList<String> changeInfos = CallGraphIndexTest.randomChanges(random, dotGraph, 3);
+            for (String grain : new String[]{"class", "method"}) {
+                CallGraphIndex index = CallGraphIndex.fromDotGraph(dotGraph, grain);
+                HashSet<String> tests = new HashSet<>();
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    String node = dotGraph.get(random.nextInt(dotGraph.size())).split(" -> ")[1];
+                    tests.add("class".equals(grain) ? node.split(" ")[0] : node);
+                }
+                int limit = 1 + random.nextInt(index.nodeCount() + 1);
+                double fraction = random.nextDouble();
+                SelectionBudget budget = SelectionBudget.parse(random.nextBoolean() ? "nodes=" + limit : "fraction=" + fraction);
+
+                String message = "round " + round + " " + grain;
+                HashSet<String> closure = DotUtil.findClosure(index, changeInfos, grain);
+                HashSet<String> bounded = DotUtil.findClosure(index, changeInfos, grain, tests, budget);
+                String reason = budget.stopReason();
+                if (bounded != null) {
+                    assertNull(message, reason);
+                    assertEquals(message, closure, bounded);
+                } else if (SelectionBudget.ALL_TESTS_REACHED.equals(reason)) {
+                    assertTrue(message, closure.containsAll(tests));
+                } else if (SelectionBudget.NODES.equals(reason)) {
+                    assertTrue(message, closure.size() > limit);
+                } else {
+                    assertEquals(message, SelectionBudget.FRACTION, reason);
+                    assertTrue(message, closure.size() > Math.ceil(fraction * index.nodeCount()));
+                }
+
+                if ("method".equals(grain)) {
+                    // 提前停止时选择图中所有的测试，否则与不限制预算的选择一致
+                    HashSet<String> selected = Analyzer.selectTests(grain, null, index, changeInfos, null, tests, budget);
+                    HashSet<String> expected = bounded == null ? tests
+                            : Analyzer.selectTests(grain, null, index, changeInfos, null, tests, null);
+                    assertEquals(message, expected, selected);
+                    assertEquals(message, reason, budget.stopReason());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void stopReasonWrittenNextToSelection() throws Exception {
+        File selection = new File(folder.getRoot(), "selection-method.txt");
+        File stop = new File(folder.getRoot(), "selection-method.stop");
+        assertEquals(stop.getAbsoluteFile(), FileUtil.stopReasonFile(selection));
+
+        FileUtil.stopReasonToFile(SelectionBudget.NODES, selection);
+        assertEquals(Collections.singletonList("selectionStop=" + SelectionBudget.NODES),
+                Files.readAllLines(stop.toPath(), StandardCharsets.UTF_8));
+
+        // 没有提前停止时删除上一次留下的文件
+        FileUtil.stopReasonToFile(null, selection);
+        assertFalse(stop.exists());
+        FileUtil.stopReasonToFile(null, selection);
+        assertFalse(stop.exists());
+    }
+
+    /**
+     * @param length 节点数
+     * @return n0 <- n1 <- ... 的反向调用图，每个节点被下一个节点调用
+     */
+    private static CallGraphIndex chain(int length) {
+        CallGraphIndex index = new CallGraphIndex();
+        for (int i = 0; i + 1 < length; i++) {
+            index.addEdge("n" + i, "n" + (i + 1));
+        }
+        return index;
+    }
+}
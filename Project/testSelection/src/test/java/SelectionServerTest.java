@@ -0,0 +1,131 @@
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 常驻服务在类文件变化后的选择结果与新进程中完整构建的结果比较
+ *
+ * @author csh
+ */
+public class SelectionServerTest {
+
+    private static final Map<String, String> MAIN = new LinkedHashMap<>();
+    private static final Map<String, String> TESTS = new LinkedHashMap<>();
+
+    static {
+        MAIN.put("p/A.java", "package p; public class A { public int a() { return 1; } }");
+        MAIN.put("p/B.java", "package p; public class B { public int b() { return new A().a(); } }");
+        MAIN.put("p/C.java", "package p; public class C { public int c() { return 2; } }");
+        MAIN.put("p/Cmp.java", "package p; public class Cmp implements java.util.Comparator<String> {"
+                + " public int compare(String x, String y) { return new C().c(); } }");
+        TESTS.put("p/ATest.java", "package p; public class ATest { @org.junit.Test public void test() { new A().a(); } }");
+        TESTS.put("p/BTest.java", "package p; public class BTest { @org.junit.Test public void test() { new B().b(); } }");
+        TESTS.put("p/CmpTest.java", "package p; public class CmpTest { @org.junit.Test public void test() {"
+                + " java.util.ArrayList<String> l = new java.util.ArrayList<>(java.util.Arrays.asList(\"a\", \"b\"));"
+                + " java.util.Collections.sort(l, new Cmp()); } }");
+    }
+
+    private static final ArrayList<String> CHANGES = new ArrayList<>(Arrays.asList("Lp/A p.A.a()I", "Lp/C p.C.c()I"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void assumeRtJar() {
+        Fixtures.assumeRtJar();
+    }
+
+    /**
+     * 第二次构建复用常驻的原生类，结果应与完整构建一致
+     */
+    @Test
+    public void rebuildAfterChangeMatchesFullBuild() throws Exception {
+        File target = folder.newFolder();
+        Fixtures.compile(target, "classes", MAIN);
+        Fixtures.compile(target, "test-classes", TESTS);
+        SelectionServer server = new SelectionServer();
+        for (String grain : new String[]{"class", "method"}) {
+            assertEquals(grain, fullSelection(target, grain), server.select(grain, target.getPath(), CHANGES));
+        }
+
+        Map<String, String> changed = new LinkedHashMap<>(MAIN);
+        changed.put("p/B.java", "package p; public class B { public int b() { return new C().c(); } }");
+        Fixtures.compile(target, "classes", changed);
+        for (File file : ClassInventory.scan(target.getPath()).getClassFiles()) {
+            file.setLastModified(file.lastModified() + 2000);
+        }
+        for (String grain : new String[]{"class", "method"}) {
+            assertEquals(grain, fullSelection(target, grain), server.select(grain, target.getPath(), CHANGES));
+        }
+        HashSet<String> selected = server.select("method", target.getPath(), CHANGES);
+        assertTrue(selected.toString(), selected.contains("Lp/BTest p.BTest.test()V"));
+    }
+
+    /**
+     * 通过连接发送shutdown后，listen关闭ServerSocket并返回
+     */
+    @Test(timeout = 30000)
+    public void shutdownStopsListening() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        SelectionServer server = new SelectionServer();
+        Thread listener = new Thread(() -> {
+            try {
+                server.listen(port);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        listener.start();
+        Socket socket = null;
+        while (socket == null) {
+            try {
+                socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (ConnectException e) {
+                Thread.sleep(20);
+            }
+        }
+        try (Socket s = socket; Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            out.write("shutdown\n");
+            out.flush();
+            listener.join();
+        }
+        // 端口已经释放
+        new ServerSocket(port, 50, InetAddress.getLoopbackAddress()).close();
+    }
+
+    /**
+     * 在新的类层次关系上完整构建调用图并选择测试
+     */
+    private static HashSet<String> fullSelection(File target, String grain) throws Exception {
+        ClassInventory inventory = ClassInventory.scan(target.getPath());
+        HashSet<String> testMethods = new HashSet<>();
+        CallGraphIndex edges = EdgeExtractor.extract(CallGraphFactory.makeCallGraph(inventory.getClassFiles()), testMethods);
+        CallGraphIndex classIndex = DotUtil.buildClassIndex(edges);
+        CallGraphIndex methodIndex = DotUtil.buildMethodIndex(edges);
+        TestClassIndex testClasses = TestClassIndex.build(inventory.getTestClassNames(), testMethods, methodIndex);
+        return Analyzer.selectTests(grain, classIndex, methodIndex, CHANGES, testClasses, testMethods);
+    }
+}
@@ -0,0 +1,113 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 选择结果的排序与分片
+ *
+ * @author csh
+ */
+public class TestPrioritizerTest {
+
+    private static final String CHANGE = "Lp/A p.A.a()V";
+    private static final String DIRECT = "Lp/T1 p.T1.direct()V";
+    private static final String VIA_B0 = "Lp/T0 p.T0.viaB()V";
+    private static final String VIA_B2 = "Lp/T2 p.T2.viaB()V";
+    private static final String UNREACHED = "Lp/Z p.Z.z()V";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rankByDistanceThenName() {
+        CallGraphIndex index = new CallGraphIndex();
+        index.addEdge(CHANGE, DIRECT);
+        index.addEdge(CHANGE, "Lp/B p.B.b()V");
+        index.addEdge("Lp/B p.B.b()V", VIA_B2);
+        index.addEdge("Lp/B p.B.b()V", VIA_B0);
+        List<String> changes = Collections.singletonList(CHANGE);
+        // 距离相同时按名称排列，不在图中的测试排在最后
+        assertEquals(Arrays.asList(DIRECT, VIA_B0, VIA_B2, UNREACHED),
+                TestPrioritizer.rank(Arrays.asList(UNREACHED, VIA_B2, VIA_B0, DIRECT), "method", index, changes));
+
+        CallGraphIndex classIndex = new CallGraphIndex();
+        classIndex.addEdge("Lp/A", "Lp/B");
+        classIndex.addEdge("Lp/B", "Lp/T0");
+        classIndex.addEdge("Lp/A", "Lp/T1");
+        assertEquals(Arrays.asList(DIRECT, VIA_B0),
+                TestPrioritizer.rank(Arrays.asList(VIA_B0, DIRECT), "class", classIndex, changes));
+    }
+
+    @Test
+    public void shardWithoutDurationsRoundRobins() {
+        List<String> ranked = Arrays.asList("t0", "t1", "t2", "t3", "t4");
+        assertEquals(Arrays.asList(Arrays.asList("t0", "t2", "t4"), Arrays.asList("t1", "t3")),
+                TestPrioritizer.shard(ranked, 2, new HashMap<>()));
+    }
+
+    @Test
+    public void shardBalancesDurations() {
+        HashMap<String, Long> durations = new HashMap<>();
+        durations.put("a", 100L);
+        durations.put("b", 60L);
+        durations.put("c", 50L);
+        durations.put("d", 40L);
+        // a -> 0, b -> 1, c -> 1 (60 < 100), d -> 0 (100 < 110)
+        assertEquals(Arrays.asList(Arrays.asList("a", "d"), Arrays.asList("b", "c")),
+                TestPrioritizer.shard(Arrays.asList("a", "b", "c", "d"), 2, durations));
+    }
+
+    @Test
+    public void unknownTestsUseAverageDuration() {
+        HashMap<String, Long> durations = new HashMap<>();
+        durations.put("a", 100L);
+        durations.put("b", 20L);
+        // u按平均的60计算：a -> 0, u -> 1, b -> 1，分片内部保持排序后的顺序
+        assertEquals(Arrays.asList(Collections.singletonList("a"), Arrays.asList("b", "u")),
+                TestPrioritizer.shard(Arrays.asList("a", "b", "u"), 2, durations));
+    }
+
+    @Test
+    public void moreShardsThanTests() {
+        ArrayList<ArrayList<String>> shards = TestPrioritizer.shard(Arrays.asList("t0", "t1"), 4, new HashMap<>());
+        assertEquals(Arrays.asList(Collections.singletonList("t0"), Collections.singletonList("t1"),
+                Collections.emptyList(), Collections.emptyList()), shards);
+    }
+
+    @Test
+    public void readDurations() throws Exception {
+        File file = write("# 注释", "", DIRECT + "\t120", VIA_B0 + " 30");
+        HashMap<String, Long> expected = new HashMap<>();
+        expected.put(DIRECT, 120L);
+        expected.put(VIA_B0, 30L);
+        assertEquals(expected, TestPrioritizer.readDurations(file));
+
+        for (String malformed : new String[]{"noDuration", DIRECT + " fast", DIRECT + "\t"}) {
+            try {
+                TestPrioritizer.readDurations(write(malformed));
+                fail("accepted " + malformed);
+            } catch (IOException expectedException) {
+                // 期望的结果
+            }
+        }
+    }
+
+    private File write(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+}